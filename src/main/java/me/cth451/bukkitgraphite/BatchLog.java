@@ -0,0 +1,419 @@
+package me.cth451.bukkitgraphite;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded log of scraped shards shared by all updaters, each reading it through a {@link Cursor} of its own.
+ * <p>
+ * Scrape cycles append to the log, and every cursor moves through it at the pace of its updater. A shard stays in the
+ * log until every cursor has read it, so a slow updater only holds back shards it hasn't read yet and never delays the
+ * others. When the log is full, the configured {@link OverflowPolicy} decides what gives, so a hanging backend costs a
+ * fixed amount of memory instead of an ever growing backlog; shards evicted or skipped this way are lost only to the
+ * cursors that hadn't read them. The log owns the shards it holds and releases them once read by everyone or dropped.
+ * Shards handed out by a cursor are retained for the reader, who must release them.
+ * <p>
+ * Shards appended while there are no cursors are kept, up to capacity, and handed to cursors opened later.
+ */
+public class BatchLog {
+	/**
+	 * What to do with a new shard when the log is full
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Release the oldest shard to make room
+		 */
+		DROP_OLDEST,
+		/**
+		 * Skip the incoming shard for the cursors that have a full log's worth of shards to read. They keep those
+		 * shards to themselves and skip every shard appended until they read them, while the other cursors carry on.
+		 * Without cursors, the incoming shard is released.
+		 */
+		DROP_NEWEST,
+		/**
+		 * Fold the incoming shard into the newest one, keeping the latest value of each series. If a cursor has already
+		 * read the newest shard it can't be changed anymore, and the oldest shard is dropped instead. The merge runs
+		 * outside the log's lock; cursors read up to the shard being merged in the meantime.
+		 */
+		MERGE_NEWEST;
+
+		/**
+		 * @param name policy name as written in the config, e.g. drop-oldest
+		 * @return matching policy, or null if there is none
+		 */
+		public static @Nullable OverflowPolicy fromConfig(@Nullable String name) {
+			if (name == null) {
+				return null;
+			}
+			for (OverflowPolicy p : values()) {
+				if (p.configName().equalsIgnoreCase(name)) {
+					return p;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return policy name as written in the config
+		 */
+		public @NotNull String configName() {
+			return name().toLowerCase().replace('_', '-');
+		}
+	}
+
+	public static final int DEFAULT_CAPACITY = 1024;
+	public static final OverflowPolicy DEFAULT_POLICY = OverflowPolicy.DROP_OLDEST;
+
+	/**
+	 * Read position of one reader. All methods synchronize on the log.
+	 */
+	public final class Cursor {
+		/**
+		 * Sequence number of the next shard to read
+		 */
+		private long position;
+
+		/**
+		 * Shards evicted before this cursor got to them, not yet reported by {@link #takeDropped()}
+		 */
+		private long dropped = 0;
+
+		/**
+		 * Shards this cursor kept to itself under {@link OverflowPolicy#DROP_NEWEST}, retained for it - null while it
+		 * reads from the log. Shards appended while it has a backlog are skipped.
+		 */
+		private List<MetricBatch> backlog = null;
+
+		private Cursor(long position) {
+			this.position = position;
+		}
+
+		/**
+		 * Hand out all shards this cursor hasn't read yet, oldest first, and move past them. Each shard is retained
+		 * for the caller, who must release it.
+		 *
+		 * @param into list to append to
+		 * @return number of shards handed out
+		 */
+		public int drainTo(@NotNull List<MetricBatch> into) {
+			synchronized (BatchLog.this) {
+				if (backlog != null) {
+					/* Ownership of the backlog passes to the caller, and shards skipped meanwhile stay skipped */
+					int n = backlog.size();
+					into.addAll(backlog);
+					backlog = null;
+					position = tail;
+					return n;
+				}
+				long end = readableEndWithLock();
+				int n = (int) (end - position);
+				for (; position < end; position++) {
+					into.add(ring[indexOf(position)].retain());
+				}
+				trimWithLock();
+				return n;
+			}
+		}
+
+		/**
+		 * @return end of the shards this cursor may read right now - everything but a shard being merged
+		 */
+		private long readableEndWithLock() {
+			return merging >= position ? merging : tail;
+		}
+
+		/**
+		 * @return number of shards appended but not yet read by this cursor
+		 */
+		public int lag() {
+			synchronized (BatchLog.this) {
+				return backlog != null ? backlog.size() : (int) (readableEndWithLock() - position);
+			}
+		}
+
+		/**
+		 * @param now current time in milliseconds
+		 * @return age of the oldest shard this cursor hasn't read yet, or 0 if it is caught up
+		 */
+		public long lagMillis(long now) {
+			synchronized (BatchLog.this) {
+				if (backlog != null) {
+					return backlog.isEmpty() ? 0 : Math.max(0, now - backlog.get(0).timestamp());
+				}
+				return position == tail ? 0 : Math.max(0, now - ring[indexOf(position)].timestamp());
+			}
+		}
+
+		/**
+		 * @return number of shards evicted before this cursor read them since the last call
+		 */
+		public long takeDropped() {
+			synchronized (BatchLog.this) {
+				long n = dropped;
+				dropped = 0;
+				return n;
+			}
+		}
+
+		/**
+		 * Stop reading. Shards only this cursor hadn't read are released.
+		 */
+		public void close() {
+			synchronized (BatchLog.this) {
+				if (backlog != null) {
+					backlog.forEach(MetricBatch::release);
+					backlog = null;
+				}
+				if (cursors.remove(this)) {
+					trimWithLock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Shards by sequence number modulo capacity
+	 */
+	private MetricBatch[] ring;
+
+	/**
+	 * Sequence number of the oldest shard held
+	 */
+	private long head = 0;
+
+	/**
+	 * Sequence number the next shard appended gets
+	 */
+	private long tail = 0;
+
+	private final ArrayList<Cursor> cursors = new ArrayList<>();
+	private OverflowPolicy policy;
+
+	private long dropped = 0;
+	private long merged = 0;
+
+	/**
+	 * Sequence number of the shard being merged into outside the lock, or -1 if no merge is in progress
+	 */
+	private long merging = -1;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity maximum number of shards held
+	 * @param policy   what to do when full
+	 */
+	public BatchLog(int capacity, @NotNull OverflowPolicy policy) {
+		this.ring = new MetricBatch[Math.max(1, capacity)];
+		this.policy = policy;
+	}
+
+	private int indexOf(long sequence) {
+		return (int) (sequence % ring.length);
+	}
+
+	/**
+	 * Change capacity and policy. Shards beyond the new capacity are dropped, oldest first.
+	 *
+	 * @param capacity maximum number of shards held
+	 * @param policy   what to do when full
+	 */
+	public synchronized void configure(int capacity, @NotNull OverflowPolicy policy) {
+		this.policy = policy;
+		capacity = Math.max(1, capacity);
+		if (capacity == ring.length) {
+			return;
+		}
+		while (tail - head > capacity) {
+			evictOldestWithLock();
+		}
+		MetricBatch[] resized = new MetricBatch[capacity];
+		for (long s = head; s < tail; s++) {
+			resized[(int) (s % capacity)] = ring[indexOf(s)];
+		}
+		this.ring = resized;
+	}
+
+	/**
+	 * Start reading the log from its oldest shard
+	 *
+	 * @return new cursor
+	 */
+	public synchronized @NotNull Cursor openCursor() {
+		Cursor cursor = new Cursor(head);
+		cursors.add(cursor);
+		return cursor;
+	}
+
+	/**
+	 * Append a shard, taking ownership of it
+	 *
+	 * @param shard scraped shard
+	 */
+	public void offer(@NotNull MetricBatch shard) {
+		MetricBatch target;
+		synchronized (this) {
+			target = offerWithLock(shard);
+			if (target == null) {
+				return;
+			}
+		}
+		try {
+			target.mergeLatest(shard);
+		} finally {
+			shard.release();
+			target.release();
+			synchronized (this) {
+				merging = -1;
+				merged++;
+			}
+		}
+	}
+
+	/**
+	 * Append a shard or apply the overflow policy
+	 *
+	 * @param shard scraped shard
+	 * @return shard to merge the incoming one into once the lock is released, retained for the caller - null if the
+	 * incoming shard has been dealt with
+	 */
+	private @Nullable MetricBatch offerWithLock(@NotNull MetricBatch shard) {
+		boolean skipped = false;
+		for (Cursor c : cursors) {
+			if (c.backlog != null) {
+				c.dropped++;
+				skipped = true;
+			}
+		}
+		if (tail - head == ring.length) {
+			switch (policy) {
+				case DROP_OLDEST -> evictOldestWithLock();
+				case DROP_NEWEST -> {
+					skipped |= detachFullCursorsWithLock();
+					if (tail - head == ring.length) {
+						shard.release();
+						dropped++;
+						return null;
+					}
+				}
+				case MERGE_NEWEST -> {
+					long newest = tail - 1;
+					if (merging < 0 && cursors.stream().noneMatch(c -> c.backlog == null && c.position > newest)) {
+						merging = newest;
+						return ring[indexOf(newest)].retain();
+					}
+					evictOldestWithLock();
+				}
+			}
+		}
+		if (skipped) {
+			dropped++;
+			if (cursors.stream().allMatch(c -> c.backlog != null)) {
+				/* Nobody left to read it */
+				shard.release();
+				return null;
+			}
+		}
+		ring[indexOf(tail)] = shard;
+		tail++;
+		return null;
+	}
+
+	/**
+	 * Hand the cursors that haven't read any shard in the log a backlog of their own, so the log can make room
+	 * without taking anything from them
+	 *
+	 * @return whether any cursor was detached
+	 */
+	private boolean detachFullCursorsWithLock() {
+		boolean detached = false;
+		for (Cursor c : cursors) {
+			if (c.backlog != null || c.position != head) {
+				continue;
+			}
+			c.backlog = new ArrayList<>((int) (tail - head));
+			for (long s = head; s < tail; s++) {
+				c.backlog.add(ring[indexOf(s)].retain());
+			}
+			c.dropped++;
+			detached = true;
+		}
+		if (detached) {
+			trimWithLock();
+		}
+		return detached;
+	}
+
+	/**
+	 * Release the oldest shard, moving cursors that hadn't read it yet past it
+	 */
+	private void evictOldestWithLock() {
+		ring[indexOf(head)].release();
+		ring[indexOf(head)] = null;
+		head++;
+		dropped++;
+		for (Cursor c : cursors) {
+			if (c.backlog == null && c.position < head) {
+				c.position = head;
+				c.dropped++;
+			}
+		}
+	}
+
+	/**
+	 * Release shards every cursor reading from the log has read. Without cursors everything is kept for cursors to
+	 * come.
+	 */
+	private void trimWithLock() {
+		if (cursors.isEmpty()) {
+			return;
+		}
+		long min = tail;
+		for (Cursor c : cursors) {
+			if (c.backlog == null) {
+				min = Math.min(min, c.position);
+			}
+		}
+		while (head < min) {
+			ring[indexOf(head)].release();
+			ring[indexOf(head)] = null;
+			head++;
+		}
+	}
+
+	/**
+	 * @return number of shards held, i.e. not yet read by at least one cursor
+	 */
+	public synchronized int size() {
+		return (int) (tail - head);
+	}
+
+	/**
+	 * @return maximum number of shards held
+	 */
+	public synchronized int capacity() {
+		return ring.length;
+	}
+
+	public synchronized @NotNull OverflowPolicy policy() {
+		return policy;
+	}
+
+	/**
+	 * @return number of shards released before every cursor read them because the log was full
+	 */
+	public synchronized long dropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return number of shards folded into the newest shard because the log was full
+	 */
+	public synchronized long merged() {
+		return merged;
+	}
+}
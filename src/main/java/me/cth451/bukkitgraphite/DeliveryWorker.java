@@ -0,0 +1,253 @@
+package me.cth451.bukkitgraphite;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.updater.Spool;
+import me.cth451.bukkitgraphite.updater.Updater;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers shards from the {@link BatchLog} to one updater on a thread of its own.
+ * <p>
+ * Each worker reads the log through its own cursor, so an updater stuck on a slow backend only falls behind itself.
+ * Shards it can't deliver go to its {@link Spool} if it has one, and are counted as dropped otherwise.
+ * <p>
+ * The worker thread parks while it is caught up and is unparked by {@link #poke()} as soon as a shard is published,
+ * so shards go out right after scraping without any polling. With a flush interval set, shards are instead coalesced
+ * into one send until the oldest of them is a flush interval old or a flush size of them is waiting, trading latency
+ * for fewer sends. Shards published while a send is in progress are picked up together once it completes.
+ */
+class DeliveryWorker implements Runnable {
+	private final Updater updater;
+	private final Spool spool;
+	private final BatchLog.Cursor cursor;
+	private final Logger logger;
+	private final Thread thread;
+	private final long flushIntervalMillis;
+	private final int flushShards;
+	private volatile boolean closed = false;
+
+	/**
+	 * Maximum time to wait for sends in progress when workers are closed
+	 */
+	private static final long CLOSE_TIMEOUT_MS = 5000;
+
+	/**
+	 * Constructor
+	 *
+	 * @param updater updater to deliver to
+	 * @param spool   spool of the updater - null if it has none
+	 * @param log                 log to read shards from
+	 * @param flushIntervalMillis send once the oldest waiting shard is this old
+	 * @param flushShards         send once this many shards are waiting
+	 * @param logger              where to report failures
+	 */
+	DeliveryWorker(@NotNull Updater updater, @Nullable Spool spool, @NotNull BatchLog log, long flushIntervalMillis,
+	               int flushShards, @NotNull Logger logger) {
+		this.updater = updater;
+		this.spool = spool;
+		this.cursor = log.openCursor();
+		this.flushIntervalMillis = Math.max(0, flushIntervalMillis);
+		this.flushShards = Math.max(1, flushShards);
+		this.logger = logger;
+		this.thread = new Thread(this, "BukkitGraphite-Delivery-" + updater.id());
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	@NotNull Updater updater() {
+		return updater;
+	}
+
+	@Nullable Spool spool() {
+		return spool;
+	}
+
+	/**
+	 * @return number of shards waiting for this worker
+	 */
+	int lag() {
+		return cursor.lag();
+	}
+
+	/**
+	 * @return age of the oldest shard waiting for this worker in milliseconds, or 0 if it is caught up
+	 */
+	long lagMillis() {
+		return cursor.lagMillis(System.currentTimeMillis());
+	}
+
+	/**
+	 * Wake the worker to deliver whatever is new in the log. Returns right away and never blocks.
+	 */
+	void poke() {
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Stop workers, waiting a little for sends in progress. All workers are told to stop first and then waited for
+	 * against one deadline, so that the wait is bounded no matter how many updaters are stuck.
+	 *
+	 * @param workers workers to stop
+	 */
+	static void closeAll(@NotNull DeliveryWorker[] workers) {
+		for (DeliveryWorker w : workers) {
+			w.closed = true;
+			LockSupport.unpark(w.thread);
+		}
+		long deadline = System.nanoTime() + CLOSE_TIMEOUT_MS * 1_000_000L;
+		for (DeliveryWorker w : workers) {
+			w.awaitClose(deadline);
+		}
+	}
+
+	/**
+	 * Wait for a worker told to stop until the deadline, interrupting it if it is still busy by then, and give up its
+	 * place in the log.
+	 *
+	 * @param deadline System.nanoTime() to stop waiting at
+	 */
+	private void awaitClose(long deadline) {
+		long remaining = deadline - System.nanoTime();
+		try {
+			if (remaining > 0) {
+				thread.join(remaining / 1_000_000, (int) (remaining % 1_000_000));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread.interrupt();
+		cursor.close();
+		if (spool != null) {
+			spool.close();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (!closed) {
+			/* A poke between the check and park() leaves a permit behind, so park() returns right away */
+			int lag = cursor.lag();
+			if (lag == 0) {
+				LockSupport.park(this);
+				continue;
+			}
+			long waitMillis = lag >= flushShards ? 0 : flushIntervalMillis - lagMillis();
+			if (waitMillis > 0) {
+				LockSupport.parkNanos(this, waitMillis * 1_000_000L);
+				continue;
+			}
+			deliverPending();
+		}
+		/* Shards still being coalesced go out before the updater is flushed */
+		if (!Thread.currentThread().isInterrupted()) {
+			deliverPending();
+		}
+		try {
+			updater.flushPending();
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Updater " + updater.id() + " threw an exception", e);
+		}
+	}
+
+	/**
+	 * Send all shards this worker hasn't sent yet in one go
+	 */
+	private void deliverPending() {
+		long evicted = cursor.takeDropped();
+		if (evicted > 0) {
+			updater.deliveryStats().recordDropped((int) evicted);
+		}
+		List<MetricBatch> pending = new ArrayList<>();
+		if (cursor.drainTo(pending) == 0) {
+			return;
+		}
+		try {
+			deliver(pending);
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Updater " + updater.id() + " threw an exception", e);
+		} finally {
+			pending.forEach(MetricBatch::release);
+		}
+	}
+
+	/**
+	 * Hand batches to the updater, spooling them if it is unavailable or fails, and replay spooled batches once it
+	 * accepts an update again.
+	 *
+	 * @param pending batches to send, oldest first
+	 */
+	private void deliver(@NotNull List<MetricBatch> pending) {
+		/* Updaters backing off from a dead remote are skipped here so that they cost nothing */
+		if (!updater.isAvailable()) {
+			spoolOrDrop(pending);
+			return;
+		}
+		if (!sendAndRecord(pending)) {
+			logger.warning(updater.name() + " has failed!");
+			spoolOrDrop(pending);
+		} else if (spool != null) {
+			replay();
+		}
+	}
+
+	/**
+	 * Hand batches to the updater, recording latency, outcome and delivery delay in its stats.
+	 *
+	 * @param pending batches to send, oldest first
+	 * @return whether the update was accepted
+	 */
+	private boolean sendAndRecord(@NotNull List<MetricBatch> pending) {
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			success = updater.sendUpdates(pending);
+			return success;
+		} finally {
+			long delay = System.currentTimeMillis() - pending.get(0).timestamp();
+			updater.deliveryStats().recordSend(System.nanoTime() - start, success, delay);
+		}
+	}
+
+	/**
+	 * Keep batches the updater could not deliver in its spool, or count them as lost if it doesn't have one.
+	 *
+	 * @param pending batches to keep
+	 */
+	private void spoolOrDrop(@NotNull List<MetricBatch> pending) {
+		if (spool != null) {
+			try {
+				spool.append(pending);
+				updater.deliveryStats().recordSpooled(pending.size());
+				return;
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot spool updates for " + updater.name(), e);
+			}
+		}
+		updater.deliveryStats().recordDropped(pending.size());
+	}
+
+	/**
+	 * Send spooled batches to the updater after it accepted an update, as far as the replay rate limit allows.
+	 * Whatever the updater doesn't accept stays in the spool for the next attempt.
+	 */
+	private void replay() {
+		try {
+			Spool.Replay replay = spool.peek();
+			if (replay.batches().isEmpty() || !updater.sendUpdates(replay.batches())) {
+				return;
+			}
+			spool.commit(replay);
+			updater.deliveryStats().recordReplayed(replay.points());
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot replay spool of " + updater.name(), e);
+		}
+	}
+}
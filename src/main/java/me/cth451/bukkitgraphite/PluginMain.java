@@ -30,6 +30,7 @@ public class PluginMain extends JavaPlugin {
 	public void onDisable() {
 		manager.stop();
 		manager.unregisterAll();
+		manager.shutdown();
 		Bukkit.getScheduler().cancelTasks(this);
 	}
 
@@ -0,0 +1,116 @@
+package me.cth451.bukkitgraphite;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricGroup;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * One round of scraping whose results are split between the main thread and scrape workers.
+ * <p>
+ * Every group scrapes into a part of its own, stamped with the time it was scraped, and hands it in with
+ * {@link #addPart(MetricBatch)}. Parts stamped alike share a shard, so groups scraped on the same tick are published
+ * together. The main thread part and each worker thread part are accounted for with {@link #forkPart()} /
+ * {@link #completePart()}, and whichever part completes last publishes the shards, oldest first.
+ */
+class ScrapeCycle {
+	/**
+	 * Shards by timestamp, guarded by this
+	 */
+	private final TreeMap<Long, MetricBatch> shards = new TreeMap<>();
+
+	/**
+	 * Groups scraped in this cycle so far. Only touched from the main thread.
+	 */
+	private final Set<MetricGroup> groups = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	private final Consumer<MetricBatch> publisher;
+
+	/**
+	 * Parts not yet completed. Starts at one for the main thread part.
+	 */
+	private int pendingParts = 1;
+
+	private boolean abandoned = false;
+
+	/**
+	 * Constructor
+	 *
+	 * @param publisher receives each shard once all parts completed
+	 */
+	ScrapeCycle(@NotNull Consumer<MetricBatch> publisher) {
+		this.publisher = publisher;
+	}
+
+	/**
+	 * Claim a group for this cycle, so that it is scraped at most once per cycle. Only called from the main thread.
+	 *
+	 * @param group group due for scraping
+	 * @return false if the group has already been scraped in this cycle
+	 */
+	boolean claim(@NotNull MetricGroup group) {
+		return groups.add(group);
+	}
+
+	/**
+	 * Account for an additional part before handing it to a worker.
+	 */
+	synchronized void forkPart() {
+		pendingParts++;
+	}
+
+	/**
+	 * Add the results of one group, taking ownership of them.
+	 *
+	 * @param part data points scraped by a group, stamped with the time it was scraped
+	 */
+	synchronized void addPart(@NotNull MetricBatch part) {
+		if (abandoned) {
+			part.release();
+			return;
+		}
+		MetricBatch shard = shards.putIfAbsent(part.timestamp(), part);
+		if (shard != null) {
+			shard.addAll(part);
+			part.release();
+		}
+	}
+
+	/**
+	 * Mark one part as done, publishing the results if it was the last one.
+	 */
+	void completePart() {
+		boolean last;
+		synchronized (this) {
+			last = --pendingParts == 0;
+		}
+		if (last) {
+			finish();
+		}
+	}
+
+	/**
+	 * Give up on this cycle, e.g. because the configuration is being reloaded. This completes the main thread part;
+	 * once worker parts complete, results are thrown away instead of being published.
+	 */
+	void abandon() {
+		synchronized (this) {
+			abandoned = true;
+		}
+		completePart();
+	}
+
+	private void finish() {
+		if (abandoned) {
+			shards.values().forEach(MetricBatch::release);
+		} else {
+			shards.values().forEach(publisher);
+		}
+		shards.clear();
+	}
+}
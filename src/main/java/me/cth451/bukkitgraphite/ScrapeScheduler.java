@@ -0,0 +1,120 @@
+package me.cth451.bukkitgraphite;
+
+import me.cth451.bukkitgraphite.metric.model.MetricGroup;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timing wheel deciding which metric groups are due on each server tick.
+ * <p>
+ * Every group is scraped at its own interval. Groups sharing an interval get their first run spread evenly across
+ * that interval, so that expensive groups don't all land on the same tick. The scheduler is meant to be advanced
+ * from the main thread exactly once per tick and does not allocate while doing so.
+ */
+public class ScrapeScheduler {
+	/**
+	 * Number of slots in the wheel - must be a power of two. Intervals longer than this take multiple rounds.
+	 */
+	private static final int WHEEL_SIZE = 64;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+	private static class Entry {
+		final MetricGroup group;
+		final int interval;
+
+		/**
+		 * Full wheel rotations left before this entry is due
+		 */
+		int rounds;
+
+		Entry(MetricGroup group, int interval) {
+			this.group = group;
+			this.interval = interval;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private final ArrayList<Entry>[] wheel = new ArrayList[WHEEL_SIZE];
+
+	/**
+	 * Slot visited by the next call to {@link #tick(MetricGroup[])}
+	 */
+	private int cursor = 0;
+
+	private final int groupCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param groups    metric groups to schedule
+	 * @param intervals scrape interval in ticks for each group, same order as groups
+	 */
+	public ScrapeScheduler(@NotNull List<MetricGroup> groups, int[] intervals) {
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel[i] = new ArrayList<>();
+		}
+		this.groupCount = groups.size();
+		for (int i = 0; i < groups.size(); i++) {
+			int interval = Math.max(1, intervals[i]);
+			/* Stagger groups with the same interval evenly across that interval */
+			int peers = 0;
+			int rank = 0;
+			for (int j = 0; j < groups.size(); j++) {
+				if (Math.max(1, intervals[j]) == interval) {
+					if (j < i) {
+						rank++;
+					}
+					peers++;
+				}
+			}
+			schedule(new Entry(groups.get(i), interval), (int) ((long) rank * interval / peers));
+		}
+	}
+
+	/**
+	 * @return scheduler that never runs anything
+	 */
+	public static @NotNull ScrapeScheduler empty() {
+		return new ScrapeScheduler(List.of(), new int[0]);
+	}
+
+	/**
+	 * @return number of groups scheduled, which is the largest number of groups a single tick may return
+	 */
+	public int size() {
+		return groupCount;
+	}
+
+	private void schedule(@NotNull Entry entry, int delay) {
+		entry.rounds = delay / WHEEL_SIZE;
+		wheel[(cursor + delay) & WHEEL_MASK].add(entry);
+	}
+
+	/**
+	 * Advance the wheel by one tick.
+	 *
+	 * @param due receives groups due on this tick - must have room for {@link #size()} groups
+	 * @return number of groups written to due
+	 */
+	public int tick(MetricGroup[] due) {
+		ArrayList<Entry> slot = wheel[cursor];
+		cursor = (cursor + 1) & WHEEL_MASK;
+		int count = 0;
+		for (int i = slot.size() - 1; i >= 0; i--) {
+			Entry entry = slot.get(i);
+			if (entry.rounds > 0) {
+				entry.rounds--;
+				continue;
+			}
+			/* Swap-remove and put back into the slot one interval ahead */
+			int last = slot.size() - 1;
+			slot.set(i, slot.get(last));
+			slot.remove(last);
+			due[count++] = entry.group;
+			schedule(entry, entry.interval - 1);
+		}
+		return count;
+	}
+}
@@ -1,10 +1,17 @@
 package me.cth451.bukkitgraphite;
 
 import me.cth451.bukkitgraphite.metric.*;
-import me.cth451.bukkitgraphite.metric.model.MetricEntry;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricBatchPool;
 import me.cth451.bukkitgraphite.metric.model.MetricGroup;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
 import me.cth451.bukkitgraphite.updater.ConsoleUpdater;
 import me.cth451.bukkitgraphite.updater.GraphiteUpdater;
+import me.cth451.bukkitgraphite.updater.InfluxUpdater;
+import me.cth451.bukkitgraphite.updater.PrometheusNodeExporter;
+import me.cth451.bukkitgraphite.updater.PushgatewayUpdater;
+import me.cth451.bukkitgraphite.updater.Spool;
+import me.cth451.bukkitgraphite.updater.StatsdUpdater;
 import me.cth451.bukkitgraphite.updater.Updater;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.ConfigurationSection;
@@ -13,15 +20,20 @@ import org.bukkit.scheduler.BukkitTask;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.InvocationTargetException;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 
@@ -30,15 +42,153 @@ public class UpdaterManager {
 	private final PluginMain plugin;
 	private final ReentrantLock configurationLock = new ReentrantLock();
 	private final HashMap<String, PluggableModule> modules = new HashMap<>();
-	private final ConcurrentLinkedQueue<Collection<MetricEntry>> updateQueue = new ConcurrentLinkedQueue<>();
-	private int updateIntervalTicks = 20;
+	/**
+	 * Shards waiting to be sent by at least one updater, bounded by options.global.queue-capacity
+	 */
+	private final BatchLog batchLog = new BatchLog(BatchLog.DEFAULT_CAPACITY, BatchLog.DEFAULT_POLICY);
+	private final MetricBatchPool batchPool = new MetricBatchPool(MetricPathRegistry.global(), 64);
+
+	/**
+	 * Snapshot of registered metric groups and updaters, so that hot paths don't walk the module map
+	 */
+	private volatile MetricGroup[] metricGroups = new MetricGroup[0];
+	private volatile Updater[] updaters = new Updater[0];
+
+	/**
+	 * One delivery worker per registered updater, each reading the batch log at its own pace
+	 */
+	private volatile DeliveryWorker[] workers = new DeliveryWorker[0];
+
+	/**
+	 * Decides which metric groups to scrape on each tick. Only used with configurationLock held.
+	 */
+	private ScrapeScheduler scheduler = ScrapeScheduler.empty();
+
+	/**
+	 * Scratch array receiving groups due on the current tick
+	 */
+	private MetricGroup[] dueGroups = new MetricGroup[0];
+
+	/**
+	 * Groups whose scrape has been started or is due but not yet complete, in the order they will be worked on
+	 */
+	private MetricGroup[] runQueue = new MetricGroup[0];
+	private int runQueueSize = 0;
+
+	/**
+	 * Part each group in the run queue scrapes into, stamped with the tick its scrape started on - null until then
+	 */
+	private MetricBatch[] runParts = new MetricBatch[0];
+
+	/**
+	 * Scrape cycle in progress - null if none. The main thread part completes once the run queue drains.
+	 */
+	private ScrapeCycle cycle = null;
+
+	/**
+	 * Worker jobs for metric groups declaring themselves async-safe
+	 */
+	private IdentityHashMap<MetricGroup, AsyncScrapeJob> asyncJobs = new IdentityHashMap<>();
+
+	/**
+	 * Shards thrown away before reaching the update queue
+	 */
+	private final LongAdder droppedShards = new LongAdder();
+
+	/**
+	 * Hands finished scrape cycles to the batch log and wakes delivery workers right away
+	 */
+	private final Consumer<MetricBatch> publisher = shard -> {
+		this.batchLog.offer(shard);
+		this.update();
+	};
+
+	/**
+	 * Main thread time allowed for scraping per tick
+	 */
+	private long scrapeBudgetNanos = DEFAULT_SCRAPE_BUDGET_NS;
+	private volatile long missedBudgetTicks = 0;
+	private long lastBudgetWarningNanos = 0;
+	public static final long DEFAULT_SCRAPE_BUDGET_NS = 2_000_000;
+	private static final long BUDGET_WARNING_INTERVAL_NS = 60_000_000_000L;
+
+	/**
+	 * How long and how many shards delivery workers coalesce into one send - by default every shard goes out as soon
+	 * as it is published
+	 */
+	private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MS;
+	private int flushShards = DEFAULT_FLUSH_SHARDS;
+	public static final long DEFAULT_FLUSH_INTERVAL_MS = 0;
+	public static final int DEFAULT_FLUSH_SHARDS = 64;
+
 	private BukkitTask scrapeTask = null;
-	private BukkitTask updateTask = null;
+
+	/**
+	 * Threads scraping async-safe metric groups off the main thread
+	 */
+	private final ExecutorService scrapePool = Executors.newFixedThreadPool(ASYNC_SCRAPE_THREADS, r -> {
+		Thread t = new Thread(r, "BukkitGraphite-Scrape");
+		t.setDaemon(true);
+		return t;
+	});
+	private static final int ASYNC_SCRAPE_THREADS = 2;
+
+	/**
+	 * Scrapes one async-safe metric group on a worker thread and merges the results into the cycle it was forked from
+	 */
+	private class AsyncScrapeJob implements Runnable {
+		private final MetricGroup group;
+
+		/**
+		 * Cycle this job contributes to - non-null while the job is queued or running
+		 */
+		private volatile ScrapeCycle cycle = null;
+
+		AsyncScrapeJob(MetricGroup group) {
+			this.group = group;
+		}
+
+		boolean isBusy() {
+			return cycle != null;
+		}
+
+		void fork(@NotNull ScrapeCycle cycle) {
+			cycle.forkPart();
+			this.cycle = cycle;
+			scrapePool.execute(this);
+		}
+
+		@Override
+		public void run() {
+			ScrapeCycle target = this.cycle;
+			/* Stamped with the time the scrape starts */
+			MetricBatch part = batchPool.acquire();
+			long start = System.nanoTime();
+			try {
+				group.scrape(part);
+				group.scrapeStats().recordStep(System.nanoTime() - start, true);
+				target.addPart(part);
+				part = null;
+			} catch (RuntimeException e) {
+				plugin.getLogger().log(Level.WARNING, "Metric group " + group.id() + " failed to scrape", e);
+			} finally {
+				if (part != null) {
+					part.release();
+				}
+				this.cycle = null;
+				target.completePart();
+			}
+		}
+	}
 
 	private static final Map<String, Class<? extends Updater>> knownUpdaters =
 			Map.ofEntries(
 					Map.entry(ConsoleUpdater.ID, ConsoleUpdater.class),
-					Map.entry(GraphiteUpdater.ID, GraphiteUpdater.class)
+					Map.entry(GraphiteUpdater.ID, GraphiteUpdater.class),
+					Map.entry(InfluxUpdater.ID, InfluxUpdater.class),
+					Map.entry(PrometheusNodeExporter.ID, PrometheusNodeExporter.class),
+					Map.entry(PushgatewayUpdater.ID, PushgatewayUpdater.class),
+					Map.entry(StatsdUpdater.ID, StatsdUpdater.class)
 			);
 
 	private static final Map<String, Class<? extends MetricGroup>> knownMetricGroups =
@@ -47,7 +197,10 @@ public class UpdaterManager {
 					Map.entry(PlayersActiveMetric.ID, PlayersActiveMetric.class),
 					Map.entry(ServerLoadedMetric.ID, ServerLoadedMetric.class),
 					Map.entry(ServerTpsMetric.ID, ServerTpsMetric.class),
-					Map.entry(ServerLoginMetric.ID, ServerLoginMetric.class)
+					Map.entry(ServerLoginMetric.ID, ServerLoginMetric.class),
+					Map.entry(TickDurationMetric.ID, TickDurationMetric.class),
+					Map.entry(LagSpikeMetric.ID, LagSpikeMetric.class),
+					Map.entry(PipelineMetric.ID, PipelineMetric.class)
 			);
 
 	public UpdaterManager(PluginMain plugin) {
@@ -64,11 +217,116 @@ public class UpdaterManager {
 	 */
 	public void unregisterAll() {
 		configurationLock.lock();
+		/* Let sends in progress finish before their updaters go away */
+		DeliveryWorker.closeAll(this.workers);
+		this.workers = new DeliveryWorker[0];
 		this.modules.values().forEach(PluggableModule::halt);
 		this.modules.clear();
+		refreshSnapshotWithLock();
 		configurationLock.unlock();
 	}
 
+	/**
+	 * Rebuild metric group and updater snapshots after the set of registered modules changed.
+	 * <p>
+	 * This method should only be called when configurationLock is held.
+	 */
+	private void refreshSnapshotWithLock() {
+		this.metricGroups = modules.values().stream()
+		                           .filter(MetricGroup.class::isInstance)
+		                           .map(MetricGroup.class::cast)
+		                           .toArray(MetricGroup[]::new);
+		this.updaters = modules.values().stream()
+		                       .filter(Updater.class::isInstance)
+		                       .map(Updater.class::cast)
+		                       .toArray(Updater[]::new);
+		List<MetricGroup> groups = Arrays.asList(metricGroups);
+		this.scheduler = new ScrapeScheduler(groups, groups.stream().mapToInt(this::resolveIntervalWithLock).toArray());
+		this.dueGroups = new MetricGroup[groups.size()];
+		for (int i = 0; i < runQueueSize; i++) {
+			if (runParts[i] != null) {
+				runParts[i].release();
+			}
+		}
+		this.runQueue = new MetricGroup[groups.size()];
+		this.runParts = new MetricBatch[groups.size()];
+		this.runQueueSize = 0;
+		if (this.cycle != null) {
+			this.droppedShards.increment();
+			this.cycle.abandon();
+			this.cycle = null;
+		}
+		this.asyncJobs = new IdentityHashMap<>();
+		for (MetricGroup group : metricGroups) {
+			if (group.isAsyncSafe()) {
+				this.asyncJobs.put(group, new AsyncScrapeJob(group));
+			}
+		}
+	}
+
+	/**
+	 * Start a delivery worker for every registered updater.
+	 * <p>
+	 * This method should only be called when configurationLock is held.
+	 */
+	private void startWorkersWithLock() {
+		this.workers = Arrays.stream(updaters)
+		                     .map(u -> new DeliveryWorker(u, openSpoolWithLock(u), batchLog, flushIntervalMillis,
+		                                                  flushShards, plugin.getLogger()))
+		                     .toArray(DeliveryWorker[]::new);
+	}
+
+	/**
+	 * Open the spool of an updater if it has options.updaters.[id].spool.enabled set and its backend accepts data out
+	 * of order. Spool files live in spool/[id] under the plugin data folder, so data spooled before a restart is
+	 * replayed afterwards.
+	 * <p>
+	 * This method should only be called when configurationLock is held.
+	 *
+	 * @param u updater
+	 * @return spool of the updater, or null if it doesn't have one
+	 */
+	private @Nullable Spool openSpoolWithLock(@NotNull Updater u) {
+		ConfigurationSection section = retrieveConfigSection(u);
+		ConfigurationSection spoolSection = section == null ? null : section.getConfigurationSection("spool");
+		if (spoolSection == null || !spoolSection.getBoolean("enabled", false)) {
+			return null;
+		}
+		if (!u.acceptsOutOfOrder()) {
+			plugin.getLogger().warning("Spool of " + u.id() + " ignored: " + u.type() +
+					                           " keeps only the latest values, which replayed data would overwrite");
+			return null;
+		}
+		try {
+			return new Spool(
+					plugin.getDataFolder().toPath().resolve("spool").resolve(u.id()),
+					spoolSection.getLong("segment-bytes", Spool.DEFAULT_SEGMENT_BYTES),
+					spoolSection.getLong("max-bytes", Spool.DEFAULT_MAX_BYTES),
+					spoolSection.getInt("replay-points-per-second", Spool.DEFAULT_REPLAY_POINTS_PER_SECOND),
+					MetricPathRegistry.global());
+		} catch (IOException e) {
+			plugin.getLogger().log(Level.WARNING, "Cannot open spool of " + u.id() + ", continuing without", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Find out how often a metric group should be scraped. Server admins may override the interval a group declares
+	 * with options.metric-groups.[id].interval-ticks.
+	 * <p>
+	 * This method should only be called when configurationLock is held.
+	 *
+	 * @param group metric group
+	 * @return scrape interval in ticks
+	 */
+	private int resolveIntervalWithLock(@NotNull MetricGroup group) {
+		ConfigurationSection section = retrieveConfigSection(group);
+		if (section != null && section.isInt("interval-ticks")) {
+			return Math.max(1, section.getInt("interval-ticks"));
+		}
+		return (int) Math.max(1, Math.round(group.interval()));
+	}
+
 	/**
 	 * Retrieve configuration section for an updater
 	 * <p>
@@ -83,13 +341,28 @@ public class UpdaterManager {
 		return options == null ? null : options.getConfigurationSection(m.id());
 	}
 
+	/**
+	 * Find out which kind of updater an enabled id refers to. Ids of known updater types stand for themselves, other
+	 * ids declare an additional instance of the type in options.updaters.[id].type, e.g. a second graphite backend.
+	 *
+	 * @param id id enabled in the updaters section
+	 * @return updater type, or null if the id doesn't refer to a known updater type
+	 */
+	private @Nullable String resolveUpdaterType(@NotNull String id) {
+		if (knownUpdaters.containsKey(id)) {
+			return id;
+		}
+		String type = this.plugin.getConfig().getString("options.updaters." + id + ".type");
+		return type != null && knownUpdaters.containsKey(type) ? type : null;
+	}
+
 	private @NotNull List<String> retrieveEnabledModules() {
 		ConfigurationSection updaterConf = this.plugin.getConfig().getConfigurationSection("updaters");
 		ConfigurationSection metricGroupConf = this.plugin.getConfig().getConfigurationSection("metric-groups");
 		Stream<String> updaterIds =
 				updaterConf == null ? Stream.empty() :
-						knownUpdaters.keySet().stream()
-						             .filter(k -> updaterConf.getBoolean(k, false));
+						updaterConf.getKeys(false).stream()
+						           .filter(k -> updaterConf.getBoolean(k, false));
 		Stream<String> metricIds =
 				metricGroupConf == null ? Stream.empty() :
 						knownMetricGroups.keySet().stream()
@@ -126,8 +399,9 @@ public class UpdaterManager {
 				.parallelStream()
 				.filter(id -> { /* keep ones that failed to initialize */
 					Class<? extends PluggableModule> cm = null;
-					if (knownUpdaters.containsKey(id)) {
-						cm = knownUpdaters.get(id);
+					String updaterType = resolveUpdaterType(id);
+					if (updaterType != null) {
+						cm = knownUpdaters.get(updaterType);
 					} else if (knownMetricGroups.containsKey(id)) {
 						cm = knownMetricGroups.get(id);
 					} else {
@@ -137,8 +411,11 @@ public class UpdaterManager {
 					}
 
 					try {
-						registerModuleWithLock(
-								cm.getConstructor(PluginMain.class).newInstance(this.plugin));
+						PluggableModule module = cm.getConstructor(PluginMain.class).newInstance(this.plugin);
+						if (module instanceof Updater u) {
+							u.setInstanceId(id);
+						}
+						registerModuleWithLock(module);
 					} catch (InstantiationException | IllegalAccessException |
 					         InvocationTargetException |
 					         NoSuchMethodException e) {
@@ -178,16 +455,34 @@ public class UpdaterManager {
 			this.plugin.complainToChatOrConsole(Level.WARNING, p, failed.size() + "modules failed to configure.");
 		}
 		modules.values().forEach(PluggableModule::start);
+		refreshSnapshotWithLock();
 
 		/* Load global updater preference in `options.global` */
 		{
-			if (!plugin.getConfig().isInt("options.global.scrape-interval-ticks")) {
-				plugin.getConfig().set("options.global.scrape-interval-ticks", 20);
+			if (plugin.getConfig().contains("options.global.scrape-interval-ticks")) {
+				plugin.getLogger().warning("options.global.scrape-interval-ticks is deprecated and ignored - metric " +
+						                           "groups are scraped at their own interval, which can be set with " +
+						                           "options.metric-groups.[id].interval-ticks");
+			}
+			this.scrapeBudgetNanos =
+					Math.max(0, plugin.getConfig().getLong("options.global.scrape-budget-ns", DEFAULT_SCRAPE_BUDGET_NS));
+			this.flushIntervalMillis = Math.max(0, plugin.getConfig().getLong("options.global.flush-interval-ms",
+			                                                                   DEFAULT_FLUSH_INTERVAL_MS));
+			this.flushShards =
+					Math.max(1, plugin.getConfig().getInt("options.global.flush-shards", DEFAULT_FLUSH_SHARDS));
+			String policyName = plugin.getConfig().getString("options.global.queue-policy");
+			BatchLog.OverflowPolicy policy = BatchLog.OverflowPolicy.fromConfig(policyName);
+			if (policy == null) {
+				if (policyName != null) {
+					plugin.getLogger().warning("Unknown queue-policy " + policyName + ", using " +
+							                           BatchLog.DEFAULT_POLICY.configName());
+				}
+				policy = BatchLog.DEFAULT_POLICY;
 			}
-			this.updateIntervalTicks = plugin.getConfig().getInt("options.global.scrape-interval-ticks");
-			String message = "Update Interval: every " + this.updateIntervalTicks + " ticks";
-			plugin.getLogger().info(message);
+			this.batchLog.configure(
+					plugin.getConfig().getInt("options.global.queue-capacity", BatchLog.DEFAULT_CAPACITY), policy);
 		}
+		startWorkersWithLock();
 
 		startWithLock();
 
@@ -195,78 +490,236 @@ public class UpdaterManager {
 	}
 
 	/**
-	 * To be called synchronously - scape one round of update and append to sending queue.
+	 * To be called synchronously once per tick - scrape metric groups due on this tick and append to sending queue.
+	 * <p>
+	 * Scraping stops for this tick once the per-tick budget is used up. Groups that didn't get to run or that yielded
+	 * midway are resumed on the following ticks, and the batch is queued for sending once all of them completed.
 	 */
 	public void scrape() {
+		ScrapeCycle finished = null;
 		configurationLock.lock();
-		List<MetricEntry> entries = modules.values().stream()
-		                                   .filter(MetricGroup.class::isInstance)
-		                                   .map(MetricGroup.class::cast)
-		                                   .map(MetricGroup::scrape) /* Collect stats for all registered metric */
-		                                   .flatMap(List::stream) /* Merge the list together */
-		                                   .toList();
-		configurationLock.unlock();
-		this.updateQueue.add(entries);
+		try {
+			long start = System.nanoTime();
+			long tickMillis = System.currentTimeMillis();
+			enqueueDueWithLock();
+			if (cycle == null) {
+				return;
+			}
+
+			long deadline = start + scrapeBudgetNanos;
+			int remaining = 0;
+			for (int i = 0; i < runQueueSize; i++) {
+				MetricGroup group = runQueue[i];
+				MetricBatch part = runParts[i];
+				runQueue[i] = null;
+				runParts[i] = null;
+				boolean complete = false;
+				/* Always make progress on the first group, even with a zero budget */
+				long stepStart = System.nanoTime();
+				if (i == 0 || stepStart - deadline < 0) {
+					if (part == null) {
+						part = batchPool.acquire();
+						part.setTimestamp(tickMillis);
+					}
+					complete = group.scrapeStep(part, deadline);
+					group.scrapeStats().recordStep(System.nanoTime() - stepStart, complete);
+				}
+				if (complete) {
+					cycle.addPart(part);
+				} else {
+					runQueue[remaining] = group;
+					runParts[remaining++] = part;
+				}
+			}
+			runQueueSize = remaining;
+
+			long elapsed = System.nanoTime() - start;
+			if (elapsed > scrapeBudgetNanos) {
+				reportMissedBudgetWithLock(elapsed);
+			}
+			if (runQueueSize == 0) {
+				finished = cycle;
+				cycle = null;
+			}
+		} finally {
+			configurationLock.unlock();
+		}
+		if (finished != null) {
+			/* Publishes right away unless async groups of this cycle are still running */
+			finished.completePart();
+		}
 	}
 
 	/**
-	 * Called async or sync. Send updates to the server
+	 * Append groups due on this tick to the run queue, or hand them to a scrape worker if they are async-safe. A new
+	 * scrape cycle is opened if anything is due. A group still working on its previous scrape, or already scraped in
+	 * the open cycle, is left alone until it is due again.
+	 * <p>
+	 * This method should only be called when configurationLock is held.
 	 */
-	public void update() {
-		Collection<MetricEntry> shard;
-		while ((shard = this.updateQueue.poll()) != null) {
-			Collection<MetricEntry> finalShard = shard;
-			modules.values().stream()
-			       .parallel()
-			       .filter(Updater.class::isInstance)
-			       .map(Updater.class::cast)
-			       .map(e -> Map.entry(e, e.sendUpdates(finalShard))) /* Execute stat sender */
-			       .filter(e -> !e.getValue()) /* Find ones that failed to update */
-			       .forEach(e -> plugin.getLogger().warning(e.getKey().name() + " has failed!"));
+	private void enqueueDueWithLock() {
+		int due = scheduler.tick(dueGroups);
+		for (int i = 0; i < due; i++) {
+			MetricGroup group = dueGroups[i];
+			dueGroups[i] = null;
+			AsyncScrapeJob job = asyncJobs.get(group);
+			if (job != null && job.isBusy()) {
+				continue;
+			}
+			if (cycle == null) {
+				cycle = new ScrapeCycle(publisher);
+			}
+			if (!cycle.claim(group)) {
+				continue;
+			}
+			if (job != null) {
+				job.fork(cycle);
+			} else {
+				runQueue[runQueueSize++] = group;
+			}
+		}
+	}
+
+	/**
+	 * Count and occasionally log ticks on which scraping exceeded its budget.
+	 * <p>
+	 * This method should only be called when configurationLock is held.
+	 *
+	 * @param elapsed nanoseconds spent scraping on this tick
+	 */
+	private void reportMissedBudgetWithLock(long elapsed) {
+		missedBudgetTicks++;
+		long now = System.nanoTime();
+		if (lastBudgetWarningNanos == 0 || now - lastBudgetWarningNanos > BUDGET_WARNING_INTERVAL_NS) {
+			lastBudgetWarningNanos = now;
+			plugin.getLogger().warning("Scraping took " + elapsed / 1000 + "us, over the budget of " +
+					                           scrapeBudgetNanos / 1000 + "us (" + missedBudgetTicks +
+					                           " ticks over budget so far)");
 		}
 	}
 
 	/**
-	 * Repeating routine that generate one round of update.
+	 * @return number of ticks on which scraping exceeded the main thread budget since the plugin started
 	 */
-	public Runnable getSyncScrapeTask() {
-		class SyncScrapeTask implements Runnable {
-			private final UpdaterManager manager;
+	public long getMissedBudgetTicks() {
+		return missedBudgetTicks;
+	}
 
-			SyncScrapeTask(UpdaterManager manager) {
-				this.manager = manager;
-			}
+	/**
+	 * @return number of scraped shards not yet sent by at least one updater
+	 */
+	public int getQueueDepth() {
+		return batchLog.size();
+	}
 
-			@Override
-			public void run() {
-				this.manager.scrape();
+	/**
+	 * @return maximum number of shards the batch log holds
+	 */
+	public int getQueueCapacity() {
+		return batchLog.capacity();
+	}
+
+	/**
+	 * @return number of shards discarded before all updaters sent them, either because the batch log was full or
+	 * because a reload abandoned a partial scrape
+	 */
+	public long getDroppedShards() {
+		return droppedShards.sum() + batchLog.dropped();
+	}
+
+	/**
+	 * @return number of shards merged into a queued one because the batch log was full
+	 */
+	public long getMergedShards() {
+		return batchLog.merged();
+	}
+
+	private @Nullable DeliveryWorker workerOf(@NotNull Updater updater) {
+		for (DeliveryWorker w : workers) {
+			if (w.updater() == updater) {
+				return w;
 			}
 		}
-		return new SyncScrapeTask(this);
+		return null;
+	}
+
+	/**
+	 * @param updater a registered updater
+	 * @return number of shards the updater has yet to send
+	 */
+	public int getLagShards(@NotNull Updater updater) {
+		DeliveryWorker w = workerOf(updater);
+		return w == null ? 0 : w.lag();
+	}
+
+	/**
+	 * @param updater a registered updater
+	 * @return age of the oldest shard the updater has yet to send in milliseconds, or 0 if it is caught up
+	 */
+	public long getLagMillis(@NotNull Updater updater) {
+		DeliveryWorker w = workerOf(updater);
+		return w == null ? 0 : w.lagMillis();
+	}
+
+	/**
+	 * @param updater a registered updater
+	 * @return bytes taken by the spool of the updater on disk, or -1 if it doesn't have a spool
+	 */
+	public long getSpoolBytes(@NotNull Updater updater) {
+		DeliveryWorker w = workerOf(updater);
+		Spool spool = w == null ? null : w.spool();
+		return spool == null ? -1 : spool.sizeBytes();
+	}
+
+	/**
+	 * @return metric groups currently registered
+	 */
+	public @NotNull List<MetricGroup> getMetricGroups() {
+		return List.of(metricGroups);
 	}
 
-	public Runnable getAsyncUpdateTask() {
-		class AsyncUpdateTask implements Runnable {
+	/**
+	 * @return updaters currently registered
+	 */
+	public @NotNull List<Updater> getUpdaters() {
+		return List.of(updaters);
+	}
+
+	/**
+	 * Called from any thread whenever a shard is published. Wake every delivery worker to send what is new in the
+	 * batch log.
+	 * <p>
+	 * Waking a worker doesn't block. A worker still busy with an earlier send picks up all shards published meanwhile
+	 * in one go once it is done.
+	 */
+	public void update() {
+		for (DeliveryWorker w : workers) {
+			w.poke();
+		}
+	}
+
+	/**
+	 * Repeating routine that runs every tick and scrapes metric groups that are due.
+	 */
+	public Runnable getSyncScrapeTask() {
+		class SyncScrapeTask implements Runnable {
 			private final UpdaterManager manager;
 
-			AsyncUpdateTask(UpdaterManager manager) {
+			SyncScrapeTask(UpdaterManager manager) {
 				this.manager = manager;
 			}
 
 			@Override
 			public void run() {
-				this.manager.update();
+				this.manager.scrape();
 			}
 		}
-		return new AsyncUpdateTask(this);
+		return new SyncScrapeTask(this);
 	}
 
 	private void startWithLock() {
 		if (scrapeTask == null) {
-			scrapeTask = Bukkit.getScheduler().runTaskTimer(this.plugin, this.getSyncScrapeTask(), 0, updateIntervalTicks);
-		}
-		if (updateTask == null) {
-			updateTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this.plugin, this.getAsyncUpdateTask(), 0 ,updateIntervalTicks);
+			scrapeTask = Bukkit.getScheduler().runTaskTimer(this.plugin, this.getSyncScrapeTask(), 0, 1);
 		}
 	}
 
@@ -275,10 +728,6 @@ public class UpdaterManager {
 			Bukkit.getScheduler().cancelTask(scrapeTask.getTaskId());
 			scrapeTask = null;
 		}
-		if (updateTask != null) {
-			Bukkit.getScheduler().cancelTask(updateTask.getTaskId());
-			updateTask = null;
-		}
 	}
 
 	public void start() {
@@ -292,4 +741,11 @@ public class UpdaterManager {
 		stopWithLock();
 		configurationLock.unlock();
 	}
+
+	/**
+	 * Stop scrape threads for good. To be called when the plugin is disabled, after {@link #unregisterAll()}.
+	 */
+	public void shutdown() {
+		scrapePool.shutdownNow();
+	}
 }
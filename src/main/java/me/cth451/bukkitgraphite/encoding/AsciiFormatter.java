@@ -0,0 +1,167 @@
+package me.cth451.bukkitgraphite.encoding;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Garbage-free decimal formatting of numbers straight into byte buffers.
+ * <p>
+ * Doubles are written with up to 15 significant digits and trailing zeros stripped, which is plenty for metric
+ * values and always parses back with Python's float() on the carbon side. Integral values are written without a
+ * fractional part. Callers are responsible for making sure the buffer has at least {@link #MAX_DOUBLE_LENGTH} or
+ * {@link #MAX_LONG_LENGTH} bytes remaining.
+ */
+public final class AsciiFormatter {
+	/**
+	 * Longest output of {@link #putLong(ByteBuffer, long)}
+	 */
+	public static final int MAX_LONG_LENGTH = 20;
+
+	/**
+	 * Longest output of {@link #putDouble(ByteBuffer, double)}
+	 */
+	public static final int MAX_DOUBLE_LENGTH = 24;
+
+	private static final int SIGNIFICANT_DIGITS = 15;
+
+	private static final long[] POW10 = new long[19];
+
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	private static final byte[] NAN = "nan".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] POSITIVE_INF = "inf".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] NEGATIVE_INF = "-inf".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] LONG_MIN = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+	private AsciiFormatter() {
+	}
+
+	/**
+	 * @param v non-negative number
+	 * @return number of decimal digits needed to represent v
+	 */
+	private static int digits(long v) {
+		int n = 1;
+		while (n < POW10.length && v >= POW10[n]) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Write a non-negative number zero-padded to a fixed width
+	 */
+	private static void putDigits(@NotNull ByteBuffer buf, long v, int width) {
+		int end = buf.position() + width;
+		for (int i = end - 1; i >= buf.position(); i--) {
+			buf.put(i, (byte) ('0' + (v % 10)));
+			v /= 10;
+		}
+		buf.position(end);
+	}
+
+	/**
+	 * Write a long in decimal
+	 *
+	 * @param buf destination
+	 * @param v   value
+	 */
+	public static void putLong(@NotNull ByteBuffer buf, long v) {
+		if (v == Long.MIN_VALUE) {
+			buf.put(LONG_MIN);
+			return;
+		}
+		if (v < 0) {
+			buf.put((byte) '-');
+			v = -v;
+		}
+		putDigits(buf, v, digits(v));
+	}
+
+	/**
+	 * Write a double in plain decimal or, for very small or large magnitudes, scientific notation
+	 *
+	 * @param buf destination
+	 * @param v   value
+	 */
+	public static void putDouble(@NotNull ByteBuffer buf, double v) {
+		if (Double.isNaN(v)) {
+			buf.put(NAN);
+			return;
+		}
+		if (Double.isInfinite(v)) {
+			buf.put(v > 0 ? POSITIVE_INF : NEGATIVE_INF);
+			return;
+		}
+		double abs = Math.abs(v);
+		if (abs < 1e18 && abs == Math.rint(abs)) {
+			putLong(buf, (long) v);
+			return;
+		}
+		if (v < 0) {
+			buf.put((byte) '-');
+		}
+		if (abs >= 1e-4 && abs < 1e15) {
+			putFixed(buf, abs);
+			return;
+		}
+		/* Lift subnormals into a range where the power of ten below doesn't underflow */
+		int shift = 0;
+		if (abs < 1e-300) {
+			abs *= 1e100;
+			shift = -100;
+		}
+		int exponent = (int) Math.floor(Math.log10(abs));
+		double mantissa = abs / Math.pow(10, exponent);
+		if (mantissa >= 10) {
+			mantissa /= 10;
+			exponent++;
+		} else if (mantissa < 1) {
+			mantissa *= 10;
+			exponent--;
+		}
+		/* Rounding to significant digits may carry into a new digit, e.g. 9.9999999999999999 */
+		if (Math.round(mantissa * POW10[SIGNIFICANT_DIGITS - 1]) >= 10 * POW10[SIGNIFICANT_DIGITS - 1]) {
+			mantissa = 1;
+			exponent++;
+		}
+		putFixed(buf, mantissa);
+		buf.put((byte) 'e');
+		putLong(buf, exponent + shift);
+	}
+
+	/**
+	 * Write a positive number between 1e-4 and 1e15 rounded to {@link #SIGNIFICANT_DIGITS} significant digits. The
+	 * fractional part is only as long as needed, and left out if the rounded number is integral.
+	 */
+	private static void putFixed(@NotNull ByteBuffer buf, double abs) {
+		long intPart = (long) abs;
+		int fractionDigits;
+		if (intPart == 0) {
+			/* Leading zeros after the decimal point aren't significant */
+			int leadingZeros = -(int) Math.floor(Math.log10(abs)) - 1;
+			fractionDigits = Math.min(SIGNIFICANT_DIGITS + leadingZeros, POW10.length - 1);
+		} else {
+			fractionDigits = SIGNIFICANT_DIGITS - digits(intPart);
+		}
+		long scaled = Math.round(abs * POW10[fractionDigits]);
+		intPart = scaled / POW10[fractionDigits];
+		long fraction = scaled % POW10[fractionDigits];
+		while (fractionDigits > 0 && fraction % 10 == 0) {
+			fraction /= 10;
+			fractionDigits--;
+		}
+		putLong(buf, intPart);
+		if (fractionDigits > 0) {
+			buf.put((byte) '.');
+			putDigits(buf, fraction, fractionDigits);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package me.cth451.bukkitgraphite.encoding;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable, reference counted encoding of one batch in one wire format, ready to be written to any number of sinks.
+ * <p>
+ * The payload is split into frames of at most the size of the scratch buffer it was encoded through, each closed with
+ * {@link MetricEncoder#endFrame(ByteBuffer)}, so frames can be written back to back. Payloads are usually cached with
+ * their batch via {@link MetricBatch#derive(Object, java.util.function.Function)}, which holds one reference; writers
+ * {@link #retain()} it while writing.
+ */
+public final class EncodedPayload implements MetricBatch.Derived {
+	private final AtomicInteger refCount = new AtomicInteger(1);
+	private volatile ByteBuffer[] frames;
+	private final int points;
+	private final int skipped;
+	private final long bytes;
+	private final long encodeNanos;
+
+	private EncodedPayload(ByteBuffer[] frames, int points, int skipped, long bytes, long encodeNanos) {
+		this.frames = frames;
+		this.points = points;
+		this.skipped = skipped;
+		this.bytes = bytes;
+		this.encodeNanos = encodeNanos;
+	}
+
+	/**
+	 * Encode all data points of a batch
+	 *
+	 * @param batch   batch to encode
+	 * @param encoder encoder for the wire format
+	 * @param scratch buffer to encode through, whose capacity bounds the frame size. Its content is overwritten.
+	 * @return payload with a reference count of one
+	 */
+	public static @NotNull EncodedPayload encode(@NotNull MetricBatch batch, @NotNull MetricEncoder encoder,
+	                                             @NotNull ByteBuffer scratch) {
+		long start = System.nanoTime();
+		List<ByteBuffer> frames = new ArrayList<>();
+		int points = 0;
+		int skipped = 0;
+		int framed = 0;
+		long bytes = 0;
+		scratch.clear();
+		encoder.beginFrame(scratch);
+		for (int i = 0; i < batch.size(); i++) {
+			if (encoder.encode(batch, i, scratch)) {
+				points++;
+				framed++;
+				continue;
+			}
+			/* Frame is full - close it and start over */
+			if (framed > 0) {
+				bytes += closeFrame(encoder, scratch, frames);
+				encoder.beginFrame(scratch);
+				framed = 0;
+			}
+			if (encoder.encode(batch, i, scratch)) {
+				points++;
+				framed++;
+			} else {
+				skipped++;
+			}
+		}
+		if (framed > 0) {
+			bytes += closeFrame(encoder, scratch, frames);
+		}
+		scratch.clear();
+		return new EncodedPayload(frames.toArray(ByteBuffer[]::new), points, skipped, bytes,
+		                          System.nanoTime() - start);
+	}
+
+	/**
+	 * Copy the frame in the scratch buffer into a frame of its own and clear the scratch buffer
+	 *
+	 * @return frame length
+	 */
+	private static int closeFrame(MetricEncoder encoder, ByteBuffer scratch, List<ByteBuffer> frames) {
+		encoder.endFrame(scratch);
+		scratch.flip();
+		byte[] frame = new byte[scratch.remaining()];
+		scratch.get(frame);
+		scratch.clear();
+		frames.add(ByteBuffer.wrap(frame).asReadOnlyBuffer());
+		return frame.length;
+	}
+
+	/**
+	 * @return number of frames
+	 */
+	public int frameCount() {
+		return frames.length;
+	}
+
+	/**
+	 * Append a fresh view of every frame, each with its own position, so that concurrent writers don't interfere.
+	 *
+	 * @param into list to append to
+	 */
+	public void framesTo(@NotNull List<ByteBuffer> into) {
+		ByteBuffer[] f = frames;
+		if (f == null) {
+			throw new IllegalStateException("EncodedPayload used after release");
+		}
+		for (ByteBuffer frame : f) {
+			into.add(frame.duplicate());
+		}
+	}
+
+	/**
+	 * @return number of data points encoded
+	 */
+	public int points() {
+		return points;
+	}
+
+	/**
+	 * @return number of data points left out because they didn't fit into a frame on their own
+	 */
+	public int skipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return total length of all frames
+	 */
+	public long bytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return time it took to encode the payload
+	 */
+	public long encodeNanos() {
+		return encodeNanos;
+	}
+
+	/**
+	 * Register an additional holder of this payload
+	 *
+	 * @return this payload
+	 */
+	public @NotNull EncodedPayload retain() {
+		refCount.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * Drop one reference. The last release lets go of the frames.
+	 */
+	@Override
+	public void release() {
+		int remaining = refCount.decrementAndGet();
+		if (remaining == 0) {
+			frames = null;
+		} else if (remaining < 0) {
+			throw new IllegalStateException("EncodedPayload released more often than retained");
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package me.cth451.bukkitgraphite.encoding;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoder writing carbon's pickle protocol straight into a byte buffer, without any Python involved.
+ * <p>
+ * Each frame is a 4-byte big-endian length followed by a protocol 2 pickle of a list of
+ * {@code (path, (timestamp, value))} tuples, which is what carbon's pickle receiver unpickles. Only a handful of
+ * opcodes are needed: paths are BINUNICODE strings, timestamps BININT (or LONG1 past 2038), values BINFLOAT. Carbon
+ * rejects frames above 1 MiB, so buffers handed to this encoder must not be larger than {@link #MAX_FRAME_LENGTH}.
+ * Buffers must use the default big-endian byte order. An encoder instance is not thread safe.
+ *
+ * @see <a href="https://graphite.readthedocs.io/en/latest/feeding-carbon.html#the-pickle-protocol">Pickle protocol</a>
+ */
+public class GraphitePickleEncoder implements MetricEncoder {
+	/**
+	 * Largest frame carbon accepts, including the length prefix
+	 */
+	public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+	private static final byte PROTO = (byte) 0x80;
+	private static final byte EMPTY_LIST = ']';
+	private static final byte MARK = '(';
+	private static final byte BINUNICODE = 'X';
+	private static final byte BININT = 'J';
+	private static final byte LONG1 = (byte) 0x8a;
+	private static final byte BINFLOAT = 'G';
+	private static final byte TUPLE2 = (byte) 0x86;
+	private static final byte APPENDS = 'e';
+	private static final byte STOP = '.';
+
+	/**
+	 * Room taken by APPENDS and STOP when the frame is closed
+	 */
+	private static final int FOOTER_LENGTH = 2;
+
+	/**
+	 * BINUNICODE + length, LONG1 + length + 8 bytes, BINFLOAT + 8 bytes, two TUPLE2
+	 */
+	private static final int TUPLE_OVERHEAD = 5 + 10 + 9 + 2;
+
+	/**
+	 * UTF-8 encoded namespace followed by a dot, or empty if there is no root namespace
+	 */
+	private final byte[] prefix;
+
+	/**
+	 * Position of the length prefix of the open frame
+	 */
+	private int frameStart = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param namespace root namespace - null or empty to not use any enclosing namespace
+	 */
+	public GraphitePickleEncoder(@Nullable String namespace) {
+		this.prefix = (namespace == null || namespace.isEmpty()) ?
+				new byte[0] : (namespace + ".").getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void beginFrame(@NotNull ByteBuffer out) {
+		frameStart = out.position();
+		out.putInt(0); /* Patched by endFrame() */
+		out.put(PROTO);
+		out.put((byte) 2);
+		out.put(EMPTY_LIST);
+		out.put(MARK);
+	}
+
+	@Override
+	public boolean encode(@NotNull MetricBatch batch, int index, @NotNull ByteBuffer out) {
+		byte[] path = batch.series(index).graphite();
+		int pathLength = prefix.length + path.length;
+		if (out.remaining() < TUPLE_OVERHEAD + pathLength + FOOTER_LENGTH) {
+			return false;
+		}
+		out.put(BINUNICODE);
+		putIntLittleEndian(out, pathLength);
+		out.put(prefix);
+		out.put(path);
+
+		long timestamp = batch.epochSecond();
+		if (timestamp == (int) timestamp) {
+			out.put(BININT);
+			putIntLittleEndian(out, (int) timestamp);
+		} else {
+			out.put(LONG1);
+			out.put((byte) 8);
+			putIntLittleEndian(out, (int) timestamp);
+			putIntLittleEndian(out, (int) (timestamp >>> 32));
+		}
+		out.put(BINFLOAT);
+		out.putDouble(batch.value(index)); /* BINFLOAT is big-endian */
+		out.put(TUPLE2);
+		out.put(TUPLE2);
+		return true;
+	}
+
+	@Override
+	public void endFrame(@NotNull ByteBuffer out) {
+		out.put(APPENDS);
+		out.put(STOP);
+		out.putInt(frameStart, out.position() - frameStart - 4);
+	}
+
+	private static void putIntLittleEndian(@NotNull ByteBuffer out, int v) {
+		out.put((byte) v);
+		out.put((byte) (v >>> 8));
+		out.put((byte) (v >>> 16));
+		out.put((byte) (v >>> 24));
+	}
+}
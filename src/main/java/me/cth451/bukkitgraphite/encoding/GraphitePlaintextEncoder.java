@@ -0,0 +1,60 @@
+package me.cth451.bukkitgraphite.encoding;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoder writing Graphite plaintext lines as UTF-8 straight into a byte buffer.
+ * <p>
+ * The root namespace is encoded once per encoder and metric paths come pre-encoded from their interned
+ * {@link me.cth451.bukkitgraphite.metric.model.MetricSeries}. Numbers are formatted with {@link AsciiFormatter}, so
+ * encoding does not allocate. An encoder instance is not thread safe.
+ *
+ * @see <a href="https://graphite.readthedocs.io/en/latest/feeding-carbon.html">Feeding carbon</a>
+ */
+public class GraphitePlaintextEncoder implements MetricEncoder {
+	/**
+	 * UTF-8 encoded namespace followed by a dot, or empty if there is no root namespace
+	 */
+	private final byte[] prefix;
+
+	/**
+	 * Constructor
+	 *
+	 * @param namespace root namespace - null or empty to not use any enclosing namespace
+	 */
+	public GraphitePlaintextEncoder(@Nullable String namespace) {
+		this.prefix = (namespace == null || namespace.isEmpty()) ?
+				new byte[0] : (namespace + ".").getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Append one line for a data point.
+	 *
+	 * @param batch batch holding the data point
+	 * @param index index of the data point within the batch
+	 * @param out   destination buffer
+	 * @return false if the buffer doesn't have enough room for the line, in which case nothing is written
+	 */
+	@Override
+	public boolean encode(@NotNull MetricBatch batch, int index, @NotNull ByteBuffer out) {
+		byte[] path = batch.series(index).graphite();
+		int worstCase = prefix.length + path.length + AsciiFormatter.MAX_DOUBLE_LENGTH +
+				AsciiFormatter.MAX_LONG_LENGTH + 3;
+		if (out.remaining() < worstCase) {
+			return false;
+		}
+		out.put(prefix);
+		out.put(path);
+		out.put((byte) ' ');
+		AsciiFormatter.putDouble(out, batch.value(index));
+		out.put((byte) ' ');
+		AsciiFormatter.putLong(out, batch.epochSecond());
+		out.put((byte) '\n');
+		return true;
+	}
+}
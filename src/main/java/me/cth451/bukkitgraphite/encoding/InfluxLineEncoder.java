@@ -0,0 +1,107 @@
+package me.cth451.bukkitgraphite.encoding;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encoder writing InfluxDB line protocol as UTF-8 straight into a byte buffer.
+ * <p>
+ * The metric key becomes the measurement, tags become tags and the value is written to a single field named
+ * {@value #FIELD}. Escaping is done once per series: the measurement and tag set are encoded on first sight and cached
+ * by series id, so encoding a point only copies bytes and formats numbers. Timestamps are in milliseconds, so writes
+ * must use precision=ms. NaN and infinities cannot be represented and are skipped. An encoder instance is not thread
+ * safe.
+ *
+ * @see <a href="https://docs.influxdata.com/influxdb/v2/reference/syntax/line-protocol/">Line protocol</a>
+ */
+public class InfluxLineEncoder implements MetricEncoder {
+	public static final String FIELD = "value";
+
+	private static final byte[] FIELD_PREFIX = (" " + FIELD + "=").getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Namespace followed by a dot, or empty if there is no root namespace
+	 */
+	private final String prefix;
+
+	/**
+	 * Escaped measurement and tag set, indexed by series id
+	 */
+	private byte[][] heads = new byte[0][];
+
+	/**
+	 * Constructor
+	 *
+	 * @param namespace root namespace prepended to measurements - null or empty to not use any
+	 */
+	public InfluxLineEncoder(@Nullable String namespace) {
+		this.prefix = (namespace == null || namespace.isEmpty()) ? "" : namespace + ".";
+	}
+
+	/**
+	 * Escape characters with special meaning in line protocol
+	 *
+	 * @param s        name or value
+	 * @param escapeEq whether '=' must be escaped, which is the case for tag keys and values but not measurements
+	 * @param into     destination
+	 */
+	private static void escape(@NotNull String s, boolean escapeEq, @NotNull StringBuilder into) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case ',', ' ' -> into.append('\\').append(c);
+				case '=' -> into.append(escapeEq ? "\\=" : "=");
+				case '\n' -> into.append("\\ ");
+				default -> into.append(c);
+			}
+		}
+	}
+
+	private byte[] headOf(@NotNull MetricSeries series) {
+		int id = series.id();
+		if (id >= heads.length) {
+			heads = Arrays.copyOf(heads, Math.max(id + 1, heads.length * 2));
+		}
+		if (heads[id] == null) {
+			StringBuilder sb = new StringBuilder();
+			escape(prefix + series.key(), false, sb);
+			series.tags().forEach((k, v) -> {
+				/* Empty tag values are not allowed */
+				if (!k.isEmpty() && !v.isEmpty()) {
+					sb.append(',');
+					escape(k, true, sb);
+					sb.append('=');
+					escape(v, true, sb);
+				}
+			});
+			heads[id] = sb.toString().getBytes(StandardCharsets.UTF_8);
+		}
+		return heads[id];
+	}
+
+	@Override
+	public boolean encode(@NotNull MetricBatch batch, int index, @NotNull ByteBuffer out) {
+		double value = batch.value(index);
+		if (!Double.isFinite(value)) {
+			return true;
+		}
+		byte[] head = headOf(batch.series(index));
+		if (out.remaining() < head.length + FIELD_PREFIX.length + AsciiFormatter.MAX_DOUBLE_LENGTH +
+				AsciiFormatter.MAX_LONG_LENGTH + 2) {
+			return false;
+		}
+		out.put(head);
+		out.put(FIELD_PREFIX);
+		AsciiFormatter.putDouble(out, value);
+		out.put((byte) ' ');
+		AsciiFormatter.putLong(out, batch.timestamp());
+		out.put((byte) '\n');
+		return true;
+	}
+}
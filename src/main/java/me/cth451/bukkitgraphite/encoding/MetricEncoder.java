@@ -0,0 +1,40 @@
+package me.cth451.bukkitgraphite.encoding;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format spoken to a metric backend. Data points are encoded into frames: the updater opens a frame in an empty buffer,
+ * encodes points until the buffer is full, closes the frame and writes the buffer out. Formats without framing
+ * simply ignore frame boundaries.
+ */
+public interface MetricEncoder {
+	/**
+	 * Open a frame. The buffer must be empty.
+	 *
+	 * @param out destination buffer
+	 */
+	default void beginFrame(@NotNull ByteBuffer out) {
+	}
+
+	/**
+	 * Append one data point to the open frame
+	 *
+	 * @param batch batch holding the data point
+	 * @param index index of the data point within the batch
+	 * @param out   destination buffer
+	 * @return false if the buffer doesn't have enough room for the point and closing the frame, in which case nothing
+	 * is written
+	 */
+	boolean encode(@NotNull MetricBatch batch, int index, @NotNull ByteBuffer out);
+
+	/**
+	 * Close the open frame. Room for this has been reserved by {@link #encode(MetricBatch, int, ByteBuffer)}.
+	 *
+	 * @param out destination buffer
+	 */
+	default void endFrame(@NotNull ByteBuffer out) {
+	}
+}
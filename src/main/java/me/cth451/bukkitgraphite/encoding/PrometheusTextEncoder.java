@@ -0,0 +1,108 @@
+package me.cth451.bukkitgraphite.encoding;
+
+import me.cth451.bukkitgraphite.metric.model.MetricPath;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encoder writing the Prometheus text exposition format (version 0.0.4) as UTF-8 straight into a byte buffer.
+ * <p>
+ * Sample names including the root namespace and label set are encoded once per series and cached by series id, so
+ * rendering an exposition only copies bytes and formats numbers. Samples carry no timestamp - Prometheus stamps them
+ * at scrape time. An encoder instance is not thread safe.
+ *
+ * @see <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Exposition formats</a>
+ */
+public class PrometheusTextEncoder {
+	private static final byte[] TYPE_PREFIX = "# TYPE ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TYPE_SUFFIX = " untyped\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] NAN = "NaN".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] POSITIVE_INF = "+Inf".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] NEGATIVE_INF = "-Inf".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Sanitized namespace followed by an underscore, or empty if there is no root namespace
+	 */
+	private final String prefix;
+
+	/**
+	 * Encoded metric names and sample names (metric name plus labels), indexed by series id
+	 */
+	private byte[][] names = new byte[0][];
+	private byte[][] samples = new byte[0][];
+
+	/**
+	 * Constructor
+	 *
+	 * @param namespace root namespace - null or empty to not use any enclosing namespace
+	 */
+	public PrometheusTextEncoder(@Nullable String namespace) {
+		this.prefix = (namespace == null || namespace.isEmpty()) ?
+				"" : MetricPath.sanitizePrometheusName(namespace) + "_";
+	}
+
+	private void cache(@NotNull MetricSeries series) {
+		int id = series.id();
+		if (id >= names.length) {
+			int capacity = Math.max(id + 1, names.length * 2);
+			names = Arrays.copyOf(names, capacity);
+			samples = Arrays.copyOf(samples, capacity);
+		}
+		if (names[id] == null) {
+			String name = prefix + series.prometheusName();
+			names[id] = name.getBytes(StandardCharsets.UTF_8);
+			samples[id] = (name + series.prometheusLabels()).getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Append the TYPE line opening the metric family of a series. All samples of one family must follow it directly.
+	 *
+	 * @param series first series of the family
+	 * @param out    destination buffer
+	 * @return false if the buffer doesn't have enough room, in which case nothing is written
+	 */
+	public boolean encodeFamily(@NotNull MetricSeries series, @NotNull ByteBuffer out) {
+		cache(series);
+		byte[] name = names[series.id()];
+		if (out.remaining() < TYPE_PREFIX.length + name.length + TYPE_SUFFIX.length) {
+			return false;
+		}
+		out.put(TYPE_PREFIX);
+		out.put(name);
+		out.put(TYPE_SUFFIX);
+		return true;
+	}
+
+	/**
+	 * Append one sample line
+	 *
+	 * @param series series of the sample
+	 * @param value  value of the sample
+	 * @param out    destination buffer
+	 * @return false if the buffer doesn't have enough room, in which case nothing is written
+	 */
+	public boolean encodeSample(@NotNull MetricSeries series, double value, @NotNull ByteBuffer out) {
+		cache(series);
+		byte[] sample = samples[series.id()];
+		if (out.remaining() < sample.length + AsciiFormatter.MAX_DOUBLE_LENGTH + 2) {
+			return false;
+		}
+		out.put(sample);
+		out.put((byte) ' ');
+		if (Double.isNaN(value)) {
+			out.put(NAN);
+		} else if (Double.isInfinite(value)) {
+			out.put(value > 0 ? POSITIVE_INF : NEGATIVE_INF);
+		} else {
+			AsciiFormatter.putDouble(out, value);
+		}
+		out.put((byte) '\n');
+		return true;
+	}
+}
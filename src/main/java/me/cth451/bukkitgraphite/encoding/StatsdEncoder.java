@@ -0,0 +1,131 @@
+package me.cth451.bukkitgraphite.encoding;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encoder writing StatsD lines as UTF-8 straight into a byte buffer.
+ * <p>
+ * Data points are sent as gauges ({@code path:value|g}) unless their key is listed as a counter. Our counters are
+ * cumulative while StatsD counters are increments, so the encoder remembers the last value of each counter series and
+ * sends the difference ({@code path:delta|c}). The first value seen only sets the baseline, and a value lower than the
+ * previous one is taken as a reset and sent in full. StatsD reads a signed gauge as a relative change, so negative
+ * gauges are sent as a reset to zero followed by the value. NaN and infinities are skipped. An encoder instance is not
+ * thread safe.
+ *
+ * @see <a href="https://github.com/statsd/statsd/blob/master/docs/metric_types.md">StatsD metric types</a>
+ */
+public class StatsdEncoder implements MetricEncoder {
+	private static final byte[] GAUGE = "|g\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] COUNTER = "|c\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] ZERO_GAUGE = ":0|g\n".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte KIND_UNKNOWN = 0;
+	private static final byte KIND_GAUGE = 1;
+	private static final byte KIND_COUNTER = 2;
+
+	/**
+	 * UTF-8 encoded namespace followed by a dot, or empty if there is no root namespace
+	 */
+	private final byte[] prefix;
+
+	/**
+	 * Metric keys sent as counters
+	 */
+	private final List<String> counterKeys;
+
+	/**
+	 * Kind of each series and last value of counter series (NaN before the first one), indexed by series id
+	 */
+	private byte[] kinds = new byte[0];
+	private double[] lastCounts = new double[0];
+
+	/**
+	 * Constructor
+	 *
+	 * @param namespace   root namespace - null or empty to not use any enclosing namespace
+	 * @param counterKeys metric keys whose values are cumulative counts, e.g. server.login
+	 */
+	public StatsdEncoder(@Nullable String namespace, @NotNull List<String> counterKeys) {
+		this.prefix = (namespace == null || namespace.isEmpty()) ?
+				new byte[0] : (namespace + ".").getBytes(StandardCharsets.UTF_8);
+		this.counterKeys = List.copyOf(counterKeys);
+	}
+
+	private byte kindOf(@NotNull MetricSeries series) {
+		int id = series.id();
+		if (id >= kinds.length) {
+			int capacity = Math.max(id + 1, kinds.length * 2);
+			kinds = Arrays.copyOf(kinds, capacity);
+			int filled = lastCounts.length;
+			lastCounts = Arrays.copyOf(lastCounts, capacity);
+			Arrays.fill(lastCounts, filled, capacity, Double.NaN);
+		}
+		if (kinds[id] == KIND_UNKNOWN) {
+			kinds[id] = counterKeys.contains(series.key()) ? KIND_COUNTER : KIND_GAUGE;
+		}
+		return kinds[id];
+	}
+
+	/**
+	 * Append the line for a data point. Counter points that don't amount to an increment are consumed without
+	 * writing anything.
+	 *
+	 * @param batch batch holding the data point
+	 * @param index index of the data point within the batch
+	 * @param out   destination buffer
+	 * @return false if the buffer doesn't have enough room for the line, in which case nothing is written
+	 */
+	@Override
+	public boolean encode(@NotNull MetricBatch batch, int index, @NotNull ByteBuffer out) {
+		MetricSeries series = batch.series(index);
+		byte[] path = series.graphite();
+		double value = batch.value(index);
+		if (!Double.isFinite(value)) {
+			/* StatsD has no way to represent these */
+			return true;
+		}
+		int line = prefix.length + path.length + 1 + AsciiFormatter.MAX_DOUBLE_LENGTH + GAUGE.length;
+
+		if (kindOf(series) == KIND_COUNTER) {
+			double last = lastCounts[series.id()];
+			if (Double.isNaN(last) || value == last) {
+				lastCounts[series.id()] = value;
+				return true;
+			}
+			if (out.remaining() < line) {
+				return false;
+			}
+			lastCounts[series.id()] = value;
+			writeLine(out, path, value < last ? value : value - last, COUNTER);
+			return true;
+		}
+
+		boolean negative = value < 0;
+		if (out.remaining() < (negative ? line + prefix.length + path.length + ZERO_GAUGE.length : line)) {
+			return false;
+		}
+		if (negative) {
+			out.put(prefix);
+			out.put(path);
+			out.put(ZERO_GAUGE);
+		}
+		writeLine(out, path, value, GAUGE);
+		return true;
+	}
+
+	private void writeLine(@NotNull ByteBuffer out, byte[] path, double value, byte[] type) {
+		out.put(prefix);
+		out.put(path);
+		out.put((byte) ':');
+		AsciiFormatter.putDouble(out, value);
+		out.put(type);
+	}
+}
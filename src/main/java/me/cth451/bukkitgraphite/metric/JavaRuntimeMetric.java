@@ -1,14 +1,13 @@
 package me.cth451.bukkitgraphite.metric;
 
 import me.cth451.bukkitgraphite.PluginMain;
-import me.cth451.bukkitgraphite.metric.model.MetricEntry;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
 import me.cth451.bukkitgraphite.metric.model.MetricGroup;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
 import org.bukkit.configuration.ConfigurationSection;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.LinkedList;
-import java.util.List;
-
 /**
  * Metrics reporting java runtime information. Memory usage is measured in bytes.
  */
@@ -17,16 +16,27 @@ public class JavaRuntimeMetric extends MetricGroup {
 	public static String JVM_TOTAL_MEM = "runtime.mem.total";
 	public static String JVM_FREE_MEM = "runtime.mem.free";
 
+	private final MetricSeries totalMemSeries = MetricPathRegistry.global().intern(JVM_TOTAL_MEM);
+	private final MetricSeries freeMemSeries = MetricPathRegistry.global().intern(JVM_FREE_MEM);
+
 	public JavaRuntimeMetric(PluginMain plugin) {
 		super(plugin);
 	}
 
 	@Override
-	public @NotNull List<MetricEntry> scrape() {
-		List<MetricEntry> results = new LinkedList<>();
-		results.add(new MetricEntry(JVM_TOTAL_MEM, null, (double) Runtime.getRuntime().totalMemory()));
-		results.add(new MetricEntry(JVM_FREE_MEM, null, (double) Runtime.getRuntime().freeMemory()));
-		return results;
+	public void scrape(@NotNull MetricBatch batch) {
+		batch.add(totalMemSeries, (double) Runtime.getRuntime().totalMemory());
+		batch.add(freeMemSeries, (double) Runtime.getRuntime().freeMemory());
+	}
+
+	/**
+	 * Runtime memory counters can be read from any thread.
+	 *
+	 * @return true
+	 */
+	@Override
+	public boolean isAsyncSafe() {
+		return true;
 	}
 
 	@Override
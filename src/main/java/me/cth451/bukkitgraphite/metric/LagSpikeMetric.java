@@ -0,0 +1,350 @@
+package me.cth451.bukkitgraphite.metric;
+
+import com.destroystokyo.paper.event.server.ServerTickEndEvent;
+import com.destroystokyo.paper.event.server.ServerTickStartEvent;
+import me.cth451.bukkitgraphite.PluginMain;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricGroup;
+import me.cth451.bukkitgraphite.metric.model.MetricPath;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lag spike detector attributing slow ticks to plugins by sampling the main thread's stack.
+ * <p>
+ * A watchdog thread checks every sample-interval-ms whether the current tick has been running for longer than
+ * threshold-ms. While it has, the main thread's stack is sampled. Each sample is attributed to the plugin owning the
+ * topmost frame in its package, or to "server" if no plugin frame is on the stack, and the topmost frame itself is
+ * counted as well. Spikes shorter than one sample interval past the threshold may go unnoticed.
+ * <p>
+ * Counts cover the interval since the previous scrape of this group. Plugins keep being reported once seen, so their
+ * count drops to zero instead of going stale. Only the top-frames busiest frames of each interval are reported. Series
+ * are never removed from the registry, so at most {@value #MAX_FRAME_SERIES_PER_TOP_FRAME} times top-frames distinct
+ * frames get a series of their own. Samples of frames beyond that are reported under the frame "other".
+ */
+public class LagSpikeMetric extends MetricGroup implements Listener, Runnable {
+	public static final String ID = "lag-spike";
+
+	public static final String SPIKES = "server.lag_spike.count";
+	public static final String SAMPLES = "server.lag_spike.samples";
+	public static final String FRAME_SAMPLES = "server.lag_spike.frame_samples";
+
+	public static final long DEFAULT_THRESHOLD_MS = 100;
+	public static final long DEFAULT_SAMPLE_INTERVAL_MS = 10;
+	public static final int DEFAULT_TOP_FRAMES = 10;
+
+	/**
+	 * Frame series cached per top frame reported, most recently used first
+	 */
+	public static final int FRAME_SERIES_PER_TOP_FRAME = 4;
+
+	/**
+	 * Distinct frame series interned per top frame reported, over the lifetime of the registry
+	 */
+	public static final int MAX_FRAME_SERIES_PER_TOP_FRAME = 64;
+
+	/**
+	 * Attribution of samples without any plugin frame on the stack
+	 */
+	private static final String SERVER = "server";
+
+	/**
+	 * Frame samples are reported under once the frame series budget is used up
+	 */
+	private static final String OTHER_FRAME = "other";
+
+	/**
+	 * Frame series interned into the global registry so far, which outlive instances of this group across reloads
+	 */
+	private static final AtomicInteger FRAMES_INTERNED = new AtomicInteger();
+
+	/**
+	 * Maximum time to wait for the watchdog to exit when the group is halted
+	 */
+	private static final long CLOSE_TIMEOUT_MS = 1000;
+
+	private long thresholdNanos = DEFAULT_THRESHOLD_MS * 1_000_000L;
+	private long sampleIntervalNanos = DEFAULT_SAMPLE_INTERVAL_MS * 1_000_000L;
+	private int topFrames = DEFAULT_TOP_FRAMES;
+
+	/**
+	 * System.nanoTime() at the start of the current tick, or 0 outside a tick
+	 */
+	private volatile long tickStartNanos = 0;
+
+	/**
+	 * Thread ticking the server, learnt from the first tick start event - null until then
+	 */
+	private volatile Thread mainThread = null;
+
+	/**
+	 * Package prefixes of plugins mapped to plugin names, longest prefix first
+	 */
+	private volatile List<Map.Entry<String, String>> pluginPackages = List.of();
+
+	private Thread watchdog;
+	private volatile boolean closed = false;
+
+	/* Counts of the current interval, guarded by this */
+	private long spikes = 0;
+	private long sampledTick = 0;
+	private final HashMap<String, long[]> pluginSamples = new HashMap<>();
+	private final HashMap<String, long[]> frameSamples = new HashMap<>();
+
+	/**
+	 * Interned series keyed by plugin name and frame - scrapes of one group never overlap. Frames are evicted least
+	 * recently reported first.
+	 */
+	private final HashMap<String, MetricSeries> pluginSeries = new HashMap<>();
+	private final LinkedHashMap<String, MetricSeries> frameSeries = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, MetricSeries> eldest) {
+			return size() > FRAME_SERIES_PER_TOP_FRAME * Math.max(1, topFrames);
+		}
+	};
+
+	private final MetricSeries spikesSeries = MetricPathRegistry.global().intern(SPIKES);
+	private final MetricSeries otherFrameSeries =
+			MetricPathRegistry.global().intern(FRAME_SAMPLES, Map.of("frame", OTHER_FRAME));
+
+	public LagSpikeMetric(PluginMain plugin) {
+		super(plugin);
+	}
+
+	@EventHandler(priority = EventPriority.LOWEST)
+	private void onTickStart(ServerTickStartEvent event) {
+		if (mainThread == null) {
+			mainThread = Thread.currentThread();
+		}
+		tickStartNanos = System.nanoTime();
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	private void onTickEnd(ServerTickEndEvent event) {
+		tickStartNanos = 0;
+	}
+
+	/**
+	 * Watchdog loop sampling the main thread while a tick runs over the threshold
+	 */
+	@Override
+	public void run() {
+		while (!closed) {
+			LockSupport.parkNanos(this, sampleIntervalNanos);
+			long start = tickStartNanos;
+			Thread main = mainThread;
+			if (start == 0 || main == null || System.nanoTime() - start < thresholdNanos) {
+				continue;
+			}
+			StackTraceElement[] stack = main.getStackTrace();
+			/* Drop samples taken after the tick ended - they'd show whatever the server does between ticks */
+			if (stack.length == 0 || tickStartNanos != start) {
+				continue;
+			}
+			record(start, stack);
+		}
+	}
+
+	/**
+	 * @param stack stack of the main thread, topmost frame first
+	 * @return name of the plugin owning the topmost plugin frame, or "server"
+	 */
+	private @NotNull String attribute(@NotNull StackTraceElement[] stack) {
+		List<Map.Entry<String, String>> packages = pluginPackages;
+		for (StackTraceElement frame : stack) {
+			for (Map.Entry<String, String> p : packages) {
+				if (frame.getClassName().startsWith(p.getKey())) {
+					return p.getValue();
+				}
+			}
+		}
+		return SERVER;
+	}
+
+	/**
+	 * Record a sample of the main thread taken while a tick ran over the threshold
+	 *
+	 * @param tickStart System.nanoTime() at the start of the sampled tick, to tell a new spike from one still going on
+	 * @param stack     stack of the main thread, topmost frame first
+	 */
+	public synchronized void record(long tickStart, @NotNull StackTraceElement[] stack) {
+		if (tickStart != sampledTick) {
+			spikes++;
+			sampledTick = tickStart;
+		}
+		pluginSamples.computeIfAbsent(attribute(stack), name -> new long[1])[0]++;
+		StackTraceElement top = stack[0];
+		frameSamples.computeIfAbsent(top.getClassName() + "." + top.getMethodName(), frame -> new long[1])[0]++;
+	}
+
+	/**
+	 * @param packages package prefixes mapped to the name of the plugin owning them, e.g. "com.example.myplugin."
+	 */
+	public void setPluginPackages(@NotNull Map<String, String> packages) {
+		List<Map.Entry<String, String>> sorted = new ArrayList<>(Map.copyOf(packages).entrySet());
+		sorted.sort(Comparator.comparingInt((Map.Entry<String, String> e) -> e.getKey().length()).reversed());
+		this.pluginPackages = sorted;
+	}
+
+	/**
+	 * Learn plugin packages and start the watchdog
+	 */
+	@Override
+	public void start() {
+		HashMap<String, String> packages = new HashMap<>();
+		for (Plugin p : plugin.getServer().getPluginManager().getPlugins()) {
+			packages.putIfAbsent(p.getClass().getPackageName() + ".", p.getName());
+		}
+		this.setPluginPackages(packages);
+
+		plugin.getServer().getPluginManager().registerEvents(this, this.plugin);
+		closed = false;
+		watchdog = new Thread(this, "BukkitGraphite-Watchdog");
+		watchdog.setDaemon(true);
+		watchdog.start();
+	}
+
+	/**
+	 * Remove event handlers and stop the watchdog
+	 */
+	@Override
+	public void halt() {
+		HandlerList.unregisterAll(this);
+		tickStartNanos = 0;
+		if (watchdog == null) {
+			return;
+		}
+		closed = true;
+		LockSupport.unpark(watchdog);
+		try {
+			watchdog.join(CLOSE_TIMEOUT_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		watchdog = null;
+	}
+
+	@Override
+	public void scrape(@NotNull MetricBatch batch) {
+		List<Map.Entry<String, long[]>> frames;
+		synchronized (this) {
+			batch.add(spikesSeries, spikes);
+			spikes = 0;
+			for (Map.Entry<String, long[]> e : pluginSamples.entrySet()) {
+				MetricSeries series = pluginSeries.computeIfAbsent(
+						e.getKey(), name -> MetricPathRegistry.global().intern(SAMPLES, Map.of("plugin", name)));
+				batch.add(series, e.getValue()[0]);
+				e.getValue()[0] = 0;
+			}
+			if (frameSamples.isEmpty()) {
+				return;
+			}
+			frames = new ArrayList<>(frameSamples.entrySet());
+			frameSamples.clear();
+		}
+		frames.sort(Comparator.comparingLong((Map.Entry<String, long[]> e) -> e.getValue()[0]).reversed());
+		long other = 0;
+		for (Map.Entry<String, long[]> e : frames.subList(0, Math.min(topFrames, frames.size()))) {
+			MetricSeries series = frameSeriesOf(e.getKey());
+			if (series == null) {
+				other += e.getValue()[0];
+			} else {
+				batch.add(series, e.getValue()[0]);
+			}
+		}
+		if (other > 0) {
+			batch.add(otherFrameSeries, other);
+		}
+	}
+
+	/**
+	 * Find the series of a frame, interning it if the frame series budget allows
+	 *
+	 * @param frame class and method name
+	 * @return series, or null if the frame is to be reported as other
+	 */
+	private @Nullable MetricSeries frameSeriesOf(@NotNull String frame) {
+		MetricSeries series = frameSeries.get(frame);
+		if (series != null) {
+			return series;
+		}
+		MetricPath path = new MetricPath(FRAME_SAMPLES, Map.of("frame", frame));
+		series = MetricPathRegistry.global().find(path);
+		if (series == null) {
+			if (FRAMES_INTERNED.get() >= MAX_FRAME_SERIES_PER_TOP_FRAME * topFrames) {
+				return null;
+			}
+			FRAMES_INTERNED.incrementAndGet();
+			series = MetricPathRegistry.global().intern(path);
+		}
+		frameSeries.put(frame, series);
+		return series;
+	}
+
+	/**
+	 * Counters are guarded by their own lock.
+	 *
+	 * @return true
+	 */
+	@Override
+	public boolean isAsyncSafe() {
+		return true;
+	}
+
+	@Override
+	public double interval() {
+		return 200;
+	}
+
+	@Override
+	public @NotNull String name() {
+		return "Lag spike attribution";
+	}
+
+	@Override
+	public @NotNull String id() {
+		return ID;
+	}
+
+	/**
+	 * Load parameters from configuration.
+	 * <p>
+	 * Here are the possible parameters:
+	 * <ul>
+	 *     <li>threshold-ms: optional, ticks running longer than this are sampled</li>
+	 *     <li>sample-interval-ms: optional, how often the watchdog checks the tick and samples the main thread</li>
+	 *     <li>top-frames: optional, number of busiest frames reported per interval</li>
+	 * </ul>
+	 *
+	 * @param section metric group specific configuration section
+	 * @return true
+	 */
+	@Override
+	public boolean configure(ConfigurationSection section) {
+		if (section == null) {
+			return true;
+		}
+		this.thresholdNanos = Math.max(1, section.getLong("threshold-ms", DEFAULT_THRESHOLD_MS)) * 1_000_000L;
+		this.sampleIntervalNanos =
+				Math.max(1, section.getLong("sample-interval-ms", DEFAULT_SAMPLE_INTERVAL_MS)) * 1_000_000L;
+		this.topFrames = Math.max(0, section.getInt("top-frames", DEFAULT_TOP_FRAMES));
+		return true;
+	}
+}
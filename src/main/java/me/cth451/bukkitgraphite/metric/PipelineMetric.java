@@ -0,0 +1,211 @@
+package me.cth451.bukkitgraphite.metric;
+
+import me.cth451.bukkitgraphite.PluginMain;
+import me.cth451.bukkitgraphite.UpdaterManager;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricGroup;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
+import me.cth451.bukkitgraphite.stats.DeliveryStats;
+import me.cth451.bukkitgraphite.stats.Histogram;
+import me.cth451.bukkitgraphite.stats.ScrapeStats;
+import me.cth451.bukkitgraphite.updater.Updater;
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Self-instrumentation of the plugin: how long each metric group takes to scrape, how much each updater encodes and
+ * how long it takes to deliver, and how far the batch log and each updater are backed up.
+ * <p>
+ * Counters are cumulative since the module was registered. Quantiles (p50, p99, max) cover the interval since the
+ * previous scrape of this group and are left out when nothing happened in that interval. All sources are striped or
+ * atomic counters, so reading them is cheap and safe off the main thread.
+ */
+public class PipelineMetric extends MetricGroup {
+	public static final String ID = "pipeline";
+
+	public static final String QUEUE_DEPTH = "pipeline.queue.depth";
+	public static final String QUEUE_CAPACITY = "pipeline.queue.capacity";
+	public static final String QUEUE_DROPPED = "pipeline.queue.dropped_shards";
+	public static final String QUEUE_MERGED = "pipeline.queue.merged_shards";
+	public static final String BUDGET_MISSED = "pipeline.scrape.budget_missed_ticks";
+	public static final String SCRAPE = "pipeline.scrape";
+	public static final String UPDATER = "pipeline.updater";
+
+	private static final String[] QUANTILE_SUFFIXES = {"p50", "p99", "max"};
+
+	/* Offsets into per group series arrays */
+	private static final int SCRAPE_NANOS = 0;
+	private static final int SCRAPE_COUNT = 1;
+	private static final int SCRAPE_DURATION = 2;
+
+	/* Offsets into per updater series arrays */
+	private static final int UPDATER_ENCODE_NANOS = 0;
+	private static final int UPDATER_BYTES = 1;
+	private static final int UPDATER_LINES = 2;
+	private static final int UPDATER_SENDS = 3;
+	private static final int UPDATER_FAILURES = 4;
+	private static final int UPDATER_DROPPED = 5;
+	private static final int UPDATER_SPOOLED = 6;
+	private static final int UPDATER_REPLAYED = 7;
+	private static final int UPDATER_SPOOL_BYTES = 8;
+	private static final int UPDATER_LAG = 9;
+	private static final int UPDATER_LAG_MS = 10;
+	private static final int UPDATER_DROPPED_POINTS = 11;
+	private static final int UPDATER_LATENCY = 12;
+	private static final int UPDATER_DELAY = UPDATER_LATENCY + QUANTILE_SUFFIXES.length;
+
+	private final MetricSeries queueDepthSeries = MetricPathRegistry.global().intern(QUEUE_DEPTH);
+	private final MetricSeries queueCapacitySeries = MetricPathRegistry.global().intern(QUEUE_CAPACITY);
+	private final MetricSeries queueDroppedSeries = MetricPathRegistry.global().intern(QUEUE_DROPPED);
+	private final MetricSeries queueMergedSeries = MetricPathRegistry.global().intern(QUEUE_MERGED);
+	private final MetricSeries budgetMissedSeries = MetricPathRegistry.global().intern(BUDGET_MISSED);
+
+	/**
+	 * Interned series of each metric group and updater, keyed by module id
+	 */
+	private final HashMap<String, MetricSeries[]> groupSeries = new HashMap<>();
+	private final HashMap<String, MetricSeries[]> updaterSeries = new HashMap<>();
+
+	/**
+	 * Reused for draining histograms - scrapes of one group never overlap
+	 */
+	private final Histogram.Snapshot snapshot = new Histogram.Snapshot();
+
+	public PipelineMetric(PluginMain plugin) {
+		super(plugin);
+	}
+
+	private static MetricSeries[] internAll(String prefix, String tag, String id, String[] names) {
+		MetricSeries[] series = new MetricSeries[names.length];
+		for (int i = 0; i < names.length; i++) {
+			series[i] = MetricPathRegistry.global().intern(prefix + "." + names[i], Map.of(tag, id));
+		}
+		return series;
+	}
+
+	private static String[] withQuantiles(String name) {
+		String[] names = new String[QUANTILE_SUFFIXES.length];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = name + "." + QUANTILE_SUFFIXES[i];
+		}
+		return names;
+	}
+
+	private static String[] concat(String[]... parts) {
+		return Arrays.stream(parts).flatMap(Arrays::stream).toArray(String[]::new);
+	}
+
+	private MetricSeries[] seriesOf(MetricGroup group) {
+		return groupSeries.computeIfAbsent(group.id(), id -> internAll(
+				SCRAPE, "group", id,
+				concat(new String[]{"nanos", "count"}, withQuantiles("duration_ns"))));
+	}
+
+	private MetricSeries[] seriesOf(Updater updater) {
+		return updaterSeries.computeIfAbsent(updater.id(), id -> internAll(
+				UPDATER, "updater", id,
+				concat(new String[]{"encode_ns", "bytes", "lines", "sends", "failures", "dropped_shards",
+				                    "spooled_shards", "replayed_points", "spool_bytes", "lag_shards", "lag_ms",
+				                    "dropped_points"},
+				       withQuantiles("send_latency_us"), withQuantiles("delivery_delay_ms"))));
+	}
+
+	/**
+	 * Append p50, p99 and max of the snapshot, unless it is empty
+	 */
+	private void addQuantiles(@NotNull MetricBatch batch, MetricSeries[] series, int offset) {
+		if (snapshot.count() == 0) {
+			return;
+		}
+		batch.add(series[offset], snapshot.percentile(0.5));
+		batch.add(series[offset + 1], snapshot.percentile(0.99));
+		batch.add(series[offset + 2], snapshot.max());
+	}
+
+	@Override
+	public void scrape(@NotNull MetricBatch batch) {
+		UpdaterManager manager = plugin.getManager();
+		if (manager == null) {
+			return;
+		}
+		batch.add(queueDepthSeries, manager.getQueueDepth());
+		batch.add(queueCapacitySeries, manager.getQueueCapacity());
+		batch.add(queueDroppedSeries, manager.getDroppedShards());
+		batch.add(queueMergedSeries, manager.getMergedShards());
+		batch.add(budgetMissedSeries, manager.getMissedBudgetTicks());
+
+		for (MetricGroup group : manager.getMetricGroups()) {
+			MetricSeries[] series = seriesOf(group);
+			ScrapeStats stats = group.scrapeStats();
+			batch.add(series[SCRAPE_NANOS], stats.totalNanos());
+			batch.add(series[SCRAPE_COUNT], stats.scrapes());
+			stats.drainDurationTo(snapshot);
+			addQuantiles(batch, series, SCRAPE_DURATION);
+		}
+
+		for (Updater updater : manager.getUpdaters()) {
+			MetricSeries[] series = seriesOf(updater);
+			DeliveryStats stats = updater.deliveryStats();
+			batch.add(series[UPDATER_ENCODE_NANOS], stats.encodeNanos());
+			batch.add(series[UPDATER_BYTES], stats.bytes());
+			batch.add(series[UPDATER_LINES], stats.lines());
+			batch.add(series[UPDATER_SENDS], stats.sends());
+			batch.add(series[UPDATER_FAILURES], stats.failures());
+			batch.add(series[UPDATER_DROPPED], stats.droppedShards());
+			batch.add(series[UPDATER_DROPPED_POINTS], stats.droppedPoints());
+			batch.add(series[UPDATER_LAG], manager.getLagShards(updater));
+			batch.add(series[UPDATER_LAG_MS], manager.getLagMillis(updater));
+			long spoolBytes = manager.getSpoolBytes(updater);
+			if (spoolBytes >= 0) {
+				batch.add(series[UPDATER_SPOOLED], stats.spooledShards());
+				batch.add(series[UPDATER_REPLAYED], stats.replayedPoints());
+				batch.add(series[UPDATER_SPOOL_BYTES], spoolBytes);
+			}
+			stats.drainSendLatencyTo(snapshot);
+			addQuantiles(batch, series, UPDATER_LATENCY);
+			stats.drainDeliveryDelayTo(snapshot);
+			addQuantiles(batch, series, UPDATER_DELAY);
+		}
+	}
+
+	/**
+	 * Everything read here is a thread safe counter.
+	 *
+	 * @return true
+	 */
+	@Override
+	public boolean isAsyncSafe() {
+		return true;
+	}
+
+	@Override
+	public double interval() {
+		return 20;
+	}
+
+	@Override
+	public @NotNull String name() {
+		return "Plugin pipeline statistics";
+	}
+
+	@Override
+	public @NotNull String id() {
+		return ID;
+	}
+
+	/**
+	 * This metric group does not have configurable elements.
+	 *
+	 * @param section metric group specific configuration section
+	 * @return true
+	 */
+	@Override
+	public boolean configure(ConfigurationSection section) {
+		return true;
+	}
+}
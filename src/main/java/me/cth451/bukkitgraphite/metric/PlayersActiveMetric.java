@@ -1,69 +1,247 @@
 package me.cth451.bukkitgraphite.metric;
 
-import com.google.common.collect.ImmutableList;
 import me.cth451.bukkitgraphite.PluginMain;
-import me.cth451.bukkitgraphite.metric.model.MetricEntry;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
 import me.cth451.bukkitgraphite.metric.model.MetricGroup;
-import me.cth451.bukkitgraphite.metric.model.MetricPath;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
 import org.bukkit.Bukkit;
 import org.bukkit.GameMode;
 import org.bukkit.World;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerGameModeChangeEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.List;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.UUID;
 
-public class PlayersActiveMetric extends MetricGroup {
+/**
+ * Metric group counting online players per world and game mode, plus online server operators.
+ * <p>
+ * Counters are kept up to date from join, quit, world change and game mode change events, so a scrape only copies
+ * them out. Worlds are reported from the moment they load until they unload. Operator status can change without any
+ * event, so counters are rebuilt from the online player list every reconcile-interval-ms to correct any drift. Events
+ * and scrapes both run on the main thread.
+ */
+public class PlayersActiveMetric extends MetricGroup implements Listener {
 	public static String ID = "player-active";
 
+	public static final String ACTIVE = "player.active";
+	public static final String OP = "player.op";
+
+	public static final long DEFAULT_RECONCILE_INTERVAL_MS = 60000;
+
+	private static final GameMode[] GAME_MODES = GameMode.values();
+
+	/**
+	 * Live counters of one world
+	 */
+	private static class WorldCounters {
+		/**
+		 * Interned series indexed by game mode ordinal
+		 */
+		final MetricSeries[] series = new MetricSeries[GAME_MODES.length];
+
+		/**
+		 * Players online indexed by game mode ordinal
+		 */
+		final int[] players = new int[GAME_MODES.length];
+
+		WorldCounters(String name) {
+			for (GameMode gm : GAME_MODES) {
+				series[gm.ordinal()] = MetricPathRegistry.global().intern(ACTIVE, Map.ofEntries(
+						Map.entry("world", name),
+						Map.entry("gamemode", gm.name())
+				));
+			}
+		}
+	}
+
+	/**
+	 * Where a player is currently accounted
+	 */
+	private static class Tracked {
+		final WorldCounters world;
+		final GameMode mode;
+		final boolean op;
+
+		Tracked(WorldCounters world, GameMode mode, boolean op) {
+			this.world = world;
+			this.mode = mode;
+			this.op = op;
+		}
+	}
+
+	/**
+	 * Counters per world name, in the order worlds were loaded
+	 */
+	private LinkedHashMap<String, WorldCounters> worlds = new LinkedHashMap<>();
+
+	private final HashMap<UUID, Tracked> players = new HashMap<>();
+
+	private final MetricSeries opSeries = MetricPathRegistry.global().intern(OP);
+
+	private int ops = 0;
+
+	private long reconcileIntervalNanos = DEFAULT_RECONCILE_INTERVAL_MS * 1_000_000L;
+
+	/**
+	 * System.nanoTime() after which the next scrape rebuilds all counters
+	 */
+	private long nextReconcileNanos = System.nanoTime() + reconcileIntervalNanos;
+
 	public PlayersActiveMetric(PluginMain plugin) {
 		super(plugin);
 	}
 
-	private static MetricPath pathFromWorldAndGameMode(String key, World w, GameMode gm) {
-		return new MetricPath(key, Map.ofEntries(
-				Map.entry("world", w.getName()),
-				Map.entry("gamemode", gm.name())
-		));
+	private @NotNull WorldCounters countersFor(@NotNull World w) {
+		return worlds.computeIfAbsent(w.getName(), WorldCounters::new);
 	}
 
-	private static MetricPath pathFromActivePlayer(String key, Player p) {
-		return pathFromWorldAndGameMode(key, p.getWorld(), p.getGameMode());
+	/**
+	 * Account for a player, replacing any previous entry
+	 *
+	 * @param p    player
+	 * @param mode game mode the player is in or about to switch to
+	 */
+	private void track(@NotNull Player p, @NotNull GameMode mode) {
+		untrack(p.getUniqueId());
+		Tracked t = new Tracked(countersFor(p.getWorld()), mode, p.isOp());
+		t.world.players[mode.ordinal()]++;
+		if (t.op) {
+			ops++;
+		}
+		players.put(p.getUniqueId(), t);
 	}
 
-	@Override
-	public @NotNull List<MetricEntry> scrape() {
-		List<Player> players = ImmutableList.copyOf(Bukkit.getOnlinePlayers());
-		/* Account for online players */
-		Map<MetricPath, Double> playerCount =
-				players.stream()
-				       .collect(
-						       Collectors.groupingBy(
-								       p -> pathFromActivePlayer("player.active", p),
-								       Collectors.reducing(0.0d, p -> 1.0d, Double::sum)
-						       )
-				       );
-
-		/* Account for empty entries */
-		for (World w : ImmutableList.copyOf(Bukkit.getWorlds())) {
-			for (GameMode gm : GameMode.values()) {
-				MetricPath key = pathFromWorldAndGameMode("player.active", w, gm);
-				if (!playerCount.containsKey(key)) {
-					playerCount.put(key, 0d);
+	private void untrack(@NotNull UUID id) {
+		Tracked t = players.remove(id);
+		if (t == null) {
+			return;
+		}
+		t.world.players[t.mode.ordinal()]--;
+		if (t.op) {
+			ops--;
+		}
+	}
+
+	/**
+	 * Rebuild all counters from the online player list. Worlds no longer loaded are dropped.
+	 */
+	private void reconcile() {
+		LinkedHashMap<String, WorldCounters> loaded = new LinkedHashMap<>();
+		for (World w : Bukkit.getWorlds()) {
+			WorldCounters c = worlds.get(w.getName());
+			if (c == null) {
+				c = new WorldCounters(w.getName());
+			} else {
+				Arrays.fill(c.players, 0);
+			}
+			loaded.put(w.getName(), c);
+		}
+		worlds = loaded;
+		players.clear();
+		ops = 0;
+		for (Player p : Bukkit.getOnlinePlayers()) {
+			track(p, p.getGameMode());
+		}
+		nextReconcileNanos = System.nanoTime() + reconcileIntervalNanos;
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	private void onJoin(PlayerJoinEvent event) {
+		track(event.getPlayer(), event.getPlayer().getGameMode());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	private void onQuit(PlayerQuitEvent event) {
+		untrack(event.getPlayer().getUniqueId());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	private void onWorldChange(PlayerChangedWorldEvent event) {
+		track(event.getPlayer(), event.getPlayer().getGameMode());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	private void onWorldLoad(WorldLoadEvent event) {
+		countersFor(event.getWorld());
+	}
+
+	/**
+	 * Players have left a world by the time it unloads, any still accounted there are forgotten
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	private void onWorldUnload(WorldUnloadEvent event) {
+		WorldCounters c = worlds.remove(event.getWorld().getName());
+		if (c == null) {
+			return;
+		}
+		for (Iterator<Tracked> it = players.values().iterator(); it.hasNext(); ) {
+			Tracked t = it.next();
+			if (t.world == c) {
+				it.remove();
+				if (t.op) {
+					ops--;
 				}
 			}
 		}
+	}
+
+	/**
+	 * Fired before the game mode actually changes, so the new one is taken from the event
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	private void onGameModeChange(PlayerGameModeChangeEvent event) {
+		track(event.getPlayer(), event.getNewGameMode());
+	}
+
+	/**
+	 * Count players already online and register event handlers
+	 */
+	@Override
+	public void start() {
+		reconcile();
+		plugin.getServer().getPluginManager().registerEvents(this, this.plugin);
+	}
 
-		/* Count number of server operators online */
-		long ops = players.stream().filter(Player::isOp).count();
-		playerCount.put(new MetricPath("player.op", null), (double) ops);
+	/**
+	 * Remove event handlers and forget all counters
+	 */
+	@Override
+	public void halt() {
+		HandlerList.unregisterAll(this);
+		worlds.clear();
+		players.clear();
+		ops = 0;
+	}
 
-		return playerCount.entrySet().stream()
-		                  .map(e -> new MetricEntry(e.getKey(), e.getValue()))
-		                  .toList();
+	@Override
+	public void scrape(@NotNull MetricBatch batch) {
+		if (System.nanoTime() - nextReconcileNanos >= 0) {
+			reconcile();
+		}
+		/* Account for online players, including empty entries */
+		for (WorldCounters c : worlds.values()) {
+			for (int i = 0; i < GAME_MODES.length; i++) {
+				batch.add(c.series[i], c.players[i]);
+			}
+		}
+		batch.add(opSeries, ops);
 	}
 
 	@Override
@@ -82,13 +260,22 @@ public class PlayersActiveMetric extends MetricGroup {
 	}
 
 	/**
-	 * This metric group does not have configurable elements.
+	 * Load parameters from configuration.
+	 * <p>
+	 * Here are the possible parameters:
+	 * <ul>
+	 *     <li>reconcile-interval-ms: optional, how often counters are rebuilt from the online player list</li>
+	 * </ul>
 	 *
 	 * @param section metric group specific configuration section
 	 * @return true
 	 */
 	@Override
 	public boolean configure(ConfigurationSection section) {
+		long millis = section == null ? DEFAULT_RECONCILE_INTERVAL_MS :
+				section.getLong("reconcile-interval-ms", DEFAULT_RECONCILE_INTERVAL_MS);
+		this.reconcileIntervalNanos = Math.max(1000, millis) * 1_000_000L;
+		this.nextReconcileNanos = System.nanoTime() + reconcileIntervalNanos;
 		return true;
 	}
 }
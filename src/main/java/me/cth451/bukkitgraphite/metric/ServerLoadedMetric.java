@@ -1,53 +1,255 @@
 package me.cth451.bukkitgraphite.metric;
 
-import com.google.common.collect.ImmutableList;
+import com.destroystokyo.paper.event.entity.EntityAddToWorldEvent;
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
 import me.cth451.bukkitgraphite.PluginMain;
-import me.cth451.bukkitgraphite.metric.model.MetricEntry;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
 import me.cth451.bukkitgraphite.metric.model.MetricGroup;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Stream;
 
 /**
  * Load entity / chunks per world
+ * <p>
+ * Totals come from Paper's count APIs, which don't build entity lists or chunk arrays. The breakdown by entity type is
+ * kept in per-world counters indexed by type ordinal, maintained from entity add / remove events. Counters of a world
+ * are built from its entity list when it loads and dropped when it unloads; entity events of worlds without counters
+ * are ignored. Counters are rebuilt from the entity list of one world per scrape every reconcile-interval-ms, in case
+ * an event was missed. Events and scrapes both run on the main thread.
  */
-public class ServerLoadedMetric extends MetricGroup {
+public class ServerLoadedMetric extends MetricGroup implements Listener {
 	public static String ID = "server-chunk-entity";
 	public final static String ENTITY_LOADED = "server.entity";
+	public final static String ENTITY_BY_TYPE = "server.entity.by_type";
+	public final static String TILE_ENTITY_LOADED = "server.tile_entity";
 	public final static String CHUNK_LOADED = "server.chunk.loaded";
 	public final static String CHUNK_PINNED = "server.chunk.pinned";
 
+	public static final long DEFAULT_RECONCILE_INTERVAL_MS = 600000;
+
+	private static final EntityType[] ENTITY_TYPES = EntityType.values();
+
+	/**
+	 * Interned series and live counters of one world
+	 */
+	private static class WorldCounters {
+		final String name;
+		final MetricSeries entity;
+		final MetricSeries tileEntity;
+		final MetricSeries chunkLoaded;
+		final MetricSeries chunkPinned;
+
+		/**
+		 * Loaded entities indexed by entity type ordinal
+		 */
+		final int[] byType = new int[ENTITY_TYPES.length];
+
+		/**
+		 * Series indexed by entity type ordinal, interned once a type shows up in this world. Types that have been
+		 * seen keep being reported, so that their count drops to zero instead of going stale.
+		 */
+		final MetricSeries[] typeSeries = new MetricSeries[ENTITY_TYPES.length];
+
+		WorldCounters(String name) {
+			this.name = name;
+			Map<String, String> tags = Map.of("world", name);
+			MetricPathRegistry registry = MetricPathRegistry.global();
+			this.entity = registry.intern(ENTITY_LOADED, tags);
+			this.tileEntity = registry.intern(TILE_ENTITY_LOADED, tags);
+			this.chunkLoaded = registry.intern(CHUNK_LOADED, tags);
+			this.chunkPinned = registry.intern(CHUNK_PINNED, tags);
+		}
+
+		void add(@NotNull EntityType type, int delta) {
+			int i = type.ordinal();
+			byType[i] = Math.max(0, byType[i] + delta);
+			if (typeSeries[i] == null) {
+				typeSeries[i] = MetricPathRegistry.global().intern(ENTITY_BY_TYPE, Map.ofEntries(
+						Map.entry("world", name),
+						Map.entry("type", type.name().toLowerCase())
+				));
+			}
+		}
+	}
+
+	private final HashMap<String, WorldCounters> worlds = new HashMap<>();
+
+	private long reconcileIntervalNanos = DEFAULT_RECONCILE_INTERVAL_MS * 1_000_000L;
+
+	/**
+	 * System.nanoTime() after which scrapes start rebuilding counters again
+	 */
+	private long nextReconcileNanos = System.nanoTime() + reconcileIntervalNanos;
+
+	/**
+	 * Index of the next world to rebuild counters of during a reconciliation round - -1 if no round is in progress
+	 */
+	private int reconcileWorld = -1;
+
+	/**
+	 * Worlds of an incremental scrape in progress - null if none is in progress
+	 */
+	private List<World> pendingWorlds = null;
+	private int nextWorld = 0;
+
 	public ServerLoadedMetric(PluginMain plugin) {
 		super(plugin);
 	}
 
-	private static MetricEntry assemble(String key, String worldName, int value) {
-		return new MetricEntry(key, Map.of("world", worldName), (double) value);
+	private @NotNull WorldCounters countersFor(@NotNull World w) {
+		return worlds.computeIfAbsent(w.getName(), WorldCounters::new);
+	}
+
+	/**
+	 * Rebuild entity type counters of a world from its entity list
+	 */
+	private void reconcile(@NotNull World w) {
+		WorldCounters c = countersFor(w);
+		Arrays.fill(c.byType, 0);
+		for (Entity e : w.getEntities()) {
+			c.add(e.getType(), 1);
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	private void onEntityAdd(EntityAddToWorldEvent event) {
+		Entity e = event.getEntity();
+		WorldCounters c = worlds.get(e.getWorld().getName());
+		if (c != null) {
+			c.add(e.getType(), 1);
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	private void onEntityRemove(EntityRemoveFromWorldEvent event) {
+		Entity e = event.getEntity();
+		/* Entities of an unloaded world keep leaving while its chunks are unloaded */
+		WorldCounters c = worlds.get(e.getWorld().getName());
+		if (c != null) {
+			c.add(e.getType(), -1);
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	private void onWorldLoad(WorldLoadEvent event) {
+		reconcile(event.getWorld());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	private void onWorldUnload(WorldUnloadEvent event) {
+		World w = event.getWorld();
+		worlds.remove(w.getName());
+		/* Don't let an incremental scrape in progress get to it */
+		if (pendingWorlds != null) {
+			int i = pendingWorlds.indexOf(w);
+			if (i >= nextWorld) {
+				pendingWorlds.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * Count entities already loaded and register event handlers
+	 */
+	@Override
+	public void start() {
+		for (World w : Bukkit.getWorlds()) {
+			reconcile(w);
+		}
+		nextReconcileNanos = System.nanoTime() + reconcileIntervalNanos;
+		plugin.getServer().getPluginManager().registerEvents(this, this.plugin);
+	}
+
+	/**
+	 * Remove event handlers and forget all counters
+	 */
+	@Override
+	public void halt() {
+		HandlerList.unregisterAll(this);
+		worlds.clear();
+		reconcileWorld = -1;
+		pendingWorlds = null;
+	}
+
+	private void scrapeWorld(@NotNull MetricBatch batch, @NotNull World w) {
+		WorldCounters c = countersFor(w);
+		batch.add(c.entity, w.getEntityCount());
+		batch.add(c.tileEntity, w.getTileEntityCount());
+		batch.add(c.chunkLoaded, w.getChunkCount());
+		batch.add(c.chunkPinned, w.getForceLoadedChunks().size());
+		for (int i = 0; i < ENTITY_TYPES.length; i++) {
+			if (c.typeSeries[i] != null) {
+				batch.add(c.typeSeries[i], c.byType[i]);
+			}
+		}
+	}
+
+	/**
+	 * Rebuild counters of at most one world, spreading a reconciliation round over consecutive scrapes
+	 *
+	 * @param loaded currently loaded worlds
+	 */
+	private void reconcileStep(@NotNull List<World> loaded) {
+		if (reconcileWorld < 0) {
+			if (System.nanoTime() - nextReconcileNanos < 0) {
+				return;
+			}
+			reconcileWorld = 0;
+		}
+		if (reconcileWorld < loaded.size()) {
+			reconcile(loaded.get(reconcileWorld++));
+		}
+		if (reconcileWorld >= loaded.size()) {
+			reconcileWorld = -1;
+			nextReconcileNanos = System.nanoTime() + reconcileIntervalNanos;
+		}
+	}
+
+	@Override
+	public void scrape(@NotNull MetricBatch batch) {
+		List<World> loaded = Bukkit.getWorlds();
+		reconcileStep(loaded);
+		for (World w : loaded) {
+			scrapeWorld(batch, w);
+		}
 	}
 
+	/**
+	 * Scrape one world at a time, yielding between worlds once the deadline has passed.
+	 */
 	@Override
-	public @NotNull List<MetricEntry> scrape() {
-		List<MetricEntry> results = new LinkedList<>();
-		List<World> worlds = ImmutableList.copyOf(Bukkit.getWorlds());
-		Stream<MetricEntry> entityCount =
-				worlds.stream()
-				      .map(w -> assemble(ENTITY_LOADED, w.getName(), w.getEntities().size()));
-		Stream<MetricEntry> chunkCount =
-				worlds.stream()
-				      .map(w -> assemble(CHUNK_LOADED, w.getName(), w.getLoadedChunks().length));
-		Stream<MetricEntry> pinnedChunkCount =
-				worlds.stream()
-				      .map(w -> assemble(CHUNK_PINNED, w.getName(), w.getForceLoadedChunks().size()));
-		results.addAll(entityCount.toList());
-		results.addAll(chunkCount.toList());
-		results.addAll(pinnedChunkCount.toList());
-		return results;
+	public boolean scrapeStep(@NotNull MetricBatch batch, long deadline) {
+		if (pendingWorlds == null) {
+			pendingWorlds = new ArrayList<>(Bukkit.getWorlds());
+			nextWorld = 0;
+			reconcileStep(pendingWorlds);
+		}
+		while (nextWorld < pendingWorlds.size()) {
+			scrapeWorld(batch, pendingWorlds.get(nextWorld++));
+			if (nextWorld < pendingWorlds.size() && System.nanoTime() - deadline >= 0) {
+				return false;
+			}
+		}
+		pendingWorlds = null;
+		return true;
 	}
 
 	@Override
@@ -66,13 +268,21 @@ public class ServerLoadedMetric extends MetricGroup {
 	}
 
 	/**
-	 * This metric group does not have configurable elements.
+	 * Load parameters from configuration.
+	 * <p>
+	 * Here are the possible parameters:
+	 * <ul>
+	 *     <li>reconcile-interval-ms: optional, how often entity type counters are rebuilt from entity lists</li>
+	 * </ul>
 	 *
 	 * @param section metric group specific configuration section
 	 * @return true
 	 */
 	@Override
 	public boolean configure(ConfigurationSection section) {
+		long millis = section == null ? DEFAULT_RECONCILE_INTERVAL_MS :
+				section.getLong("reconcile-interval-ms", DEFAULT_RECONCILE_INTERVAL_MS);
+		this.reconcileIntervalNanos = Math.max(1000, millis) * 1_000_000L;
 		return true;
 	}
 }
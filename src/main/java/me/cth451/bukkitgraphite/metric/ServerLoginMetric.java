@@ -1,18 +1,17 @@
 package me.cth451.bukkitgraphite.metric;
 
-import com.google.common.collect.ImmutableMap;
 import me.cth451.bukkitgraphite.PluginMain;
-import me.cth451.bukkitgraphite.metric.model.MetricEntry;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
 import me.cth451.bukkitgraphite.metric.model.MetricGroup;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerLoginEvent;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -27,8 +26,14 @@ public class ServerLoginMetric extends MetricGroup implements Listener {
 	public static final String Name = "Server Login Attempt Counters";
 	public final static String LOGIN = "server.login";
 	public final static String PARAMETRIZE = "result";
+	private static final PlayerLoginEvent.Result[] RESULTS = PlayerLoginEvent.Result.values();
 	public final HashMap<PlayerLoginEvent.Result, Long> loginCounters = new HashMap<>();
 
+	/**
+	 * Interned series indexed by login result ordinal
+	 */
+	private final MetricSeries[] resultSeries = new MetricSeries[RESULTS.length];
+
 	/**
 	 * Constructor
 	 *
@@ -36,6 +41,10 @@ public class ServerLoginMetric extends MetricGroup implements Listener {
 	 */
 	public ServerLoginMetric(PluginMain plugin) {
 		super(plugin);
+		for (PlayerLoginEvent.Result r : PlayerLoginEvent.Result.values()) {
+			this.resultSeries[r.ordinal()] =
+					MetricPathRegistry.global().intern(LOGIN, Map.of(PARAMETRIZE, r.name().toLowerCase()));
+		}
 		synchronized (this.loginCounters) {
 			for (PlayerLoginEvent.Result r : PlayerLoginEvent.Result.values()) {
 				this.loginCounters.put(r, 0L);
@@ -78,20 +87,22 @@ public class ServerLoginMetric extends MetricGroup implements Listener {
 	}
 
 	@Override
-	public @NotNull List<MetricEntry> scrape() {
-		List<MetricEntry> updates = new ArrayList<>(PlayerLoginEvent.Result.values().length);
-		ImmutableMap<PlayerLoginEvent.Result, Long> copy;
+	public void scrape(@NotNull MetricBatch batch) {
 		synchronized (this.loginCounters) {
-			copy = ImmutableMap.copyOf(this.loginCounters);
-		}
-		for (PlayerLoginEvent.Result r : PlayerLoginEvent.Result.values()) {
-			updates.add(new MetricEntry(LOGIN,
-			                            Map.of(PARAMETRIZE, r.name().toLowerCase()),
-			                            this.loginCounters.get(r)
-			));
+			for (PlayerLoginEvent.Result r : RESULTS) {
+				batch.add(resultSeries[r.ordinal()], this.loginCounters.get(r));
+			}
 		}
+	}
 
-		return updates;
+	/**
+	 * Counters are guarded by their own lock.
+	 *
+	 * @return true
+	 */
+	@Override
+	public boolean isAsyncSafe() {
+		return true;
 	}
 
 	@Override
@@ -1,16 +1,14 @@
 package me.cth451.bukkitgraphite.metric;
 
 import me.cth451.bukkitgraphite.PluginMain;
-import me.cth451.bukkitgraphite.metric.model.MetricEntry;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
 import me.cth451.bukkitgraphite.metric.model.MetricGroup;
-import me.cth451.bukkitgraphite.metric.model.MetricPath;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.ConfigurationSection;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.LinkedList;
-import java.util.List;
-
 /**
  * Ticks-per-second and milliseconds-per-tick perf counters
  */
@@ -18,18 +16,29 @@ public class ServerTpsMetric extends MetricGroup {
 
 	public static String ID = "server-tps";
 
+	private final MetricSeries tpsSeries = MetricPathRegistry.global().intern("server.tps");
+	private final MetricSeries msptSeries = MetricPathRegistry.global().intern("server.mspt");
+
 	public ServerTpsMetric(PluginMain plugin) {
 		super(plugin);
 	}
 
 	@Override
-	public @NotNull List<MetricEntry> scrape() {
-		List<MetricEntry> results = new LinkedList<>();
+	public void scrape(@NotNull MetricBatch batch) {
 		/* tick per second */
-		results.add(new MetricEntry(new MetricPath("server.tps", null), Bukkit.getTPS()[0]));
+		batch.add(tpsSeries, Bukkit.getTPS()[0]);
 		/* ms per tick*/
-		results.add(new MetricEntry(new MetricPath("server.mspt", null), Bukkit.getAverageTickTime()));
-		return results;
+		batch.add(msptSeries, Bukkit.getAverageTickTime());
+	}
+
+	/**
+	 * Tick statistics are plain reads of values the server publishes once per tick.
+	 *
+	 * @return true
+	 */
+	@Override
+	public boolean isAsyncSafe() {
+		return true;
 	}
 
 	@Override
@@ -0,0 +1,157 @@
+package me.cth451.bukkitgraphite.metric;
+
+import com.destroystokyo.paper.event.server.ServerTickEndEvent;
+import com.destroystokyo.paper.event.server.ServerTickStartEvent;
+import me.cth451.bukkitgraphite.PluginMain;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricGroup;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
+import me.cth451.bukkitgraphite.stats.Histogram;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Distribution of tick durations, which unlike the averaged {@link ServerTpsMetric} shows individual lag spikes.
+ * <p>
+ * Every tick is timed from Paper's tick start to tick end event into a {@link Histogram}. Quantiles (p50, p95, p99,
+ * max) and the number of ticks slower than slow-tick-ms cover the interval since the previous scrape of this group.
+ * Quantiles are left out when no tick completed in that interval.
+ */
+public class TickDurationMetric extends MetricGroup implements Listener {
+	public static final String ID = "tick-duration";
+	public static final String Name = "Tick duration distribution";
+
+	public static final String DURATION = "server.tick.duration_ms";
+	public static final String TICKS = "server.tick.count";
+	public static final String SLOW_TICKS = "server.tick.slow";
+
+	public static final long DEFAULT_SLOW_TICK_MS = 50;
+
+	private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+	private static final String[] QUANTILE_SUFFIXES = {"p50", "p95", "p99", "max"};
+
+	/**
+	 * Interned series indexed like {@link #QUANTILE_SUFFIXES}
+	 */
+	private final MetricSeries[] durationSeries = new MetricSeries[QUANTILE_SUFFIXES.length];
+	private final MetricSeries ticksSeries = MetricPathRegistry.global().intern(TICKS);
+	private final MetricSeries slowTicksSeries = MetricPathRegistry.global().intern(SLOW_TICKS);
+
+	/**
+	 * Tick durations in nanoseconds
+	 */
+	private final Histogram durations = new Histogram();
+	private final AtomicLong slowTicks = new AtomicLong(0);
+
+	/**
+	 * Reused for draining the histogram - scrapes of one group never overlap
+	 */
+	private final Histogram.Snapshot snapshot = new Histogram.Snapshot();
+
+	private long slowTickNanos = DEFAULT_SLOW_TICK_MS * 1_000_000L;
+
+	/**
+	 * System.nanoTime() at the start of the current tick, or 0 outside a tick. Only touched from the main thread.
+	 */
+	private long tickStartNanos = 0;
+
+	public TickDurationMetric(PluginMain plugin) {
+		super(plugin);
+		for (int i = 0; i < QUANTILE_SUFFIXES.length; i++) {
+			durationSeries[i] = MetricPathRegistry.global().intern(DURATION + "." + QUANTILE_SUFFIXES[i]);
+		}
+	}
+
+	@EventHandler(priority = EventPriority.LOWEST)
+	private void onTickStart(ServerTickStartEvent event) {
+		tickStartNanos = System.nanoTime();
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	private void onTickEnd(ServerTickEndEvent event) {
+		if (tickStartNanos == 0) {
+			return;
+		}
+		long elapsed = System.nanoTime() - tickStartNanos;
+		tickStartNanos = 0;
+		durations.record(elapsed);
+		if (elapsed > slowTickNanos) {
+			slowTicks.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void start() {
+		plugin.getServer().getPluginManager().registerEvents(this, this.plugin);
+	}
+
+	@Override
+	public void halt() {
+		HandlerList.unregisterAll(this);
+		tickStartNanos = 0;
+	}
+
+	@Override
+	public void scrape(@NotNull MetricBatch batch) {
+		durations.drainTo(snapshot);
+		batch.add(ticksSeries, snapshot.count());
+		batch.add(slowTicksSeries, slowTicks.getAndSet(0));
+		if (snapshot.count() == 0) {
+			return;
+		}
+		for (int i = 0; i < QUANTILES.length; i++) {
+			batch.add(durationSeries[i], snapshot.percentile(QUANTILES[i]) / 1e6);
+		}
+		batch.add(durationSeries[QUANTILES.length], snapshot.max() / 1e6);
+	}
+
+	/**
+	 * The histogram and slow tick counter are lock-free.
+	 *
+	 * @return true
+	 */
+	@Override
+	public boolean isAsyncSafe() {
+		return true;
+	}
+
+	@Override
+	public double interval() {
+		return 200;
+	}
+
+	@Override
+	public @NotNull String name() {
+		return Name;
+	}
+
+	@Override
+	public @NotNull String id() {
+		return ID;
+	}
+
+	/**
+	 * Load parameters from configuration.
+	 * <p>
+	 * Here are the possible parameters:
+	 * <ul>
+	 *     <li>slow-tick-ms: optional, ticks taking longer than this are counted as slow</li>
+	 * </ul>
+	 *
+	 * @param section metric group specific configuration section
+	 * @return true
+	 */
+	@Override
+	public boolean configure(ConfigurationSection section) {
+		long millis = section == null ? DEFAULT_SLOW_TICK_MS : section.getLong("slow-tick-ms", DEFAULT_SLOW_TICK_MS);
+		this.slowTickNanos = Math.max(1, millis) * 1_000_000L;
+		return true;
+	}
+}
@@ -0,0 +1,300 @@
+package me.cth451.bukkitgraphite.metric.model;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Columnar set of data points collected in one scrape.
+ * <p>
+ * Points are stored as parallel arrays of series ids and values and share a single timestamp. Batches are obtained
+ * from a {@link MetricBatchPool} and reference counted: every consumer that keeps a batch beyond the call it was
+ * handed in must {@link #retain()} it, and every holder calls {@link #release()} when done. When the count drops to
+ * zero the batch is cleared and returned to its pool, keeping its arrays for the next scrape.
+ * <p>
+ * Consumers sharing a batch can also share work derived from it, e.g. its encoding in a wire format, through
+ * {@link #derive(Object, Function)}. A batch must not be modified once it has been handed to consumers.
+ */
+public final class MetricBatch {
+	/**
+	 * Data computed from a batch and cached along with it. Released when the batch is.
+	 */
+	public interface Derived {
+		void release();
+	}
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final MetricPathRegistry registry;
+	private final MetricBatchPool pool;
+	private final AtomicInteger refCount = new AtomicInteger(1);
+
+	private int[] seriesIds = new int[INITIAL_CAPACITY];
+	private double[] values = new double[INITIAL_CAPACITY];
+	private int size = 0;
+
+	/**
+	 * Point index + 1 by series id, 0 for series without a point - only valid while indexed is set. Built by the
+	 * first {@link #mergeLatest(MetricBatch)} and kept up to date by later merges.
+	 */
+	private int[] pointOf = null;
+	private boolean indexed = false;
+
+	/**
+	 * Scrape time in milliseconds since epoch
+	 */
+	private long timestamp;
+
+	/**
+	 * Derived data by key, guarded by this - null until something is derived
+	 */
+	private HashMap<Object, Derived> derived = null;
+
+	/**
+	 * Create a standalone batch that is not returned to any pool
+	 *
+	 * @param registry registry series ids refer to
+	 */
+	public MetricBatch(@NotNull MetricPathRegistry registry) {
+		this(registry, null);
+	}
+
+	MetricBatch(@NotNull MetricPathRegistry registry, @Nullable MetricBatchPool pool) {
+		this.registry = registry;
+		this.pool = pool;
+		this.timestamp = System.currentTimeMillis();
+	}
+
+	/**
+	 * Append a data point
+	 *
+	 * @param series interned series
+	 * @param value  numeric value
+	 */
+	public void add(@NotNull MetricSeries series, double value) {
+		add(series.id(), value);
+	}
+
+	/**
+	 * Append a data point
+	 *
+	 * @param seriesId id of a series interned in this batch's registry
+	 * @param value    numeric value
+	 */
+	public void add(int seriesId, double value) {
+		if (indexed) {
+			dropIndex();
+		}
+		append(seriesId, value);
+	}
+
+	private void append(int seriesId, double value) {
+		if (size == seriesIds.length) {
+			seriesIds = Arrays.copyOf(seriesIds, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		seriesIds[size] = seriesId;
+		values[size] = value;
+		size++;
+	}
+
+	/**
+	 * Append all data points of another batch. The timestamp of this batch is kept.
+	 *
+	 * @param other batch to copy points from
+	 */
+	public void addAll(@NotNull MetricBatch other) {
+		for (int i = 0; i < other.size; i++) {
+			add(other.seriesIds[i], other.values[i]);
+		}
+	}
+
+	/**
+	 * Fold a later batch into this one, keeping only the latest value of each series. Points of series this batch
+	 * already has are overwritten in place, others are appended, and the timestamp moves forward to the later batch.
+	 * A batch older than this one only adds the series this batch lacks. Points are looked up through an index by
+	 * series id, so merging takes time linear in the size of both batches.
+	 *
+	 * @param later batch scraped after this one
+	 */
+	public void mergeLatest(@NotNull MetricBatch later) {
+		if (!indexed) {
+			buildIndex();
+		}
+		boolean newer = later.timestamp >= this.timestamp;
+		for (int i = 0; i < later.size; i++) {
+			int id = later.seriesIds[i];
+			if (id >= pointOf.length) {
+				pointOf = Arrays.copyOf(pointOf, Math.max(id + 1, registry.size()));
+			}
+			int point = pointOf[id];
+			if (point > 0) {
+				if (newer) {
+					values[point - 1] = later.values[i];
+				}
+			} else {
+				append(id, later.values[i]);
+				pointOf[id] = size;
+			}
+		}
+		this.timestamp = Math.max(this.timestamp, later.timestamp);
+	}
+
+	private void buildIndex() {
+		if (pointOf == null || pointOf.length < registry.size()) {
+			pointOf = new int[registry.size()];
+		}
+		for (int i = 0; i < size; i++) {
+			int id = seriesIds[i];
+			if (id >= pointOf.length) {
+				pointOf = Arrays.copyOf(pointOf, id + 1);
+			}
+			if (pointOf[id] == 0) {
+				pointOf[id] = i + 1;
+			}
+		}
+		indexed = true;
+	}
+
+	/**
+	 * Invalidate the series index, clearing only the entries of points in this batch
+	 */
+	private void dropIndex() {
+		for (int i = 0; i < size; i++) {
+			pointOf[seriesIds[i]] = 0;
+		}
+		indexed = false;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param index point index
+	 * @return series id of the point
+	 */
+	public int seriesId(int index) {
+		return seriesIds[index];
+	}
+
+	/**
+	 * @param index point index
+	 * @return interned series of the point
+	 */
+	public @NotNull MetricSeries series(int index) {
+		return registry.get(seriesIds[index]);
+	}
+
+	/**
+	 * @param index point index
+	 * @return value of the point
+	 */
+	public double value(int index) {
+		return values[index];
+	}
+
+	/**
+	 * @return scrape time in milliseconds since epoch
+	 */
+	public long timestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return scrape time in seconds since epoch
+	 */
+	public long epochSecond() {
+		return Math.floorDiv(timestamp, 1000L);
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public @NotNull MetricPathRegistry registry() {
+		return registry;
+	}
+
+	/**
+	 * Materialize one point as a standalone entry. This allocates and is meant for diagnostics.
+	 *
+	 * @param index point index
+	 * @return data point
+	 */
+	public @NotNull MetricEntry entry(int index) {
+		return new MetricEntry(series(index), values[index], Instant.ofEpochMilli(timestamp));
+	}
+
+	/**
+	 * Look up data derived from this batch, computing and caching it on first use. Concurrent callers with the same key
+	 * wait for the first one, so the computation runs once per batch and key.
+	 *
+	 * @param key     what is derived, e.g. a wire format - compared with equals()
+	 * @param compute computes the data from this batch
+	 * @param <T>     type of derived data, which must be the same for all uses of a key
+	 * @return cached data, valid until the caller releases its reference to this batch
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T extends Derived> @NotNull T derive(@NotNull Object key,
+	                                                          @NotNull Function<MetricBatch, T> compute) {
+		if (derived == null) {
+			derived = new HashMap<>();
+		}
+		return (T) derived.computeIfAbsent(key, k -> compute.apply(this));
+	}
+
+	private synchronized void releaseDerived() {
+		if (derived == null) {
+			return;
+		}
+		derived.values().forEach(Derived::release);
+		derived = null;
+	}
+
+	/**
+	 * Register an additional holder of this batch
+	 *
+	 * @return this batch
+	 */
+	public @NotNull MetricBatch retain() {
+		refCount.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * Drop one reference. The last release drops derived data and hands the batch back to its pool.
+	 */
+	public void release() {
+		int remaining = refCount.decrementAndGet();
+		if (remaining == 0) {
+			releaseDerived();
+			if (pool != null) {
+				pool.recycle(this);
+			}
+		} else if (remaining < 0) {
+			throw new IllegalStateException("MetricBatch released more often than retained");
+		}
+	}
+
+	/**
+	 * Reset for reuse by the pool
+	 */
+	void reset(long timestamp) {
+		if (indexed) {
+			dropIndex();
+		}
+		this.size = 0;
+		this.timestamp = timestamp;
+		this.refCount.set(1);
+	}
+}
@@ -0,0 +1,45 @@
+package me.cth451.bukkitgraphite.metric.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Free list of {@link MetricBatch} instances so that steady-state scraping doesn't allocate.
+ * <p>
+ * The free list is array backed, so handing batches back and forth doesn't create garbage either. Batches released
+ * while the free list is full are left to the garbage collector.
+ */
+public class MetricBatchPool {
+	private final MetricPathRegistry registry;
+	private final ArrayBlockingQueue<MetricBatch> free;
+
+	/**
+	 * Constructor
+	 *
+	 * @param registry registry that series ids in pooled batches refer to
+	 * @param capacity maximum number of idle batches kept around
+	 */
+	public MetricBatchPool(@NotNull MetricPathRegistry registry, int capacity) {
+		this.registry = registry;
+		this.free = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * Take an empty batch with a reference count of one, stamped with the current time.
+	 *
+	 * @return batch ready to be filled
+	 */
+	public @NotNull MetricBatch acquire() {
+		MetricBatch batch = free.poll();
+		if (batch == null) {
+			return new MetricBatch(registry, this);
+		}
+		batch.reset(System.currentTimeMillis());
+		return batch;
+	}
+
+	void recycle(@NotNull MetricBatch batch) {
+		free.offer(batch);
+	}
+}
@@ -8,8 +8,22 @@ import java.util.Map;
 
 /**
  * One data point that can be adapted to different metric service protocol.
+ *
+ * @param series    interned metric path
+ * @param value     numeric value for this metric
+ * @param timestamp time this data point was taken
  */
-public record MetricEntry(String key, Map<String, String> tags, double value, Instant timestamp) {
+public record MetricEntry(MetricSeries series, double value, Instant timestamp) {
+	/**
+	 * Create a metric data point from an interned path, value and construction time
+	 *
+	 * @param series interned metric path
+	 * @param value  numeric value for this metric
+	 */
+	public MetricEntry(@NotNull MetricSeries series, double value) {
+		this(series, value, Instant.now());
+	}
+
 	/**
 	 * Create a metric data point from path, value and construction time
 	 *
@@ -17,7 +31,7 @@ public record MetricEntry(String key, Map<String, String> tags, double value, In
 	 * @param value numeric value for this metric
 	 */
 	public MetricEntry(@NotNull MetricPath path, double value) {
-		this(path.key(), path.tags(), value, Instant.now());
+		this(MetricPathRegistry.global().intern(path), value, Instant.now());
 	}
 
 	/**
@@ -31,14 +45,40 @@ public record MetricEntry(String key, Map<String, String> tags, double value, In
 		this(key, tags, value, Instant.now());
 	}
 
+	/**
+	 * Create a metric data point from key, tags and timestamp
+	 *
+	 * @param key       metric key (aka. prometheus metric name)
+	 * @param tags      optional tags (aka. prometheus labels). Passing null is equivalent to an empty map.
+	 * @param value     numeric value for this metric
+	 * @param timestamp time this data point was taken
+	 */
+	public MetricEntry(@NotNull String key, @Nullable Map<String, String> tags, double value, Instant timestamp) {
+		this(MetricPathRegistry.global().intern(key, tags), value, timestamp);
+	}
+
+	/**
+	 * @return metric key (aka. prometheus metric name)
+	 */
+	public @NotNull String key() {
+		return series.key();
+	}
+
+	/**
+	 * @return tags sorted by name (aka. prometheus labels)
+	 */
+	public @NotNull Map<String, String> tags() {
+		return series.tags();
+	}
+
 	/**
 	 * Adapting metric to graphite payload
 	 *
 	 * @return plain text metric in graphite plain text format
 	 */
 	public String toGraphite(String namespace) {
-		String namespacedKey = (namespace == null || namespace.isEmpty()) ? key() : namespace + "." + key();
-		String pathString = new MetricPath(namespacedKey, tags()).toGraphite();
-		return pathString + " " + value() + " " + timestamp().getEpochSecond();
+		String pathString = series.toString();
+		String namespacedPath = (namespace == null || namespace.isEmpty()) ? pathString : namespace + "." + pathString;
+		return namespacedPath + " " + value() + " " + timestamp().getEpochSecond();
 	}
 }
@@ -2,11 +2,10 @@ package me.cth451.bukkitgraphite.metric.model;
 
 import me.cth451.bukkitgraphite.PluggableModule;
 import me.cth451.bukkitgraphite.PluginMain;
+import me.cth451.bukkitgraphite.stats.ScrapeStats;
 import org.bukkit.configuration.ConfigurationSection;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.List;
-
 /**
  * Base class describing a bunch of metric keys logically collected and grouped together
  */
@@ -16,6 +15,11 @@ public abstract class MetricGroup extends PluggableModule {
 	 */
 	private boolean up = true;
 
+	/**
+	 * Time spent scraping this group, filled in by the manager
+	 */
+	private final ScrapeStats scrapeStats = new ScrapeStats();
+
 	/**
 	 * Constructor
 	 * @param plugin plugin registered
@@ -25,14 +29,47 @@ public abstract class MetricGroup extends PluggableModule {
 	}
 
 	/**
-	 * Reap current sensors value into a list of entries.
+	 * Reap current sensors value into a batch.
+	 *
+	 * @param batch batch to append data points to
+	 */
+	public abstract void scrape(@NotNull MetricBatch batch);
+
+	/**
+	 * Scrape as much as possible before a deadline. Groups that can split their work, say one world at a time, should
+	 * override this, stop once the deadline has passed and pick up where they left off on the next call. The default
+	 * implementation scrapes everything in one go.
 	 *
-	 * @return sensors reaped
+	 * @param batch    batch to append data points to. The same batch is passed in until the scrape completes.
+	 * @param deadline System.nanoTime() after which the group should yield
+	 * @return true if the scrape is complete, false if it should be resumed on the next tick
 	 */
-	public abstract @NotNull List<MetricEntry> scrape();
+	public boolean scrapeStep(@NotNull MetricBatch batch, long deadline) {
+		scrape(batch);
+		return true;
+	}
+
+	/**
+	 * Whether {@link #scrape(MetricBatch)} may be called from a thread other than the server main thread. Groups
+	 * that only read thread-safe sources (JVM runtime, MXBeans, their own synchronized counters) should return true
+	 * so they are scraped on a worker pool. Anything touching worlds, entities or players must stay on the main thread.
+	 *
+	 * @return true if this group can be scraped asynchronously
+	 */
+	public boolean isAsyncSafe() {
+		return false;
+	}
+
+	/**
+	 * @return scrape timings of this group
+	 */
+	public final @NotNull ScrapeStats scrapeStats() {
+		return scrapeStats;
+	}
 
 	/**
-	 * Polling interval in ticks. This should be a constant value
+	 * Polling interval in ticks. This should be a constant value. Server admins may override it with
+	 * options.metric-groups.[id].interval-ticks.
 	 *
 	 * @return polling interval
 	 */
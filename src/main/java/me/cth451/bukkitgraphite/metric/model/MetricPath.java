@@ -2,9 +2,10 @@ package me.cth451.bukkitgraphite.metric.model;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.util.List;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
 
 /**
  * Interface for a metric hierarchy entry available and can be collected on the server. A metric with key
@@ -12,20 +13,74 @@ import java.util.Objects;
  * <pre>
  *     minecraft.server.entity;world=world_nether
  * </pre>
+ * Tags are kept sorted by name, so that the same series always serializes the same way.
  *
  * @param key  key for the metric without root namespace and leading dot separator
- * @param tags tags for this key
+ * @param tags tags for this key. Passing null is equivalent to an empty map.
  */
 public record MetricPath(String key, Map<String, String> tags) {
 	public MetricPath {
 		Objects.requireNonNull(key);
+		tags = (tags == null || tags.isEmpty()) ? Map.of() : Collections.unmodifiableMap(new TreeMap<>(tags));
 	}
 
 	public @NotNull String toGraphite() {
-		if (tags == null || tags.isEmpty()) {
+		if (tags.isEmpty()) {
 			return key;
 		}
-		List<String> tagString = tags.entrySet().stream().map(e -> e.getKey() + "=" + e.getValue()).toList();
-		return key + ";" + String.join(";", tagString);
+		StringBuilder sb = new StringBuilder(key);
+		tags.forEach((k, v) -> sb.append(';').append(k).append('=').append(v));
+		return sb.toString();
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @return key converted to a valid prometheus metric name, without root namespace
+	 */
+	public @NotNull String toPrometheusName() {
+		return sanitizePrometheusName(key);
+	}
+
+	/**
+	 * @return prometheus label set including braces, or an empty string if there are no tags
+	 */
+	public @NotNull String toPrometheusLabels() {
+		if (tags.isEmpty()) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder("{");
+		tags.forEach((k, v) -> {
+			if (sb.length() > 1) {
+				sb.append(',');
+			}
+			sb.append(sanitizePrometheusName(k)).append("=\"");
+			for (int i = 0; i < v.length(); i++) {
+				char c = v.charAt(i);
+				switch (c) {
+					case '\\' -> sb.append("\\\\");
+					case '"' -> sb.append("\\\"");
+					case '\n' -> sb.append("\\n");
+					default -> sb.append(c);
+				}
+			}
+			sb.append('"');
+		});
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Replace characters not allowed in prometheus metric and label names with underscores
+	 *
+	 * @param name graphite style name, e.g. "server.chunk.loaded"
+	 * @return prometheus style name, e.g. "server_chunk_loaded"
+	 */
+	public static @NotNull String sanitizePrometheusName(@NotNull String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':' ||
+					(c >= '0' && c <= '9' && i > 0);
+			sb.append(valid ? c : '_');
+		}
+		return sb.toString();
+	}
+}
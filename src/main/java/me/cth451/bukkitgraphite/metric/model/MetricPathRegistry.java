@@ -0,0 +1,114 @@
+package me.cth451.bukkitgraphite.metric.model;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry interning metric paths into {@link MetricSeries} handles with dense integer ids.
+ * <p>
+ * Metric groups should intern the paths they report once and keep the handles around, so that scraping and
+ * serializing a series doesn't rebuild or rehash any strings. Lookups are lock-free, only registering a new path
+ * takes a lock.
+ */
+public class MetricPathRegistry {
+	private static final MetricPathRegistry GLOBAL = new MetricPathRegistry();
+
+	private final ConcurrentHashMap<MetricPath, MetricSeries> byPath = new ConcurrentHashMap<>();
+
+	/**
+	 * Handles indexed by id. Replaced (never modified in place beyond the published size) when growing.
+	 */
+	private volatile MetricSeries[] byId = new MetricSeries[64];
+
+	private volatile int size = 0;
+
+	/**
+	 * @return registry shared by all metric groups and updaters of the plugin
+	 */
+	public static @NotNull MetricPathRegistry global() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Look up or register a path
+	 *
+	 * @param path metric path
+	 * @return the unique handle for this path
+	 */
+	public @NotNull MetricSeries intern(@NotNull MetricPath path) {
+		MetricSeries series = byPath.get(path);
+		return series != null ? series : register(path);
+	}
+
+	/**
+	 * Look up or register a path
+	 *
+	 * @param key  metric key without root namespace
+	 * @param tags optional tags. Passing null is equivalent to an empty map.
+	 * @return the unique handle for this path
+	 */
+	public @NotNull MetricSeries intern(@NotNull String key, @Nullable Map<String, String> tags) {
+		return intern(new MetricPath(key, tags));
+	}
+
+	/**
+	 * Look up or register a path without tags
+	 *
+	 * @param key metric key without root namespace
+	 * @return the unique handle for this path
+	 */
+	public @NotNull MetricSeries intern(@NotNull String key) {
+		return intern(new MetricPath(key, null));
+	}
+
+	/**
+	 * Look up a path without registering it
+	 *
+	 * @param path metric path
+	 * @return handle for this path, or null if it hasn't been interned
+	 */
+	public @Nullable MetricSeries find(@NotNull MetricPath path) {
+		return byPath.get(path);
+	}
+
+	private synchronized @NotNull MetricSeries register(@NotNull MetricPath path) {
+		MetricSeries series = byPath.get(path);
+		if (series != null) {
+			return series;
+		}
+		int id = size;
+		MetricSeries[] table = byId;
+		if (id == table.length) {
+			table = Arrays.copyOf(table, table.length * 2);
+		}
+		series = new MetricSeries(id, path);
+		table[id] = series;
+		byId = table;
+		size = id + 1;
+		byPath.put(path, series);
+		return series;
+	}
+
+	/**
+	 * @param id series id
+	 * @return handle registered under that id
+	 * @throws IndexOutOfBoundsException if no series has this id
+	 */
+	public @NotNull MetricSeries get(int id) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("No series with id " + id);
+		}
+		return byId[id];
+	}
+
+	/**
+	 * @return number of series registered, which is also one more than the highest id handed out
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,85 @@
+package me.cth451.bukkitgraphite.metric.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Interned handle for a {@link MetricPath}, obtained from {@link MetricPathRegistry}.
+ * <p>
+ * There is exactly one handle per distinct path in a registry, so handles can be compared by identity or by
+ * {@link #id()}. Serialized forms of the path are computed once when the handle is created.
+ */
+public final class MetricSeries {
+	private final int id;
+	private final MetricPath path;
+	private final int hash;
+	private final byte[] graphite;
+	private final String prometheusName;
+	private final String prometheusLabels;
+
+	MetricSeries(int id, @NotNull MetricPath path) {
+		this.id = id;
+		this.path = path;
+		this.hash = path.hashCode();
+		this.graphite = path.toGraphite().getBytes(StandardCharsets.UTF_8);
+		this.prometheusName = path.toPrometheusName();
+		this.prometheusLabels = path.toPrometheusLabels();
+	}
+
+	/**
+	 * @return dense integer id, unique within the owning registry
+	 */
+	public int id() {
+		return id;
+	}
+
+	public @NotNull MetricPath path() {
+		return path;
+	}
+
+	public @NotNull String key() {
+		return path.key();
+	}
+
+	public @NotNull Map<String, String> tags() {
+		return path.tags();
+	}
+
+	/**
+	 * @return UTF-8 encoded graphite path without root namespace. Callers must not modify the array.
+	 */
+	public byte[] graphite() {
+		return graphite;
+	}
+
+	/**
+	 * @return prometheus metric name without root namespace
+	 */
+	public @NotNull String prometheusName() {
+		return prometheusName;
+	}
+
+	/**
+	 * @return prometheus label set including braces, or an empty string if there are no tags
+	 */
+	public @NotNull String prometheusLabels() {
+		return prometheusLabels;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return this == obj;
+	}
+
+	@Override
+	public String toString() {
+		return path.toGraphite();
+	}
+}
@@ -0,0 +1,153 @@
+package me.cth451.bukkitgraphite.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters describing how well an updater keeps up. Send results and delays are recorded by the manager, while
+ * encoding figures are up to the updater since only it knows where encoding ends and writing starts.
+ */
+public class DeliveryStats {
+	private final LongAdder encodeNanos = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder lines = new LongAdder();
+	private final LongAdder sends = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder droppedShards = new LongAdder();
+	private final LongAdder droppedPoints = new LongAdder();
+	private final LongAdder spooledShards = new LongAdder();
+	private final LongAdder replayedPoints = new LongAdder();
+
+	/**
+	 * Time taken by {@link me.cth451.bukkitgraphite.updater.Updater#sendUpdates(java.util.List)}, in microseconds
+	 */
+	private final Histogram sendLatency = new Histogram();
+
+	/**
+	 * Age of the oldest shard of a successful send, from scrape to the remote accepting it, in milliseconds
+	 */
+	private final Histogram deliveryDelay = new Histogram();
+
+	/**
+	 * Account for encoded output.
+	 *
+	 * @param nanos time spent encoding
+	 * @param bytes bytes produced
+	 * @param lines data points encoded
+	 */
+	public void recordEncoded(long nanos, long bytes, long lines) {
+		this.encodeNanos.add(nanos);
+		this.bytes.add(bytes);
+		this.lines.add(lines);
+	}
+
+	/**
+	 * Account for one call to the updater.
+	 *
+	 * @param elapsedNanos time the call took
+	 * @param success      whether the remote accepted the update
+	 * @param delayMillis  scrape-to-delivery delay of the oldest shard, only recorded on success
+	 */
+	public void recordSend(long elapsedNanos, boolean success, long delayMillis) {
+		sends.increment();
+		sendLatency.record(elapsedNanos / 1000);
+		if (success) {
+			deliveryDelay.record(delayMillis);
+		} else {
+			failures.increment();
+		}
+	}
+
+	/**
+	 * Account for shards this updater will never deliver, e.g. because it was backing off or failed without a spool.
+	 *
+	 * @param shards number of shards lost
+	 */
+	public void recordDropped(int shards) {
+		droppedShards.add(shards);
+	}
+
+	/**
+	 * Account for data points lost after the updater took their shards, e.g. datagrams the socket had no room for.
+	 *
+	 * @param points number of data points lost
+	 */
+	public void recordDroppedPoints(long points) {
+		droppedPoints.add(points);
+	}
+
+	/**
+	 * Account for shards written to the spool for later replay.
+	 *
+	 * @param shards number of shards spooled
+	 */
+	public void recordSpooled(int shards) {
+		spooledShards.add(shards);
+	}
+
+	/**
+	 * Account for spooled data points delivered after the remote recovered.
+	 *
+	 * @param points number of data points replayed
+	 */
+	public void recordReplayed(int points) {
+		replayedPoints.add(points);
+	}
+
+	public long encodeNanos() {
+		return encodeNanos.sum();
+	}
+
+	public long bytes() {
+		return bytes.sum();
+	}
+
+	public long lines() {
+		return lines.sum();
+	}
+
+	public long sends() {
+		return sends.sum();
+	}
+
+	public long failures() {
+		return failures.sum();
+	}
+
+	/**
+	 * @return shards this updater failed to deliver or skipped
+	 */
+	public long droppedShards() {
+		return droppedShards.sum();
+	}
+
+	/**
+	 * @return data points lost after their shards were taken
+	 */
+	public long droppedPoints() {
+		return droppedPoints.sum();
+	}
+
+	public long spooledShards() {
+		return spooledShards.sum();
+	}
+
+	public long replayedPoints() {
+		return replayedPoints.sum();
+	}
+
+	/**
+	 * @param into snapshot receiving send latencies in microseconds recorded since the last call
+	 */
+	public void drainSendLatencyTo(@NotNull Histogram.Snapshot into) {
+		sendLatency.drainTo(into);
+	}
+
+	/**
+	 * @param into snapshot receiving delivery delays in milliseconds recorded since the last call
+	 */
+	public void drainDeliveryDelayTo(@NotNull Histogram.Snapshot into) {
+		deliveryDelay.drainTo(into);
+	}
+}
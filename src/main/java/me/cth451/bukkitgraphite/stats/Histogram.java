@@ -0,0 +1,122 @@
+package me.cth451.bukkitgraphite.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory, lock-free histogram of non-negative long values.
+ * <p>
+ * Values are counted in log-linear buckets: every power of two is split into {@value #SUB_BUCKETS} equal sub-buckets,
+ * so any recorded value is reported with a relative error of at most 12.5%. All buckets are allocated up front and
+ * recording is a couple of atomic increments, so it is cheap enough for hot paths. Readers periodically move the
+ * counts into a {@link Snapshot} they own, which resets the histogram for the next interval.
+ */
+public class Histogram {
+	private static final int SUB_BITS = 3;
+	public static final int SUB_BUCKETS = 1 << SUB_BITS;
+	public static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong max = new AtomicLong(0);
+
+	/**
+	 * @param value non-negative value
+	 * @return bucket index of the value
+	 */
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) Math.max(0, value);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @param bucket bucket index
+	 * @return largest value falling into the bucket
+	 */
+	static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+		return lower + (1L << (exponent - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Count one value. Negative values are counted as zero.
+	 *
+	 * @param value value to record
+	 */
+	public void record(long value) {
+		counts.incrementAndGet(bucketOf(value));
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Move all counts recorded so far into a snapshot, replacing its previous content, and start a new interval.
+	 *
+	 * @param into snapshot to fill
+	 */
+	public void drainTo(@NotNull Snapshot into) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			long c = counts.getAndSet(i, 0);
+			into.counts[i] = c;
+			total += c;
+		}
+		into.total = total;
+		into.max = max.getAndSet(0);
+	}
+
+	/**
+	 * Counts of one histogram interval. Snapshots are reused across intervals and are not thread safe.
+	 */
+	public static class Snapshot {
+		private final long[] counts = new long[BUCKETS];
+		private long total = 0;
+		private long max = 0;
+
+		/**
+		 * @return number of values recorded in the interval
+		 */
+		public long count() {
+			return total;
+		}
+
+		/**
+		 * @return largest value recorded in the interval, or 0 if nothing was recorded
+		 */
+		public long max() {
+			return max;
+		}
+
+		/**
+		 * @param quantile fraction between 0 and 1, e.g. 0.99
+		 * @return upper bound of the bucket holding the requested quantile (capped at the maximum), or 0 if nothing
+		 * was recorded
+		 */
+		public long percentile(double quantile) {
+			if (total == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(quantile * total);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= Math.max(1, rank)) {
+					return Math.min(upperBoundOf(i), max);
+				}
+			}
+			return max;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package me.cth451.bukkitgraphite.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time a metric group spends scraping, kept by the manager and reported by the pipeline metric group
+ */
+public class ScrapeStats {
+	private final LongAdder nanos = new LongAdder();
+	private final LongAdder scrapes = new LongAdder();
+	private final Histogram duration = new Histogram();
+
+	/**
+	 * Time spent on the scrape in progress so far. Steps of one scrape all run on the same thread.
+	 */
+	private long pendingNanos = 0;
+
+	/**
+	 * Account for one scrape step.
+	 *
+	 * @param elapsedNanos time spent in this step
+	 * @param complete     whether this step completed the scrape
+	 */
+	public void recordStep(long elapsedNanos, boolean complete) {
+		nanos.add(elapsedNanos);
+		pendingNanos += elapsedNanos;
+		if (complete) {
+			scrapes.increment();
+			duration.record(pendingNanos);
+			pendingNanos = 0;
+		}
+	}
+
+	/**
+	 * @return nanoseconds spent scraping since the group was registered
+	 */
+	public long totalNanos() {
+		return nanos.sum();
+	}
+
+	/**
+	 * @return number of completed scrapes since the group was registered
+	 */
+	public long scrapes() {
+		return scrapes.sum();
+	}
+
+	/**
+	 * Move the duration of scrapes completed since the last call, in nanoseconds, into a snapshot.
+	 *
+	 * @param into snapshot to fill
+	 */
+	public void drainDurationTo(@NotNull Histogram.Snapshot into) {
+		duration.drainTo(into);
+	}
+}
@@ -0,0 +1,115 @@
+package me.cth451.bukkitgraphite.updater;
+
+/**
+ * Per-updater circuit breaker with exponential backoff.
+ * <p>
+ * The breaker starts closed and lets every request through. Once a request fails the breaker opens and rejects all
+ * requests until the current backoff delay has passed, after which exactly one trial request is let through
+ * (half-open). A successful trial closes the breaker again, a failed one doubles the delay up to a maximum.
+ */
+public class CircuitBreaker {
+	public enum State {
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+
+	/**
+	 * Delay after the first failure
+	 */
+	private final long initialBackoffNanos;
+
+	/**
+	 * Upper bound for the delay between trial requests
+	 */
+	private final long maxBackoffNanos;
+
+	private State state = State.CLOSED;
+
+	/**
+	 * Delay applied the next time the breaker opens
+	 */
+	private long backoffNanos;
+
+	/**
+	 * Point in time (System.nanoTime) after which a trial request is allowed
+	 */
+	private long retryAtNanos = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param initialBackoffMillis delay after the first failure in milliseconds
+	 * @param maxBackoffMillis     upper bound for the backoff delay in milliseconds
+	 */
+	public CircuitBreaker(long initialBackoffMillis, long maxBackoffMillis) {
+		this.initialBackoffNanos = Math.max(1, initialBackoffMillis) * 1_000_000L;
+		this.maxBackoffNanos = Math.max(initialBackoffMillis, maxBackoffMillis) * 1_000_000L;
+		this.backoffNanos = this.initialBackoffNanos;
+	}
+
+	/**
+	 * Check whether a request would be let through right now, without changing any state. Use
+	 * {@link #allowRequest()} when actually about to make the request.
+	 *
+	 * @return true if the breaker is closed or its backoff has expired
+	 */
+	public synchronized boolean isRequestAllowed() {
+		return switch (state) {
+			case CLOSED -> true;
+			case OPEN -> System.nanoTime() - retryAtNanos >= 0;
+			case HALF_OPEN -> false;
+		};
+	}
+
+	/**
+	 * Claim the right to make a request now. Calling this on an open breaker whose backoff has expired moves it to
+	 * half-open and admits the caller as the single trial request, so only call it right before the request.
+	 *
+	 * @return true if the caller may go ahead with the request
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				if (System.nanoTime() - retryAtNanos >= 0) {
+					state = State.HALF_OPEN;
+					return true;
+				}
+				return false;
+			default:
+				/* A trial request is already in flight */
+				return false;
+		}
+	}
+
+	/**
+	 * Record a successful request and close the breaker.
+	 *
+	 * @return true if this closed a previously open breaker
+	 */
+	public synchronized boolean recordSuccess() {
+		boolean recovered = state != State.CLOSED;
+		state = State.CLOSED;
+		backoffNanos = initialBackoffNanos;
+		return recovered;
+	}
+
+	/**
+	 * Record a failed request and open the breaker for the current backoff delay.
+	 *
+	 * @return true if this opened a previously closed breaker
+	 */
+	public synchronized boolean recordFailure() {
+		boolean tripped = state == State.CLOSED;
+		state = State.OPEN;
+		retryAtNanos = System.nanoTime() + backoffNanos;
+		backoffNanos = Math.min(backoffNanos * 2, maxBackoffNanos);
+		return tripped;
+	}
+
+	public synchronized State state() {
+		return state;
+	}
+}
@@ -0,0 +1,148 @@
+package me.cth451.bukkitgraphite.updater;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Consistent hash ring placing metric paths on the same nodes as carbon-relay's consistent-hashing router.
+ * <p>
+ * Like carbon's ConsistentHashRing with the default carbon_ch hash, every node is placed on the ring a number of times
+ * (100 by default), at the first four hex digits of the MD5 digest of "(server, instance):i" as Python prints the
+ * tuple. A position already taken is bumped up by one until it is free. A metric path hashed the same way lands on
+ * the first entry at or after its position, and replicas go to the following distinct nodes in ring order. As long
+ * as nodes are listed in the same order as in the relay's DESTINATIONS, both pick the same nodes for a path.
+ *
+ * @see <a href="https://github.com/graphite-project/carbon/blob/master/lib/carbon/hashing.py">carbon hashing.py</a>
+ */
+public class ConsistentHashRing {
+	public static final int DEFAULT_REPLICAS = 100;
+
+	/**
+	 * Node of the ring. The port is not part of the ring key, as in carbon.
+	 *
+	 * @param server   host name or address, as written in the relay's DESTINATIONS
+	 * @param instance carbon instance name - null if none
+	 */
+	public record Node(@NotNull String server, @Nullable String instance) {
+		/**
+		 * @return Python repr() of the (server, instance) tuple, which carbon hashes
+		 */
+		@NotNull String ringKey() {
+			return "(" + pythonRepr(server) + ", " + (instance == null ? "None" : pythonRepr(instance)) + ")";
+		}
+	}
+
+	private final List<Node> nodes;
+
+	/**
+	 * Ring entries sorted by position - the node at entry i is owners[i], an index into nodes
+	 */
+	private final int[] positions;
+	private final int[] owners;
+
+	/**
+	 * Constructor
+	 *
+	 * @param nodes    distinct nodes, in the order carbon-relay lists them
+	 * @param replicas number of ring entries per node
+	 */
+	public ConsistentHashRing(@NotNull List<Node> nodes, int replicas) {
+		if (nodes.isEmpty() || new HashSet<>(nodes).size() != nodes.size()) {
+			throw new IllegalArgumentException("Ring nodes must be distinct and not empty");
+		}
+		this.nodes = List.copyOf(nodes);
+		int entries = nodes.size() * replicas;
+		long[] ring = new long[entries];
+		HashSet<Integer> taken = new HashSet<>();
+		int n = 0;
+		for (int node = 0; node < nodes.size(); node++) {
+			String key = nodes.get(node).ringKey();
+			for (int i = 0; i < replicas; i++) {
+				int position = position(key + ":" + i);
+				while (!taken.add(position)) {
+					position++;
+				}
+				ring[n++] = ((long) position << 32) | node;
+			}
+		}
+		Arrays.sort(ring);
+		this.positions = new int[entries];
+		this.owners = new int[entries];
+		for (int i = 0; i < entries; i++) {
+			positions[i] = (int) (ring[i] >>> 32);
+			owners[i] = (int) ring[i];
+		}
+	}
+
+	/**
+	 * @param key string to hash
+	 * @return ring position of the key, the first 16 bits of its MD5 digest
+	 */
+	public static int position(@NotNull String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+			return ((digest[0] & 0xff) << 8) | (digest[1] & 0xff);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is required on every Java platform", e);
+		}
+	}
+
+	/**
+	 * @return nodes of the ring, indexed as in the results of {@link #preferenceOrder(String)}
+	 */
+	public @NotNull List<Node> nodes() {
+		return nodes;
+	}
+
+	/**
+	 * Find the nodes a metric path belongs on. The first node is the primary, the following ones receive replicas,
+	 * and further nodes take over for nodes that are down.
+	 *
+	 * @param key metric path as sent to carbon
+	 * @return node indexes in the order carbon's get_nodes() yields them
+	 */
+	public int @NotNull [] preferenceOrder(@NotNull String key) {
+		int start = Arrays.binarySearch(positions, position(key));
+		if (start < 0) {
+			start = -start - 1;
+		}
+		start %= positions.length;
+		int[] order = new int[nodes.size()];
+		if (nodes.size() == 1) {
+			return order;
+		}
+		boolean[] seen = new boolean[nodes.size()];
+		int found = 0;
+		/* Like carbon, the entry just before the start is never looked at */
+		int last = (start + positions.length - 1) % positions.length;
+		for (int i = start; found < order.length && i != last; i = (i + 1) % positions.length) {
+			if (!seen[owners[i]]) {
+				seen[owners[i]] = true;
+				order[found++] = owners[i];
+			}
+		}
+		return found == order.length ? order : Arrays.copyOf(order, found);
+	}
+
+	/**
+	 * Quote a string the way Python's repr() does for plain text
+	 */
+	private static @NotNull String pythonRepr(@NotNull String s) {
+		char quote = s.indexOf('\'') >= 0 && s.indexOf('"') < 0 ? '"' : '\'';
+		StringBuilder sb = new StringBuilder(s.length() + 2).append(quote);
+		for (char c : s.toCharArray()) {
+			if (c == '\\' || c == quote) {
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
+		return sb.append(quote).toString();
+	}
+}
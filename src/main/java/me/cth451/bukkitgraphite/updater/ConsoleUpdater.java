@@ -1,11 +1,11 @@
 package me.cth451.bukkitgraphite.updater;
 
 import me.cth451.bukkitgraphite.PluginMain;
-import me.cth451.bukkitgraphite.metric.model.MetricEntry;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
 import org.bukkit.configuration.ConfigurationSection;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Collection;
+import java.util.List;
 
 /**
  * Scrape and dump serialized stats to console
@@ -18,8 +18,12 @@ public class ConsoleUpdater extends Updater {
 	}
 
 	@Override
-	public boolean sendUpdates(@NotNull Collection<MetricEntry> entries) {
-		entries.forEach(e -> plugin.getLogger().info(e.toString()));
+	public boolean sendUpdates(@NotNull List<MetricBatch> batches) {
+		for (MetricBatch batch : batches) {
+			for (int i = 0; i < batch.size(); i++) {
+				plugin.getLogger().info(batch.entry(i).toString());
+			}
+		}
 		return true;
 	}
 
@@ -29,7 +33,7 @@ public class ConsoleUpdater extends Updater {
 	}
 
 	@Override
-	public @NotNull String id() {
+	public @NotNull String type() {
 		return ID;
 	}
 
@@ -0,0 +1,131 @@
+package me.cth451.bukkitgraphite.updater;
+
+import me.cth451.bukkitgraphite.encoding.MetricEncoder;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.stats.DeliveryStats;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+
+/**
+ * Fire-and-forget UDP sender packing as many encoded lines as fit under the MTU into each datagram.
+ * <p>
+ * A single connected, non-blocking channel and a direct buffer of one datagram are reused for the lifetime of the
+ * packer. Lines are never split across datagrams. If the kernel has no room for a datagram it is dropped rather than
+ * waited on, so sending never blocks the calling thread. Dropped datagrams and lines too large for one are counted as
+ * dropped points in the delivery stats.
+ */
+class DatagramPacker implements Closeable {
+	/**
+	 * Payload size fitting a 1500 byte Ethernet frame with IP and UDP headers and some slack for tunnels
+	 */
+	public static final int DEFAULT_MTU = 1432;
+
+	private final DatagramChannel channel;
+	private final ByteBuffer buffer;
+
+	/**
+	 * Lines in the buffered datagram
+	 */
+	private int buffered = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param address remote address
+	 * @param mtu     maximum payload size of one datagram
+	 * @throws IOException if the address cannot be resolved or the socket cannot be opened
+	 */
+	DatagramPacker(@NotNull SocketAddress address, int mtu) throws IOException {
+		if (address instanceof InetSocketAddress inet && inet.isUnresolved()) {
+			throw new IOException("Cannot resolve " + inet.getHostString());
+		}
+		this.channel = DatagramChannel.open();
+		try {
+			channel.configureBlocking(false);
+			channel.connect(address);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		this.buffer = ByteBuffer.allocateDirect(mtu);
+	}
+
+	/**
+	 * Encode data points and send them in as few datagrams as possible. Points too large for a datagram on their own
+	 * are skipped. As sending doesn't wait, the whole call is accounted as encoding time.
+	 *
+	 * @param batches batches to send, in order
+	 * @param encoder encoder for the wire format - must not use frame headers
+	 * @param stats   receives time taken, bytes and data points sent, and data points dropped
+	 * @throws IOException if the remote reported an error, e.g. port unreachable
+	 */
+	void send(@NotNull List<MetricBatch> batches, @NotNull MetricEncoder encoder, @NotNull DeliveryStats stats)
+			throws IOException {
+		long start = System.nanoTime();
+		long lines = 0;
+		long bytes = 0;
+		buffer.clear();
+		buffered = 0;
+		try {
+			for (MetricBatch batch : batches) {
+				for (int i = 0; i < batch.size(); i++) {
+					if (encoder.encode(batch, i, buffer)) {
+						buffered++;
+						continue;
+					}
+					/* Datagram is full - send it and start the next one */
+					if (buffer.position() > 0) {
+						lines += buffered;
+						bytes += flush(stats);
+					}
+					if (encoder.encode(batch, i, buffer)) {
+						buffered++;
+					} else {
+						stats.recordDroppedPoints(1);
+					}
+				}
+			}
+			if (buffer.position() > 0) {
+				lines += buffered;
+				bytes += flush(stats);
+			}
+		} finally {
+			stats.recordEncoded(System.nanoTime() - start, bytes, lines);
+		}
+	}
+
+	/**
+	 * Send the buffered datagram, or drop it if the socket buffer is full
+	 *
+	 * @param stats receives the lines of a dropped datagram
+	 * @return bytes sent
+	 */
+	private int flush(@NotNull DeliveryStats stats) throws IOException {
+		buffer.flip();
+		try {
+			int sent = channel.write(buffer);
+			if (sent == 0) {
+				stats.recordDroppedPoints(buffered);
+			}
+			return sent;
+		} finally {
+			buffer.clear();
+			buffered = 0;
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException ignored) {
+		}
+	}
+}
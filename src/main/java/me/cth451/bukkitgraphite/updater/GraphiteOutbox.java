@@ -0,0 +1,381 @@
+package me.cth451.bukkitgraphite.updater;
+
+import me.cth451.bukkitgraphite.encoding.EncodedPayload;
+import me.cth451.bukkitgraphite.encoding.MetricEncoder;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.stats.DeliveryStats;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Data on its way to carbon over a stream connection, kept until it has been written out.
+ * <p>
+ * Items are either batches encoded on the fly into the send buffer, or payloads encoded once and shared with other
+ * updaters. Progress is tracked down to the data point: when a write fails partway, everything up to the last complete
+ * line (plaintext) or frame (pickle) counts as delivered, since carbon throws away an incomplete one when the
+ * connection goes away. The next {@link #drain} resumes right after it, so carbon never receives a data point twice.
+ * Not thread safe.
+ */
+class GraphiteOutbox {
+	private static abstract class Item {
+		/**
+		 * @return whether any of this item has been written
+		 */
+		abstract boolean started();
+
+		/**
+		 * @return whether all of this item has been written
+		 */
+		abstract boolean done();
+
+		abstract void release();
+	}
+
+	/**
+	 * Batch encoded into the send buffer
+	 */
+	private static final class Points extends Item {
+		final MetricBatch batch;
+
+		/**
+		 * First data point not written yet
+		 */
+		int next = 0;
+
+		Points(MetricBatch batch) {
+			this.batch = batch;
+		}
+
+		@Override
+		boolean started() {
+			return next > 0;
+		}
+
+		@Override
+		boolean done() {
+			return next >= batch.size();
+		}
+
+		@Override
+		void release() {
+			batch.release();
+		}
+	}
+
+	/**
+	 * Shared payload, written through views of its frames
+	 */
+	private static final class Frames extends Item {
+		final EncodedPayload payload;
+		final ByteBuffer[] frames;
+
+		Frames(EncodedPayload payload) {
+			this.payload = payload;
+			List<ByteBuffer> views = new ArrayList<>(payload.frameCount());
+			payload.framesTo(views);
+			this.frames = views.toArray(ByteBuffer[]::new);
+		}
+
+		@Override
+		boolean started() {
+			return frames.length > 0 && frames[0].position() > 0;
+		}
+
+		@Override
+		boolean done() {
+			return frames.length == 0 || !frames[frames.length - 1].hasRemaining();
+		}
+
+		/**
+		 * Move back to the end of the last complete line or frame after a failed write
+		 *
+		 * @param lineFramed whether lines can be resumed individually
+		 */
+		void rewind(boolean lineFramed) {
+			for (ByteBuffer frame : frames) {
+				int p = frame.position();
+				if (p == 0 || p == frame.limit()) {
+					continue;
+				}
+				if (lineFramed) {
+					while (p > 0 && frame.get(p - 1) != '\n') {
+						p--;
+					}
+					frame.position(p);
+				} else {
+					frame.position(0);
+				}
+			}
+		}
+
+		@Override
+		void release() {
+			payload.release();
+		}
+	}
+
+	private final ArrayDeque<Item> items = new ArrayDeque<>();
+
+	private final MetricEncoder encoder;
+
+	/**
+	 * Whether the format is made of lines that carbon takes one by one, rather than of frames
+	 */
+	private final boolean lineFramed;
+
+	private final ByteBuffer sendBuffer;
+
+	/* Data points currently in the send buffer: owner, index within the batch and end offset in the buffer */
+	private Points[] bufferedOwner = new Points[256];
+	private int[] bufferedIndex = new int[256];
+	private int[] bufferedEnd = new int[256];
+	private int buffered = 0;
+
+	/* Figures of the drain in progress */
+	private long encodeNanos;
+	private long bytes;
+	private long lines;
+
+	/**
+	 * Data points too large for the send buffer, not yet reported
+	 */
+	private int skipped = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param encoder    wire format
+	 * @param lineFramed whether the format is line based, so that writes can be resumed at line boundaries
+	 * @param sendBuffer buffer data points are encoded into, whose capacity bounds the frame size
+	 */
+	GraphiteOutbox(@NotNull MetricEncoder encoder, boolean lineFramed, @NotNull ByteBuffer sendBuffer) {
+		this.encoder = encoder;
+		this.lineFramed = lineFramed;
+		this.sendBuffer = sendBuffer;
+	}
+
+	/**
+	 * Queue a batch to be encoded into the send buffer. The outbox takes over the caller's reference.
+	 */
+	void addPoints(@NotNull MetricBatch batch) {
+		items.addLast(new Points(batch));
+	}
+
+	/**
+	 * Queue an encoded payload. The outbox takes over the caller's reference.
+	 */
+	void addFrames(@NotNull EncodedPayload payload) {
+		items.addLast(new Frames(payload));
+	}
+
+	boolean isEmpty() {
+		return items.isEmpty();
+	}
+
+	/**
+	 * Write out everything queued, oldest first. On failure the outbox keeps whatever carbon hasn't received.
+	 *
+	 * @param channel       connection to carbon
+	 * @param timeoutMillis maximum time for each write
+	 * @param stats         receives encoding time and the amount of data written
+	 * @throws IOException if a write failed
+	 */
+	void drain(@NotNull TimedChannel channel, long timeoutMillis, @NotNull DeliveryStats stats) throws IOException {
+		encodeNanos = 0;
+		bytes = 0;
+		lines = 0;
+		try {
+			while (!items.isEmpty()) {
+				if (items.peekFirst() instanceof Frames) {
+					writeFrames(channel, timeoutMillis);
+				} else {
+					writePoints(channel, timeoutMillis);
+				}
+			}
+		} finally {
+			stats.recordEncoded(encodeNanos, bytes, lines);
+		}
+	}
+
+	/**
+	 * After a failed {@link #drain}, give up on the most recently queued items unless some of their data already went
+	 * out. Started items have to be kept so that their remainder can be resumed.
+	 *
+	 * @param fresh number of items queued for the failed update
+	 * @return true if the items are kept for the next drain, false if they were dropped
+	 */
+	boolean keepIfStarted(int fresh) {
+		if (fresh == 0) {
+			return false;
+		}
+		if (items.size() < fresh) {
+			/* Some of them were written completely */
+			return true;
+		}
+		Iterator<Item> it = items.descendingIterator();
+		Item oldest = null;
+		for (int i = 0; i < fresh; i++) {
+			oldest = it.next();
+		}
+		if (oldest.started()) {
+			return true;
+		}
+		for (int i = 0; i < fresh; i++) {
+			items.pollLast().release();
+		}
+		return false;
+	}
+
+	/**
+	 * @return number of data points dropped for being too large since the last call
+	 */
+	int takeSkipped() {
+		int n = skipped;
+		skipped = 0;
+		return n;
+	}
+
+	/**
+	 * Drop everything queued
+	 */
+	void clear() {
+		while (!items.isEmpty()) {
+			items.pollFirst().release();
+		}
+	}
+
+	/**
+	 * Encode the batches at the head of the queue into the send buffer, writing it out whenever it is full
+	 */
+	private void writePoints(@NotNull TimedChannel channel, long timeoutMillis) throws IOException {
+		sendBuffer.clear();
+		encoder.beginFrame(sendBuffer);
+		buffered = 0;
+		long mark = System.nanoTime();
+		try {
+			for (Item item : items) {
+				if (!(item instanceof Points points)) {
+					break;
+				}
+				MetricBatch batch = points.batch;
+				for (int i = points.next; i < batch.size(); i++) {
+					if (!encoder.encode(batch, i, sendBuffer)) {
+						/* Buffer is full - send what we have and start over */
+						if (buffered > 0) {
+							encodeNanos += System.nanoTime() - mark;
+							flush(channel, timeoutMillis);
+							mark = System.nanoTime();
+						}
+						if (!encoder.encode(batch, i, sendBuffer)) {
+							/* Nothing else is waiting in the buffer, so everything before this point is written */
+							skipped++;
+							points.next = i + 1;
+							continue;
+						}
+					}
+					track(points, i);
+				}
+			}
+			encodeNanos += System.nanoTime() - mark;
+			if (buffered > 0) {
+				flush(channel, timeoutMillis);
+			}
+		} finally {
+			while (!items.isEmpty() && items.peekFirst() instanceof Points points && points.done()) {
+				items.pollFirst().release();
+			}
+		}
+	}
+
+	private void track(@NotNull Points owner, int index) {
+		if (buffered == bufferedOwner.length) {
+			bufferedOwner = Arrays.copyOf(bufferedOwner, buffered * 2);
+			bufferedIndex = Arrays.copyOf(bufferedIndex, buffered * 2);
+			bufferedEnd = Arrays.copyOf(bufferedEnd, buffered * 2);
+		}
+		bufferedOwner[buffered] = owner;
+		bufferedIndex[buffered] = index;
+		bufferedEnd[buffered] = sendBuffer.position();
+		buffered++;
+	}
+
+	/**
+	 * Close the frame in the send buffer, write it out and open the next one. If the write fails, the data points
+	 * written completely are still marked as done.
+	 */
+	private void flush(@NotNull TimedChannel channel, long timeoutMillis) throws IOException {
+		encoder.endFrame(sendBuffer);
+		sendBuffer.flip();
+		int length = sendBuffer.remaining();
+		int complete = buffered;
+		try {
+			channel.write(sendBuffer, timeoutMillis);
+		} catch (IOException e) {
+			complete = lineFramed ? completeLines(sendBuffer.position()) : 0;
+			throw e;
+		} finally {
+			for (int j = 0; j < complete; j++) {
+				bufferedOwner[j].next = bufferedIndex[j] + 1;
+				bufferedOwner[j] = null;
+			}
+			lines += complete;
+			bytes += complete == buffered ? length : (complete == 0 ? 0 : bufferedEnd[complete - 1]);
+			buffered = 0;
+		}
+		sendBuffer.clear();
+		encoder.beginFrame(sendBuffer);
+	}
+
+	/**
+	 * @param written number of bytes of the send buffer that went out
+	 * @return number of buffered data points whose line went out completely
+	 */
+	private int completeLines(int written) {
+		int n = 0;
+		while (n < buffered && bufferedEnd[n] <= written) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Write out the payloads at the head of the queue in one go
+	 */
+	private void writeFrames(@NotNull TimedChannel channel, long timeoutMillis) throws IOException {
+		List<ByteBuffer> gather = new ArrayList<>();
+		for (Item item : items) {
+			if (!(item instanceof Frames frames)) {
+				break;
+			}
+			for (ByteBuffer frame : frames.frames) {
+				if (frame.hasRemaining()) {
+					gather.add(frame);
+				}
+			}
+		}
+		try {
+			channel.write(gather.toArray(ByteBuffer[]::new), timeoutMillis);
+		} catch (IOException e) {
+			for (Item item : items) {
+				if (!(item instanceof Frames frames)) {
+					break;
+				}
+				frames.rewind(lineFramed);
+			}
+			throw e;
+		} finally {
+			while (!items.isEmpty() && items.peekFirst() instanceof Frames frames && frames.done()) {
+				lines += frames.payload.points();
+				bytes += frames.payload.bytes();
+				items.pollFirst().release();
+			}
+		}
+	}
+}
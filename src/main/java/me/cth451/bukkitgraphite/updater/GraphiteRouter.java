@@ -0,0 +1,379 @@
+package me.cth451.bukkitgraphite.updater;
+
+import me.cth451.bukkitgraphite.encoding.MetricEncoder;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.stats.DeliveryStats;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Spreads data points over several carbon nodes the way carbon-relay's consistent-hashing router does.
+ * <p>
+ * Each metric path goes to the first nodes of its {@link ConsistentHashRing} preference order, as many as the
+ * replication factor asks for. Every node has a connection, an encoder and a send buffer of its own, plus a
+ * {@link CircuitBreaker} tracking its health. A node whose write fails is marked down and the points it didn't
+ * take are handed to the next healthy node in ring order, as is all traffic for it until it comes back. Nodes that are
+ * down are probed with a connection attempt whenever their backoff expires.
+ */
+class GraphiteRouter {
+	/**
+	 * Carbon node and the port to send to
+	 *
+	 * @param node ring node
+	 * @param port TCP port
+	 */
+	record Target(@NotNull ConsistentHashRing.Node node, int port) {
+		/**
+		 * Parse a destination in carbon's DESTINATIONS notation
+		 *
+		 * @param spec host:port or host:port:instance
+		 * @return target
+		 * @throws IllegalArgumentException if the destination is malformed
+		 */
+		static @NotNull Target parse(@NotNull String spec) {
+			String[] parts = spec.split(":");
+			if (parts.length < 2 || parts.length > 3 || parts[0].isEmpty()) {
+				throw new IllegalArgumentException("Expected host:port[:instance], got " + spec);
+			}
+			int port = Integer.parseInt(parts[1]);
+			if (port <= 0 || port >= 65536) {
+				throw new IllegalArgumentException("Invalid port in " + spec);
+			}
+			return new Target(new ConsistentHashRing.Node(parts[0], parts.length == 3 ? parts[2] : null), port);
+		}
+
+		@Override
+		public String toString() {
+			return node.server() + ":" + port + (node.instance() == null ? "" : ":" + node.instance());
+		}
+	}
+
+	/**
+	 * One carbon node with its connection and the points routed to it
+	 */
+	private static final class Destination {
+		final Target target;
+		final CircuitBreaker health;
+		final MetricEncoder encoder;
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(GraphiteUpdater.SEND_BUFFER_SIZE);
+
+		TimedChannel channel = null;
+
+		/**
+		 * Points routed here in this update, packed as batch index and point index
+		 */
+		long[] points = new long[256];
+		int pointCount = 0;
+
+		/**
+		 * Number of routed points written so far
+		 */
+		int written = 0;
+
+		Destination(Target target, CircuitBreaker health, MetricEncoder encoder) {
+			this.target = target;
+			this.health = health;
+			this.encoder = encoder;
+		}
+
+		boolean isHealthy() {
+			return health.state() == CircuitBreaker.State.CLOSED;
+		}
+
+		void route(long point) {
+			if (pointCount == points.length) {
+				points = Arrays.copyOf(points, pointCount * 2);
+			}
+			points[pointCount++] = point;
+		}
+
+		void closeChannel() {
+			if (channel != null) {
+				channel.close();
+				channel = null;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return target.toString();
+		}
+	}
+
+	private final ConsistentHashRing ring;
+	private final Destination[] destinations;
+	private final int replication;
+	private final byte[] prefix;
+	private final long connectTimeoutMillis;
+	private final long writeTimeoutMillis;
+	private final long idleTimeoutMillis;
+	private final Logger logger;
+
+	/**
+	 * Preference order of each series by series id - null where not computed yet
+	 */
+	private int[][] preference = new int[0][];
+
+	/**
+	 * Constructor
+	 *
+	 * @param targets        carbon nodes, in the order carbon-relay lists them
+	 * @param replication    number of nodes each data point is sent to
+	 * @param namespace      root namespace, which is part of the hashed metric path - null or empty for none
+	 * @param encoders       creates one encoder per node
+	 * @param breakers       creates one health tracker per node
+	 * @param connectTimeout maximum time to establish a connection in milliseconds
+	 * @param writeTimeout   maximum time for a node to accept one buffer in milliseconds
+	 * @param idleTimeout    reconnect before writing if a connection has been unused for this long
+	 * @param logger         receives messages about nodes going down or coming back
+	 * @throws IllegalArgumentException if a node is listed twice
+	 */
+	GraphiteRouter(@NotNull List<Target> targets, int replication, @Nullable String namespace,
+	               @NotNull Supplier<MetricEncoder> encoders, @NotNull Supplier<CircuitBreaker> breakers,
+	               long connectTimeout, long writeTimeout, long idleTimeout, @NotNull Logger logger) {
+		this.ring = new ConsistentHashRing(targets.stream().map(Target::node).toList(),
+		                                   ConsistentHashRing.DEFAULT_REPLICAS);
+		this.destinations = targets.stream()
+		                           .map(t -> new Destination(t, breakers.get(), encoders.get()))
+		                           .toArray(Destination[]::new);
+		this.replication = Math.max(1, Math.min(replication, targets.size()));
+		this.prefix = (namespace == null || namespace.isEmpty()) ?
+				new byte[0] : (namespace + ".").getBytes(StandardCharsets.UTF_8);
+		this.connectTimeoutMillis = connectTimeout;
+		this.writeTimeoutMillis = writeTimeout;
+		this.idleTimeoutMillis = idleTimeout;
+		this.logger = logger;
+	}
+
+	private int @NotNull [] preferenceOf(@NotNull MetricBatch batch, int index) {
+		int id = batch.seriesId(index);
+		if (id >= preference.length) {
+			preference = Arrays.copyOf(preference, Math.max(id + 1, preference.length * 2));
+		}
+		if (preference[id] == null) {
+			byte[] path = batch.series(index).graphite();
+			byte[] key = Arrays.copyOf(prefix, prefix.length + path.length);
+			System.arraycopy(path, 0, key, prefix.length, path.length);
+			preference[id] = ring.preferenceOrder(new String(key, StandardCharsets.UTF_8));
+		}
+		return preference[id];
+	}
+
+	/**
+	 * Find the rank-th healthy node in a preference order
+	 *
+	 * @return destination index, or -1 if there are not enough healthy nodes
+	 */
+	private int healthyAt(int @NotNull [] order, int rank) {
+		for (int d : order) {
+			if (destinations[d].isHealthy() && rank-- == 0) {
+				return d;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Try to reconnect to nodes that are down and whose backoff has expired
+	 */
+	private void probe() {
+		for (Destination d : destinations) {
+			if (d.isHealthy() || !d.health.allowRequest()) {
+				continue;
+			}
+			try {
+				ensureConnected(d);
+				d.health.recordSuccess();
+				logger.info("Graphite node " + d + " is back");
+			} catch (IOException e) {
+				d.closeChannel();
+				d.health.recordFailure();
+			}
+		}
+	}
+
+	private @NotNull TimedChannel ensureConnected(@NotNull Destination d) throws IOException {
+		if (d.channel != null && (!d.channel.isOpen() || d.channel.idleLongerThan(idleTimeoutMillis))) {
+			d.closeChannel();
+		}
+		if (d.channel == null) {
+			d.channel = TimedChannel.connect(new InetSocketAddress(d.target.node().server(), d.target.port()),
+			                                 connectTimeoutMillis);
+		}
+		return d.channel;
+	}
+
+	/**
+	 * Send data points to their nodes
+	 *
+	 * @param batches batches to send
+	 * @param stats   receives encoding figures
+	 * @return false if some data point could not be delivered to any node
+	 */
+	boolean send(@NotNull List<MetricBatch> batches, @NotNull DeliveryStats stats) {
+		probe();
+		for (Destination d : destinations) {
+			d.pointCount = 0;
+			d.written = 0;
+		}
+		boolean complete = true;
+		for (int b = 0; b < batches.size(); b++) {
+			MetricBatch batch = batches.get(b);
+			for (int i = 0; i < batch.size(); i++) {
+				int[] order = preferenceOf(batch, i);
+				long point = ((long) b << 32) | i;
+				for (int r = 0; r < replication; r++) {
+					int d = healthyAt(order, r);
+					if (d < 0) {
+						complete &= r > 0;
+						break;
+					}
+					destinations[d].route(point);
+				}
+			}
+		}
+
+		/* Write until every healthy node took its points. Points of failed nodes move on to other nodes. */
+		boolean progress = true;
+		while (progress) {
+			progress = false;
+			for (Destination d : destinations) {
+				if (!d.isHealthy() || d.written == d.pointCount) {
+					continue;
+				}
+				progress = true;
+				if (!write(d, batches, stats)) {
+					complete &= reroute(d, batches);
+				}
+			}
+		}
+		return complete && Arrays.stream(destinations).anyMatch(Destination::isHealthy);
+	}
+
+	/**
+	 * Encode and write the points routed to a node. On failure the node is marked down and d.written tells how many
+	 * points were written for sure.
+	 *
+	 * @return whether all points were written
+	 */
+	private boolean write(@NotNull Destination d, @NotNull List<MetricBatch> batches,
+	                      @NotNull DeliveryStats stats) {
+		/* A connection reused from a previous update might have been dropped by the remote - retry once on a new one */
+		boolean retry = d.channel != null;
+		ByteBuffer buf = d.buffer;
+		buf.clear();
+		d.encoder.beginFrame(buf);
+		int framed = 0;
+		/* Encoding is timed in between flushes, so that time spent waiting on the socket is not counted */
+		long lines = 0;
+		long bytes = 0;
+		long encodeNanos = 0;
+		long encodeStart = System.nanoTime();
+		try {
+			for (int p = d.written; p < d.pointCount; p++) {
+				MetricBatch batch = batches.get((int) (d.points[p] >>> 32));
+				int index = (int) d.points[p];
+				if (d.encoder.encode(batch, index, buf)) {
+					framed++;
+					continue;
+				}
+				/* Buffer is full - send what we have and start over */
+				if (framed > 0) {
+					d.encoder.endFrame(buf);
+					encodeNanos += System.nanoTime() - encodeStart;
+					int length = buf.position();
+					flush(d, retry);
+					retry = false;
+					bytes += length;
+					lines += framed;
+					d.written = p;
+					encodeStart = System.nanoTime();
+					d.encoder.beginFrame(buf);
+					framed = 0;
+				}
+				if (d.encoder.encode(batch, index, buf)) {
+					framed++;
+				}
+				/* Otherwise the point is too large for a frame of its own and no node would take it either */
+			}
+			if (framed > 0) {
+				d.encoder.endFrame(buf);
+				encodeNanos += System.nanoTime() - encodeStart;
+				int length = buf.position();
+				flush(d, retry);
+				bytes += length;
+				lines += framed;
+			}
+			d.written = d.pointCount;
+			return true;
+		} catch (IOException e) {
+			d.closeChannel();
+			if (d.health.recordFailure()) {
+				logger.warning("Graphite node " + d + " is down, sending its metrics to other nodes");
+			}
+			return false;
+		} finally {
+			stats.recordEncoded(encodeNanos, bytes, lines);
+		}
+	}
+
+	private void flush(@NotNull Destination d, boolean retry) throws IOException {
+		ByteBuffer buf = d.buffer;
+		buf.flip();
+		try {
+			ensureConnected(d).write(buf, writeTimeoutMillis);
+		} catch (IOException e) {
+			d.closeChannel();
+			if (!retry || buf.position() != 0) {
+				throw e;
+			}
+			ensureConnected(d).write(buf, writeTimeoutMillis);
+		} finally {
+			buf.clear();
+		}
+	}
+
+	/**
+	 * Hand points a failed node didn't take to the next healthy node in each point's preference order
+	 *
+	 * @return false if some point had no other node to go to and no replica elsewhere
+	 */
+	private boolean reroute(@NotNull Destination failed, @NotNull List<MetricBatch> batches) {
+		boolean complete = true;
+		for (int p = failed.written; p < failed.pointCount; p++) {
+			long point = failed.points[p];
+			int[] order = preferenceOf(batches.get((int) (point >>> 32)), (int) point);
+			int d = healthyAt(order, replication - 1);
+			if (d >= 0) {
+				destinations[d].route(point);
+			} else {
+				complete &= replication > 1 && healthyAt(order, 0) >= 0;
+			}
+		}
+		failed.pointCount = failed.written;
+		return complete;
+	}
+
+	/**
+	 * Close all connections
+	 */
+	void close() {
+		for (Destination d : destinations) {
+			d.closeChannel();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(destinations);
+	}
+}
@@ -1,37 +1,81 @@
 package me.cth451.bukkitgraphite.updater;
 
 import me.cth451.bukkitgraphite.PluginMain;
-import me.cth451.bukkitgraphite.metric.model.MetricEntry;
+import me.cth451.bukkitgraphite.encoding.EncodedPayload;
+import me.cth451.bukkitgraphite.encoding.GraphitePickleEncoder;
+import me.cth451.bukkitgraphite.encoding.GraphitePlaintextEncoder;
+import me.cth451.bukkitgraphite.encoding.MetricEncoder;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
 import org.bukkit.configuration.ConfigurationSection;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
-import java.util.Collection;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Graphite plaintext TCP push protocol
+ * Graphite TCP push protocol, either plaintext or pickle
+ * <p>
+ * Plaintext can also go over UDP, or over a unix domain socket to a relay or agent running on the same host.
+ * <p>
+ * A single connection to the graphite backend is kept open across updates and only re-established after a failure.
+ * Data points are encoded straight into a reusable direct buffer, which is written out whenever it fills up. When
+ * several running graphite updaters stream the same protocol with the same namespace to a single node each, e.g. a
+ * primary and a disaster recovery carbon, each batch is instead encoded once into an {@link EncodedPayload} cached with the batch, and all
+ * payloads of an update go out in one gathering write. With the pickle protocol data points are cut into frames of at
+ * most {@link #SEND_BUFFER_SIZE} bytes, which saves carbon a lot of parsing for large batches.
+ * <p>
+ * Instead of a single host, the updater can be given several carbon nodes. Data points are then spread over them by
+ * a {@link GraphiteRouter}, using the same consistent hashing as carbon-relay, so no relay is needed in between.
  */
-public class GraphiteUpdater extends Updater {
+public class GraphiteUpdater extends NetworkUpdater {
 	public static String ID = "graphite";
 
 	/**
-	 * Prepare a list of entries for upload
-	 *
-	 * @param entryList metric entries to upload
-	 * @return a string with multiple lines that can be submitted to a Graphite backend
+	 * Wire formats carbon accepts over TCP
+	 */
+	public enum Protocol {
+		/**
+		 * One "path value timestamp" line per data point, usually on port 2003
+		 */
+		PLAINTEXT,
+		/**
+		 * Length-prefixed pickled lists of data points, usually on port 2004
+		 */
+		PICKLE
+	}
+
+	/**
+	 * How data points reach carbon
 	 */
-	private String prepareEntriesForUpload(Collection<MetricEntry> entryList) {
-		return String.join("\n",
-		                   entryList.stream()
-		                            .parallel()
-		                            .map(e -> e.toGraphite(rootNamespace))
-		                            .toList()
-		);
+	public enum Transport {
+		/**
+		 * Persistent connection with delivery confirmed by the kernel
+		 */
+		TCP,
+		/**
+		 * Fire-and-forget datagrams, e.g. to a local relay. Only plaintext is supported.
+		 */
+		UDP,
+		/**
+		 * Persistent stream over a unix domain socket to a relay or agent on the same host, skipping the TCP stack.
+		 * Only plaintext is supported.
+		 */
+		UNIX
 	}
 
+	/**
+	 * Size of the scratch buffer data points are encoded through. This bounds pickle frames, which must stay below
+	 * {@link GraphitePickleEncoder#MAX_FRAME_LENGTH}.
+	 */
+	public static final int SEND_BUFFER_SIZE = 64 * 1024;
+
 	/**
 	 * Host / IP to find graphite service
 	 */
@@ -42,16 +86,98 @@ public class GraphiteUpdater extends Updater {
 	 */
 	private int port;
 
+	/**
+	 * Unix domain socket to find graphite service with the UNIX transport
+	 */
+	private Path socketPath;
+
 	/**
 	 * A namespace key to prepend onto all keys submitted
 	 */
 	private String rootNamespace;
 
+	/**
+	 * Persistent connection to the graphite backend - null if not connected
+	 */
+	private TimedChannel channel;
+
+	private Protocol protocol = Protocol.PLAINTEXT;
+	private Transport transport = Transport.TCP;
+
+	/**
+	 * Maximum datagram payload with the UDP transport
+	 */
+	private int mtu = DatagramPacker.DEFAULT_MTU;
+
+	/**
+	 * Carbon nodes to shard over - empty to send everything to host:port
+	 */
+	private List<GraphiteRouter.Target> targets = List.of();
+
+	/**
+	 * Number of nodes each data point goes to when sharding
+	 */
+	private int replication = 1;
+
+	/**
+	 * Sender sharding over targets - null if not sharding
+	 */
+	private GraphiteRouter router;
+
+	/**
+	 * Datagram sender with the UDP transport - null if not open yet
+	 */
+	private DatagramPacker packer;
+
+	/**
+	 * Encoder for the current protocol and root namespace
+	 */
+	private MetricEncoder encoder;
+
+	/**
+	 * Payloads encoded by any graphite updater with an equal format can be shared
+	 */
+	private record Format(Protocol protocol, String namespace) {
+	}
+
+	private Format format;
+
+	/**
+	 * Number of started graphite updaters per format that write payloads to a single stream, to tell whether encoded
+	 * payloads are worth sharing. Updaters sending datagrams or sharding over several nodes encode on their own.
+	 */
+	private static final ConcurrentHashMap<Format, Integer> runningFormats = new ConcurrentHashMap<>();
+
+	private boolean running = false;
+
+	/**
+	 * Format this updater is counted under in {@link #runningFormats} - null if it is not counted
+	 */
+	private Format countedFormat = null;
+
+	/**
+	 * Data points are encoded into this buffer and written out whenever it is full, reused across updates
+	 */
+	private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(SEND_BUFFER_SIZE);
+
+	/**
+	 * Data not yet written to the stream connection, including the remainder of an update that failed partway
+	 */
+	private GraphiteOutbox outbox;
+
+	/**
+	 * Scratch buffer shared payloads are encoded through, reused across updates - allocated on first use
+	 */
+	private ByteBuffer encodeBuffer = null;
+
 	public GraphiteUpdater(PluginMain plugin) {
 		super(plugin);
 		this.host = null;
 		this.port = 0;
 		this.rootNamespace = "";
+		this.format = new Format(protocol, rootNamespace);
+		this.encoder = createEncoder();
+		this.outbox = new GraphiteOutbox(encoder, protocol == Protocol.PLAINTEXT, sendBuffer);
 	}
 
 	/**
@@ -60,7 +186,9 @@ public class GraphiteUpdater extends Updater {
 	 * @param host endpoint host
 	 * @param port endpoint port
 	 */
-	public void setEndpoint(String host, int port) {
+	public synchronized void setEndpoint(String host, int port) {
+		closeChannel();
+		closePacker();
 		this.host = host;
 		this.port = port;
 
@@ -71,42 +199,307 @@ public class GraphiteUpdater extends Updater {
 		}
 	}
 
+	/**
+	 * Set the unix domain socket this updater should report to with the UNIX transport
+	 *
+	 * @param path socket file - null or empty for none
+	 */
+	public synchronized void setSocketPath(@Nullable String path) {
+		closeChannel();
+		this.socketPath = (path == null || path.isEmpty()) ? null : Path.of(path);
+	}
+
 	/**
 	 * Set root namespace that metric data points should be placed under
 	 *
 	 * @param namespace namespace - set null or empty to not use any enclosing namespace
 	 */
-	public void setRootNamespace(@Nullable String namespace) {
-		this.rootNamespace = namespace;
+	public synchronized void setRootNamespace(@Nullable String namespace) {
+		this.rootNamespace = namespace == null ? "" : namespace;
+		setFormat(new Format(protocol, rootNamespace));
+		rebuildRouter();
+	}
+
+	/**
+	 * Set wire format to speak. Carbon listens for each protocol on a different port.
+	 *
+	 * @param protocol protocol
+	 */
+	public synchronized void setProtocol(@NotNull Protocol protocol) {
+		this.protocol = protocol;
+		setFormat(new Format(protocol, rootNamespace));
+		rebuildRouter();
+	}
+
+	/**
+	 * Shard data points over several carbon nodes instead of sending everything to one endpoint. Nodes must be listed
+	 * in the same order as in carbon-relay's DESTINATIONS for both to agree on where a metric lives. Only the TCP
+	 * transport is supported.
+	 *
+	 * @param destinations nodes as host:port or host:port:instance - empty to stop sharding
+	 * @param replication  number of nodes each data point is sent to
+	 * @throws IllegalArgumentException if a destination is malformed or listed twice
+	 */
+	public synchronized void setDestinations(@NotNull List<String> destinations, int replication) {
+		this.targets = destinations.stream().map(GraphiteRouter.Target::parse).toList();
+		this.replication = replication;
+		rebuildRouter();
+	}
+
+	/**
+	 * Set up a new router for the current destinations, protocol and namespace. Connections of the old one are closed.
+	 */
+	private void rebuildRouter() {
+		if (router != null) {
+			router.close();
+			router = null;
+		}
+		if (targets.isEmpty()) {
+			countFormat();
+			return;
+		}
+		router = new GraphiteRouter(targets, replication, rootNamespace, this::createEncoder,
+		                            () -> new CircuitBreaker(backoffInitialMillis, backoffMaxMillis),
+		                            connectTimeoutMillis, writeTimeoutMillis, idleTimeoutMillis,
+		                            plugin.getLogger());
+		countFormat();
+	}
+
+	/**
+	 * Set how data points reach carbon
+	 *
+	 * @param transport transport
+	 * @param mtu       maximum datagram payload with the UDP transport
+	 */
+	public synchronized void setTransport(@NotNull Transport transport, int mtu) {
+		closeChannel();
+		closePacker();
+		this.transport = transport;
+		this.mtu = mtu;
+		countFormat();
+	}
+
+	/**
+	 * Switch to a new wire format. Data still waiting in the outbox was encoded for the old one and is dropped.
+	 */
+	private void setFormat(@NotNull Format format) {
+		this.format = format;
+		this.encoder = createEncoder();
+		outbox.clear();
+		this.outbox = new GraphiteOutbox(encoder, protocol == Protocol.PLAINTEXT, sendBuffer);
+		countFormat();
+	}
+
+	/**
+	 * Count this updater under its current format while it is running and would read shared payloads
+	 */
+	private void countFormat() {
+		Format counted = running && router == null && transport != Transport.UDP ? format : null;
+		if (counted == null ? countedFormat == null : counted.equals(countedFormat)) {
+			return;
+		}
+		if (countedFormat != null) {
+			runningFormats.computeIfPresent(countedFormat, (f, count) -> count == 1 ? null : count - 1);
+		}
+		if (counted != null) {
+			runningFormats.merge(counted, 1, Integer::sum);
+		}
+		countedFormat = counted;
+	}
+
+	/**
+	 * @return whether another running graphite updater writes the same format to a stream, so batches fan out to
+	 * several of them
+	 */
+	private boolean isFormatShared() {
+		return countedFormat != null && runningFormats.getOrDefault(countedFormat, 0) > 1;
+	}
+
+	private @NotNull MetricEncoder createEncoder() {
+		return switch (protocol) {
+			case PLAINTEXT -> new GraphitePlaintextEncoder(rootNamespace);
+			case PICKLE -> new GraphitePickleEncoder(rootNamespace);
+		};
+	}
+
+	/**
+	 * Open a new connection to the graphite backend if there isn't a usable one already. Connections that sat idle
+	 * for longer than the idle timeout are replaced, as middleboxes may have silently dropped them.
+	 *
+	 * @return connected channel
+	 * @throws IOException if connection cannot be established within the connect timeout
+	 */
+	private @NotNull TimedChannel ensureConnected() throws IOException {
+		if (channel != null && (!channel.isOpen() || channel.idleLongerThan(idleTimeoutMillis))) {
+			closeChannel();
+		}
+		if (channel == null) {
+			SocketAddress address = transport == Transport.UNIX ?
+					UnixDomainSocketAddress.of(socketPath) : new InetSocketAddress(host, port);
+			channel = TimedChannel.connect(address, connectTimeoutMillis);
+		}
+		return channel;
+	}
+
+	/**
+	 * Drop current connection, if any. Next update will reconnect.
+	 */
+	private void closeChannel() {
+		if (channel == null) {
+			return;
+		}
+		channel.close();
+		channel = null;
+	}
+
+	private void closePacker() {
+		if (packer == null) {
+			return;
+		}
+		packer.close();
+		packer = null;
 	}
 
 	@Override
-	public boolean sendUpdates(@NotNull Collection<MetricEntry> entryList) {
-		if (this.host == null || this.port == 0) {
+	protected synchronized boolean transmit(@NotNull List<MetricBatch> batches) {
+		if (router != null) {
+			return router.send(batches, deliveryStats);
+		}
+		if (transport == Transport.UNIX ? socketPath == null : (this.host == null || this.port == 0)) {
 			return true;
 		}
-		String payload = prepareEntriesForUpload(entryList);
+		if (transport == Transport.UDP) {
+			return transmitDatagrams(batches);
+		}
+		return transmitStream(batches);
+	}
+
+	/**
+	 * Queue batches in the outbox and write it out. Batches go through payloads shared with other updaters of the same
+	 * format if there are any, and are otherwise encoded straight into the send buffer.
+	 * <p>
+	 * If the connection breaks partway, whatever carbon has received in full is not sent again: the rest stays in the
+	 * outbox and goes out first on the next update. The batches of this update are then reported as delivered if any
+	 * of them started going out, and given back to the caller otherwise.
+	 *
+	 * @param batches batches to send
+	 * @return false if none of the batches could be written
+	 */
+	private boolean transmitStream(@NotNull List<MetricBatch> batches) {
+		boolean shared = isFormatShared();
+		for (MetricBatch batch : batches) {
+			if (shared) {
+				outbox.addFrames(batch.derive(format, this::encodeShared).retain());
+			} else {
+				outbox.addPoints(batch.retain());
+			}
+		}
+		/* A connection reused from a previous update might have been dropped by the remote - retry once on a new one */
+		int attempts = channel != null ? 2 : 1;
+		try {
+			for (int i = 0; i < attempts; i++) {
+				try {
+					outbox.drain(ensureConnected(), writeTimeoutMillis, deliveryStats);
+					return true;
+				} catch (IOException e) {
+					closeChannel();
+				}
+			}
+			return outbox.keepIfStarted(batches.size());
+		} finally {
+			int skipped = outbox.takeSkipped();
+			if (skipped > 0) {
+				plugin.getLogger().warning(this.name() + ": dropping " + skipped + " oversized metrics");
+			}
+		}
+	}
+
+	/**
+	 * Encode a batch on behalf of every graphite updater with the same format. Only the updater doing the work
+	 * accounts for the time it took.
+	 *
+	 * @param batch batch to encode
+	 * @return payload to cache with the batch
+	 */
+	private @NotNull EncodedPayload encodeShared(@NotNull MetricBatch batch) {
+		if (encodeBuffer == null) {
+			encodeBuffer = ByteBuffer.allocate(SEND_BUFFER_SIZE);
+		}
+		EncodedPayload payload = EncodedPayload.encode(batch, encoder, encodeBuffer);
+		deliveryStats.recordEncoded(payload.encodeNanos(), 0, 0);
+		if (payload.skipped() > 0) {
+			plugin.getLogger().warning(this.name() + ": dropping " + payload.skipped() + " oversized metrics");
+		}
+		return payload;
+	}
 
+	/**
+	 * Send data points as datagrams. Datagrams the kernel has no room for are dropped rather than waited on.
+	 *
+	 * @param batches batches to send
+	 * @return false if the remote reported an error
+	 */
+	private boolean transmitDatagrams(@NotNull List<MetricBatch> batches) {
 		try {
-			Socket sock = new Socket(host, port);
-			sock.getOutputStream().write(payload.getBytes(StandardCharsets.UTF_8));
-			sock.close();
+			if (packer == null) {
+				packer = new DatagramPacker(new InetSocketAddress(host, port), mtu);
+			}
+			packer.send(batches, encoder, deliveryStats);
+			return true;
 		} catch (IOException e) {
+			closePacker();
 			return false;
 		}
-		return true;
+	}
+
+	@Override
+	public synchronized void start() {
+		running = true;
+		countFormat();
+	}
+
+	/**
+	 * Close connection to the graphite backend
+	 */
+	@Override
+	public synchronized void halt() {
+		running = false;
+		countFormat();
+		closeChannel();
+		closePacker();
+		outbox.clear();
+		if (router != null) {
+			router.close();
+		}
 	}
 
 	@Override
 	public @NotNull String name() {
+		if (router != null) {
+			return "Graphite Updater sharding over " + router + (protocol == Protocol.PICKLE ? " (pickle)" : "");
+		}
+		if (transport == Transport.UNIX && socketPath != null) {
+			return "Graphite Updater at unix:" + socketPath;
+		}
 		if (host == null || host.isEmpty() || port == 0) {
 			return "Graphite Updater (no backend)";
 		}
-		return "Graphite Updater at " + host + ":" + port;
+		return "Graphite Updater at " + host + ":" + port +
+				(protocol == Protocol.PICKLE ? " (pickle)" : "") + (transport == Transport.UDP ? " (udp)" : "");
+	}
+
+	/**
+	 * Data points carry their timestamps all the way to storage.
+	 *
+	 * @return true
+	 */
+	@Override
+	public boolean acceptsOutOfOrder() {
+		return true;
 	}
 
 	@Override
-	public @NotNull String id() {
+	public @NotNull String type() {
 		return ID;
 	}
 
@@ -118,7 +511,15 @@ public class GraphiteUpdater extends Updater {
 	 *     <li>root-namespace: optional, a string for root namespace - omit this option to not use nested namespace</li>
 	 *     <li>host: mandatory, graphite protocol host domain name / IP address</li>
 	 *     <li>port: mandatory, graphite protocol host TCP port</li>
+	 *     <li>protocol: optional, plaintext (default) or pickle - make sure port matches</li>
+	 *     <li>transport: optional, tcp (default), udp or unix - udp and unix only work with plaintext</li>
+	 *     <li>mtu: optional, maximum datagram payload in bytes with udp</li>
+	 *     <li>socket-path: mandatory with unix, path of the relay's unix domain socket - replaces host and port</li>
+	 *     <li>destinations: optional, list of carbon nodes as host:port[:instance] to shard over instead of host and
+	 *     port, in the same order as carbon-relay's DESTINATIONS - tcp only</li>
+	 *     <li>replication-factor: optional, number of nodes each data point is sent to when sharding</li>
 	 * </ul>
+	 * Timeout and backoff options are described in {@link NetworkUpdater#configureNetwork(ConfigurationSection)}.
 	 *
 	 * @param section metric group specific configuration section
 	 * @return true if configuration is successfully applied, false if configuration has missing mandatory keys
@@ -132,6 +533,50 @@ public class GraphiteUpdater extends Updater {
 			return false;
 		}
 		this.setRootNamespace(section.getString("root-namespace"));
+		String protocolName = section.getString("protocol", "plaintext");
+		try {
+			this.setProtocol(Protocol.valueOf(protocolName.toUpperCase()));
+		} catch (IllegalArgumentException e) {
+			plugin.getLogger().warning(this.name() + ": Unknown protocol " + protocolName + " - check your config!");
+			return false;
+		}
+		String transportName = section.getString("transport", "tcp");
+		try {
+			this.setTransport(Transport.valueOf(transportName.toUpperCase()),
+			                  Math.max(64, section.getInt("mtu", DatagramPacker.DEFAULT_MTU)));
+		} catch (IllegalArgumentException e) {
+			plugin.getLogger().warning(this.name() + ": Unknown transport " + transportName + " - check your config!");
+			return false;
+		}
+		if (transport != Transport.TCP && protocol == Protocol.PICKLE) {
+			plugin.getLogger().warning(this.name() + ": pickle protocol is not available over " + transportName +
+			                           " - check your config!");
+			return false;
+		}
+		this.configureNetwork(section);
+		if (!section.getStringList("destinations").isEmpty()) {
+			if (transport != Transport.TCP) {
+				plugin.getLogger().warning(this.name() + ": destinations are only supported over tcp - check your config!");
+				return false;
+			}
+			try {
+				this.setDestinations(section.getStringList("destinations"), section.getInt("replication-factor", 1));
+			} catch (IllegalArgumentException e) {
+				plugin.getLogger().warning(this.name() + ": " + e.getMessage() + " - check your config!");
+				return false;
+			}
+			plugin.getLogger().info("Using " + this.name() + " with namespace " + rootNamespace);
+			return true;
+		}
+		if (transport == Transport.UNIX) {
+			this.setSocketPath(section.getString("socket-path"));
+			if (socketPath == null) {
+				plugin.getLogger().warning(this.name() + ": No socket-path specified - check your config!");
+				return false;
+			}
+			plugin.getLogger().info("Using " + this.name() + " with namespace " + rootNamespace);
+			return true;
+		}
 		if (section.isString("host") && section.isInt("port")) {
 			this.setEndpoint(section.getString("host"), section.getInt("port"));
 			if (port <= 0 || port >= 65536) {
@@ -0,0 +1,324 @@
+package me.cth451.bukkitgraphite.updater;
+
+import me.cth451.bukkitgraphite.PluginMain;
+import me.cth451.bukkitgraphite.encoding.InfluxLineEncoder;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * InfluxDB line protocol over HTTP
+ * <p>
+ * Points are encoded into a pending buffer and written in one gzip-compressed request once the buffer reaches the
+ * flush size or the oldest pending point reaches the flush age. Requests go through a single keep-alive HTTP client.
+ * Points accepted into the pending buffer are owned by this updater until written: writes the server could not take
+ * right now (connection errors, 429, 5xx) stay pending and are retried with the next update once the circuit breaker
+ * lets the updater through again, so the batches they came from still count as delivered and are never spooled as
+ * well. Writes it rejects outright (other 4xx) are dropped, since retrying would not help. Both the InfluxDB 1.x (database) and 2.x (org and bucket) write APIs are supported.
+ */
+public class InfluxUpdater extends NetworkUpdater {
+	public static String ID = "influxdb";
+
+	public static final int DEFAULT_FLUSH_BYTES = 256 * 1024;
+	public static final long DEFAULT_FLUSH_INTERVAL_MS = 10000;
+	public static final int DEFAULT_MAX_PENDING_BYTES = 16 * 1024 * 1024;
+
+	/**
+	 * Write endpoint including query parameters - null if not configured
+	 */
+	private URI writeUri = null;
+
+	/**
+	 * Value of the Authorization header - null to not send one
+	 */
+	private String authorization = null;
+
+	private int flushBytes = DEFAULT_FLUSH_BYTES;
+	private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MS;
+	private int maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+
+	private InfluxLineEncoder encoder = new InfluxLineEncoder(null);
+	private HttpClient client = null;
+
+	/**
+	 * Encoded lines not written yet, and when the oldest of them was added (System.nanoTime, 0 if none)
+	 */
+	private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+	private long pendingSinceNanos = 0;
+
+	/**
+	 * Reused for compressing request bodies
+	 */
+	private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+	public InfluxUpdater(PluginMain plugin) {
+		super(plugin);
+	}
+
+	/**
+	 * Set the write endpoint
+	 *
+	 * @param writeUri      full write URI including database or bucket and precision=ms, null to disable
+	 * @param authorization Authorization header value, e.g. "Token xyz" - null to not send one
+	 */
+	public synchronized void setEndpoint(@Nullable URI writeUri, @Nullable String authorization) {
+		this.writeUri = writeUri;
+		this.authorization = authorization;
+		this.client = HttpClient.newBuilder()
+		                        .version(HttpClient.Version.HTTP_1_1)
+		                        .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+		                        .build();
+	}
+
+	/**
+	 * Set when pending points are written
+	 *
+	 * @param flushBytes          write once this many bytes are pending
+	 * @param flushIntervalMillis write once the oldest pending point is this old
+	 * @param maxPendingBytes     drop pending points once this many bytes are waiting for a backend that is down
+	 */
+	public synchronized void setFlushThresholds(int flushBytes, long flushIntervalMillis, int maxPendingBytes) {
+		this.flushBytes = flushBytes;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.maxPendingBytes = Math.max(flushBytes, maxPendingBytes);
+	}
+
+	/**
+	 * @param namespace root namespace prepended to measurements - null or empty to not use any
+	 */
+	public synchronized void setRootNamespace(@Nullable String namespace) {
+		this.encoder = new InfluxLineEncoder(namespace);
+	}
+
+	/**
+	 * Double the pending buffer, keeping its content
+	 */
+	private void growPending() {
+		ByteBuffer grown = ByteBuffer.allocate(pending.capacity() * 2);
+		pending.flip();
+		grown.put(pending);
+		pending = grown;
+	}
+
+	@Override
+	protected synchronized boolean transmit(@NotNull List<MetricBatch> batches) {
+		if (writeUri == null) {
+			return true;
+		}
+		long start = System.nanoTime();
+		int before = pending.position();
+		long lines = 0;
+		for (MetricBatch batch : batches) {
+			for (int i = 0; i < batch.size(); i++) {
+				while (!encoder.encode(batch, i, pending)) {
+					growPending();
+				}
+				lines++;
+			}
+		}
+		deliveryStats.recordEncoded(System.nanoTime() - start, pending.position() - before, lines);
+		if (pending.position() == 0) {
+			return true;
+		}
+		if (pendingSinceNanos == 0) {
+			pendingSinceNanos = start;
+		}
+
+		boolean due = pending.position() >= flushBytes ||
+				System.nanoTime() - pendingSinceNanos >= flushIntervalMillis * 1_000_000L;
+		if (!due) {
+			return true;
+		}
+		if (!flush()) {
+			if (pending.position() > maxPendingBytes) {
+				plugin.getLogger().warning(this.name() + ": dropping " + pending.position() + " bytes of pending points");
+				clearPending();
+			}
+			reportWriteFailed();
+		}
+		return true;
+	}
+
+	private void clearPending() {
+		pending.clear();
+		pendingSinceNanos = 0;
+		if (pending.capacity() > maxPendingBytes) {
+			pending = ByteBuffer.allocate(64 * 1024);
+		}
+	}
+
+	/**
+	 * Write all pending points in one request. Only called with this held.
+	 *
+	 * @return false if the points should be retried later
+	 */
+	private boolean flush() {
+		compressed.reset();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, 8192)) {
+			gzip.write(pending.array(), 0, pending.position());
+		} catch (IOException e) {
+			return false;
+		}
+		HttpRequest.Builder request =
+				HttpRequest.newBuilder(writeUri)
+				           .timeout(Duration.ofMillis(writeTimeoutMillis))
+				           .header("Content-Type", "text/plain; charset=utf-8")
+				           .header("Content-Encoding", "gzip")
+				           .POST(HttpRequest.BodyPublishers.ofByteArray(compressed.toByteArray()));
+		if (authorization != null) {
+			request.header("Authorization", authorization);
+		}
+		int status;
+		String body;
+		try {
+			HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+			status = response.statusCode();
+			body = response.body();
+		} catch (IOException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		if (status == 429 || status >= 500) {
+			return false;
+		}
+		if (status >= 300) {
+			plugin.getLogger().warning(this.name() + ": write rejected with status " + status + ": " + body);
+		}
+		clearPending();
+		return true;
+	}
+
+	/**
+	 * Write whatever is still pending
+	 */
+	@Override
+	public synchronized void flushPending() {
+		if (writeUri != null && pending.position() > 0 && !flush()) {
+			plugin.getLogger().warning(this.name() + ": final write failed");
+		}
+	}
+
+	/**
+	 * Drop points left pending by {@link #flushPending()}
+	 */
+	@Override
+	public synchronized void halt() {
+		clearPending();
+	}
+
+	@Override
+	public @NotNull String name() {
+		if (writeUri == null) {
+			return "InfluxDB Updater (no backend)";
+		}
+		return "InfluxDB Updater at " + writeUri.getHost() + ":" + writeUri.getPort();
+	}
+
+	/**
+	 * Data points carry their timestamps all the way to storage.
+	 *
+	 * @return true
+	 */
+	@Override
+	public boolean acceptsOutOfOrder() {
+		return true;
+	}
+
+	@Override
+	public @NotNull String type() {
+		return ID;
+	}
+
+	private static String encodeQuery(String s) {
+		return URLEncoder.encode(s, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Work out the write endpoint from the url and either org and bucket (InfluxDB 2.x) or database (1.x). Keys left
+	 * empty, as they are in the default configuration, count as missing.
+	 *
+	 * @param section updater specific configuration section with a url
+	 * @return write URI, or null if neither org and bucket nor database are set
+	 * @throws IllegalArgumentException if the url is malformed
+	 */
+	public static @Nullable URI writeUriOf(@NotNull ConfigurationSection section) {
+		String base = section.getString("url", "").replaceAll("/+$", "");
+		String org = section.getString("org", "");
+		String bucket = section.getString("bucket", "");
+		String database = section.getString("database", "");
+		String query;
+		if (!org.isBlank() && !bucket.isBlank()) {
+			query = "/api/v2/write?org=" + encodeQuery(org) + "&bucket=" + encodeQuery(bucket) + "&precision=ms";
+		} else if (!database.isBlank()) {
+			query = "/write?db=" + encodeQuery(database) + "&precision=ms";
+		} else {
+			return null;
+		}
+		return URI.create(base + query);
+	}
+
+	/**
+	 * Load parameters for InfluxDB from configuration.
+	 * <p>
+	 * Here are the possible parameters:
+	 * <ul>
+	 *     <li>url: mandatory, base URL of the server, e.g. http://localhost:8086</li>
+	 *     <li>database: InfluxDB 1.x database to write to</li>
+	 *     <li>org, bucket: InfluxDB 2.x organization and bucket to write to, instead of database</li>
+	 *     <li>token: optional, API token (2.x) or username:password (1.x)</li>
+	 *     <li>root-namespace: optional, prepended to all measurement names</li>
+	 *     <li>flush-bytes: optional, write once this many bytes of points are pending</li>
+	 *     <li>flush-interval-ms: optional, write once the oldest pending point is this old</li>
+	 *     <li>max-pending-bytes: optional, drop pending points beyond this while the server is unreachable</li>
+	 * </ul>
+	 * Timeout and backoff options are described in {@link NetworkUpdater#configureNetwork(ConfigurationSection)}.
+	 *
+	 * @param section updater specific configuration section
+	 * @return true if configuration is successfully applied, false if configuration has missing mandatory keys
+	 */
+	@Override
+	public boolean configure(ConfigurationSection section) {
+		if (section == null || !section.isString("url")) {
+			plugin.getLogger().warning(this.name() + ": No url configured - check your config!");
+			return false;
+		}
+		this.configureNetwork(section);
+		String base = section.getString("url").replaceAll("/+$", "");
+		URI uri;
+		try {
+			uri = writeUriOf(section);
+		} catch (IllegalArgumentException e) {
+			plugin.getLogger().warning(this.name() + ": Invalid url " + base + " - check your config!");
+			return false;
+		}
+		if (uri == null) {
+			plugin.getLogger().warning(this.name() + ": Either database or org and bucket are required - " +
+					                           "check your config!");
+			return false;
+		}
+		this.setRootNamespace(section.getString("root-namespace"));
+		this.setFlushThresholds(section.getInt("flush-bytes", DEFAULT_FLUSH_BYTES),
+		                        section.getLong("flush-interval-ms", DEFAULT_FLUSH_INTERVAL_MS),
+		                        section.getInt("max-pending-bytes", DEFAULT_MAX_PENDING_BYTES));
+		String token = section.getString("token");
+		this.setEndpoint(uri, token == null || token.isEmpty() ? null : "Token " + token);
+		plugin.getLogger().info("Using InfluxDB at " + base);
+		return true;
+	}
+}
@@ -0,0 +1,126 @@
+package me.cth451.bukkitgraphite.updater;
+
+import me.cth451.bukkitgraphite.PluginMain;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Base class for updaters pushing to a remote service over the network.
+ * <p>
+ * Every network updater gets connect, write and idle timeouts, plus a circuit breaker that stops talking to a backend
+ * after a failure and retries with exponential backoff. While the breaker is open the updater reports itself as
+ * unavailable and is skipped by the manager.
+ */
+public abstract class NetworkUpdater extends Updater {
+	public static final long DEFAULT_CONNECT_TIMEOUT_MS = 2000;
+	public static final long DEFAULT_WRITE_TIMEOUT_MS = 2000;
+	public static final long DEFAULT_IDLE_TIMEOUT_MS = 60000;
+	public static final long DEFAULT_BACKOFF_INITIAL_MS = 1000;
+	public static final long DEFAULT_BACKOFF_MAX_MS = 60000;
+
+	/**
+	 * Maximum time to wait for a connection to be established
+	 */
+	protected long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MS;
+
+	/**
+	 * Maximum time to wait for one payload to be accepted by the remote
+	 */
+	protected long writeTimeoutMillis = DEFAULT_WRITE_TIMEOUT_MS;
+
+	/**
+	 * Connections unused for longer than this are dropped and re-established before the next write
+	 */
+	protected long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MS;
+
+	/**
+	 * Backoff after the first failure and upper bound of the backoff, for updaters tracking health of several
+	 * backends on their own
+	 */
+	protected long backoffInitialMillis = DEFAULT_BACKOFF_INITIAL_MS;
+	protected long backoffMaxMillis = DEFAULT_BACKOFF_MAX_MS;
+
+	private CircuitBreaker breaker = new CircuitBreaker(DEFAULT_BACKOFF_INITIAL_MS, DEFAULT_BACKOFF_MAX_MS);
+
+	/**
+	 * Set by {@link #reportWriteFailed()} during the current transmit
+	 */
+	private boolean writeFailed = false;
+
+	protected NetworkUpdater(PluginMain plugin) {
+		super(plugin);
+	}
+
+	/**
+	 * Load timeout and backoff options shared by all network updaters.
+	 * <p>
+	 * Here are the possible parameters, all optional and in milliseconds:
+	 * <ul>
+	 *     <li>connect-timeout-ms: maximum time to establish a connection</li>
+	 *     <li>write-timeout-ms: maximum time for the remote to accept one update</li>
+	 *     <li>idle-timeout-ms: reconnect before writing if the connection has been unused for this long</li>
+	 *     <li>backoff-initial-ms: how long to leave a failed backend alone before retrying</li>
+	 *     <li>backoff-max-ms: upper bound of the backoff delay, which doubles on each consecutive failure</li>
+	 * </ul>
+	 *
+	 * @param section updater specific configuration section
+	 */
+	protected void configureNetwork(@NotNull ConfigurationSection section) {
+		this.connectTimeoutMillis = section.getLong("connect-timeout-ms", DEFAULT_CONNECT_TIMEOUT_MS);
+		this.writeTimeoutMillis = section.getLong("write-timeout-ms", DEFAULT_WRITE_TIMEOUT_MS);
+		this.idleTimeoutMillis = section.getLong("idle-timeout-ms", DEFAULT_IDLE_TIMEOUT_MS);
+		this.backoffInitialMillis = section.getLong("backoff-initial-ms", DEFAULT_BACKOFF_INITIAL_MS);
+		this.backoffMaxMillis = section.getLong("backoff-max-ms", DEFAULT_BACKOFF_MAX_MS);
+		this.breaker = new CircuitBreaker(backoffInitialMillis, backoffMaxMillis);
+	}
+
+	/**
+	 * Transmit a list of metrics to the remote service. Implementations must bound the time spent here using the
+	 * configured timeouts.
+	 *
+	 * @param batches Collected metrics to send, in scrape order
+	 * @return whether the remote service accepted the update
+	 */
+	protected abstract boolean transmit(@NotNull List<MetricBatch> batches);
+
+	@Override
+	public boolean isAvailable() {
+		return breaker.isRequestAllowed();
+	}
+
+	/**
+	 * Transmit unless the circuit breaker is open. An expired backoff turns this call into the trial request.
+	 */
+	@Override
+	public final boolean sendUpdates(@NotNull List<MetricBatch> batches) {
+		if (!breaker.allowRequest()) {
+			return false;
+		}
+		boolean success = false;
+		writeFailed = false;
+		try {
+			success = transmit(batches);
+		} finally {
+			if (success && !writeFailed) {
+				if (breaker.recordSuccess()) {
+					plugin.getLogger().info(this.name() + " has recovered");
+				}
+			} else if (breaker.recordFailure()) {
+				plugin.getLogger().warning(this.name() + " is unreachable - backing off");
+			}
+		}
+		return success;
+	}
+
+	/**
+	 * Report from {@link #transmit(List)} that writing to the backend failed even though the batches were accepted,
+	 * because the updater keeps their points to retry them itself. The circuit breaker backs off from the backend,
+	 * while the batches are neither spooled nor dropped by the caller.
+	 */
+	protected void reportWriteFailed() {
+		writeFailed = true;
+	}
+}
@@ -1,22 +1,76 @@
 package me.cth451.bukkitgraphite.updater;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import me.cth451.bukkitgraphite.PluginMain;
-import me.cth451.bukkitgraphite.metric.model.MetricEntry;
+import me.cth451.bukkitgraphite.encoding.PrometheusTextEncoder;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
 import org.bukkit.configuration.ConfigurationSection;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
-import java.util.Collection;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Prometheus node exporter
+ * <p>
+ * Serves the latest value of every series on an embedded HTTP endpoint for Prometheus to pull. Instead of encoding on
+ * every request, each update renders the exposition once into a cached byte array, which concurrent scrapers are then
+ * served as is. A gzip variant is compressed on first request and cached alongside. Series that haven't been updated
+ * for a while, e.g. those of an unloaded world, are dropped from the exposition.
  */
 public class PrometheusNodeExporter extends Updater {
 
 	public static String ID = "prometheus-node-exporter";
 
+	public static final String PATH = "/metrics";
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	public static final long DEFAULT_STALE_AFTER_MS = 5 * 60 * 1000;
+	private static final int HTTP_THREADS = 2;
+	private static final int INITIAL_RENDER_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Rendered exposition, shared by all requests until the next update
+	 */
+	private static class Exposition {
+		final byte[] plain;
+		private byte[] gzip = null;
+
+		Exposition(byte[] plain) {
+			this.plain = plain;
+		}
+
+		synchronized byte[] gzip() {
+			if (gzip == null) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(plain.length / 4 + 64);
+				try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+					out.write(plain);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				gzip = bytes.toByteArray();
+			}
+			return gzip;
+		}
+	}
+
 	/**
 	 * Prometheus exporter address
 	 */
@@ -33,13 +87,34 @@ public class PrometheusNodeExporter extends Updater {
 	private String rootNamespace = null;
 
 	/**
-	 * Internal state - send update will send stats here, and collected in one shot during remote pull
+	 * Series not updated for this long are left out of the exposition
+	 */
+	private long staleAfterMillis = DEFAULT_STALE_AFTER_MS;
+
+	/*
+	 * Internal state - latest value and update time (0 if absent) of each series, indexed by series id. Guarded by
+	 * this, like everything below up to the exposition.
 	 */
-	private final ConcurrentLinkedQueue<MetricEntry> stagingMetric;
+	private final MetricPathRegistry registry = MetricPathRegistry.global();
+	private double[] latest = new double[0];
+	private long[] updatedAt = new long[0];
+
+	/**
+	 * Ids of present series, sorted so that samples of a metric family are adjacent. Rebuilt when series come or go.
+	 */
+	private int[] order = new int[0];
+	private boolean orderDirty = false;
+
+	private PrometheusTextEncoder encoder = new PrometheusTextEncoder(null);
+	private ByteBuffer renderBuffer = ByteBuffer.allocate(INITIAL_RENDER_BUFFER_SIZE);
 
-	protected PrometheusNodeExporter(PluginMain plugin) {
+	private volatile Exposition exposition = new Exposition(new byte[0]);
+
+	private HttpServer server = null;
+	private ExecutorService serverThreads = null;
+
+	public PrometheusNodeExporter(PluginMain plugin) {
 		super(plugin);
-		this.stagingMetric = new ConcurrentLinkedQueue<>();
 	}
 
 	/**
@@ -47,53 +122,173 @@ public class PrometheusNodeExporter extends Updater {
 	 *
 	 * @param namespace namespace - set null or empty to not use any enclosing namespace
 	 */
-	public void setRootNamespace(@Nullable String namespace) {
+	public synchronized void setRootNamespace(@Nullable String namespace) {
 		this.rootNamespace = namespace;
+		this.encoder = new PrometheusTextEncoder(namespace);
 	}
 
 	/**
-	 * Set endpoint this updater should listen on
+	 * Set endpoint this updater should listen on. Takes effect on the next {@link #start()}.
 	 *
-	 * @param address endpoint listen address
-	 * @param port    endpoint port
+	 * @param address endpoint listen address, null to not listen
+	 * @param port    endpoint port, or 0 for any free port - see {@link #boundPort()}
 	 */
 	public void setEndpoint(InetAddress address, int port) {
 		this.listenAddr = address;
-		this.listenPort = port;
+		this.listenPort = address == null ? 0 : port;
+	}
 
-		if (address == null) {
-			this.listenPort = 0;
-		} else if (port == 0) {
-			this.listenAddr = null;
-		}
+	/**
+	 * @param millis how long a series may go without updates before it is left out of the exposition
+	 */
+	public synchronized void setStaleAfterMillis(long millis) {
+		this.staleAfterMillis = millis;
 	}
 
 	/**
-	 * Deposit stats into queue
+	 * @return actual port listened on, or 0 if not listening
+	 */
+	public synchronized int boundPort() {
+		return server == null ? 0 : server.getAddress().getPort();
+	}
+
+	/**
+	 * Record latest values and render a new exposition
 	 *
-	 * @param entryList Collected metrics to send
-	 * @return whether enqueue is successful.
+	 * @param batches Collected metrics to send
+	 * @return true
 	 */
 	@Override
-	public boolean sendUpdates(@NotNull Collection<MetricEntry> entryList) {
-		return this.stagingMetric.addAll(entryList);
+	public synchronized boolean sendUpdates(@NotNull List<MetricBatch> batches) {
+		for (MetricBatch batch : batches) {
+			for (int i = 0; i < batch.size(); i++) {
+				int id = batch.seriesId(i);
+				if (id >= latest.length) {
+					int capacity = Math.max(id + 1, registry.size());
+					latest = Arrays.copyOf(latest, capacity);
+					updatedAt = Arrays.copyOf(updatedAt, capacity);
+				}
+				if (updatedAt[id] == 0) {
+					orderDirty = true;
+				}
+				latest[id] = batch.value(i);
+				updatedAt[id] = Math.max(1, batch.timestamp());
+			}
+		}
+		render(System.currentTimeMillis());
+		return true;
+	}
+
+	/**
+	 * Render present series into a fresh exposition. Only called with this held.
+	 *
+	 * @param now current time in milliseconds since epoch
+	 */
+	private void render(long now) {
+		long start = System.nanoTime();
+		for (int id : order) {
+			if (now - updatedAt[id] > staleAfterMillis) {
+				updatedAt[id] = 0;
+				orderDirty = true;
+			}
+		}
+		if (orderDirty) {
+			order = IntStream.range(0, updatedAt.length)
+			                 .filter(id -> updatedAt[id] != 0)
+			                 .boxed()
+			                 .sorted(Comparator.comparing((Integer id) -> registry.get(id).prometheusName())
+			                                   .thenComparing(id -> registry.get(id).prometheusLabels()))
+			                 .mapToInt(Integer::intValue)
+			                 .toArray();
+			orderDirty = false;
+		}
+
+		renderBuffer.clear();
+		String family = null;
+		for (int id : order) {
+			MetricSeries series = registry.get(id);
+			if (!series.prometheusName().equals(family)) {
+				while (!encoder.encodeFamily(series, renderBuffer)) {
+					growRenderBuffer();
+				}
+				family = series.prometheusName();
+			}
+			while (!encoder.encodeSample(series, latest[id], renderBuffer)) {
+				growRenderBuffer();
+			}
+		}
+		this.exposition = new Exposition(Arrays.copyOf(renderBuffer.array(), renderBuffer.position()));
+		deliveryStats.recordEncoded(System.nanoTime() - start, renderBuffer.position(), order.length);
+	}
+
+	/**
+	 * Double the render buffer, keeping what has been rendered so far. Only called with this held.
+	 */
+	private void growRenderBuffer() {
+		ByteBuffer grown = ByteBuffer.allocate(renderBuffer.capacity() * 2);
+		renderBuffer.flip();
+		grown.put(renderBuffer);
+		renderBuffer = grown;
+	}
+
+	/**
+	 * Serve the current exposition
+	 */
+	private void handle(@NotNull HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if (!PATH.equals(exchange.getRequestURI().getPath())) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			boolean head = "HEAD".equals(exchange.getRequestMethod());
+			if (!head && !"GET".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			Exposition current = this.exposition;
+			String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			byte[] body = current.plain;
+			if (accept != null && accept.contains("gzip")) {
+				body = current.gzip();
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			}
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if (head) {
+				exchange.getResponseHeaders().set("Content-Length", Integer.toString(body.length));
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
 	}
 
 	@Override
 	public @NotNull String name() {
-		if (listenAddr == null || listenPort == 0) {
+		if (listenAddr == null) {
 			return "Prometheus exporter (inactive - no backend)";
 		}
 		return "Prometheus exporter listening at " + listenAddr + ":" + listenPort;
 	}
 
 	@Override
-	public @NotNull String id() {
+	public @NotNull String type() {
 		return ID;
 	}
 
 	/**
 	 * Reconfigure internal options
+	 * <p>
+	 * Here are the possible parameters:
+	 * <ul>
+	 *     <li>root-namespace: optional, prefix for all metric names - omit this option to not use any prefix</li>
+	 *     <li>listen-addr: mandatory, address to listen on, e.g. 0.0.0.0 for all interfaces</li>
+	 *     <li>port: mandatory, TCP port to listen on</li>
+	 *     <li>stale-after-ms: optional, leave out series not updated for this long</li>
+	 * </ul>
 	 *
 	 * @param section metric group specific configuration section
 	 * @return true iff all required keys are found and applied
@@ -107,28 +302,61 @@ public class PrometheusNodeExporter extends Updater {
 			return false;
 		}
 		this.setRootNamespace(section.getString("root-namespace"));
-		if (section.isString("listen-addr") && section.isInt("port")) {
-			/* TODO: validate endpoint settings */
-			/* TODO: call setEndpoint()*/
+		this.setStaleAfterMillis(section.getLong("stale-after-ms", DEFAULT_STALE_AFTER_MS));
+		if (!section.isString("listen-addr") || !section.isInt("port")) {
+			plugin.getLogger().warning(this.name() + ": listen-addr and port are required - check your config!");
+			return false;
+		}
+		int port = section.getInt("port");
+		if (port <= 0 || port >= 65536) {
+			plugin.getLogger().warning(this.name() + ": Invalid port specified - check your config!");
+			return false;
+		}
+		try {
+			this.setEndpoint(InetAddress.getByName(section.getString("listen-addr")), port);
+		} catch (UnknownHostException e) {
+			plugin.getLogger().warning(this.name() + ": Cannot resolve listen-addr - check your config!");
+			return false;
 		}
 		return true;
 	}
 
 	/**
 	 * Start background listening socket and event handler
-	 * TODO
 	 */
 	@Override
-	public void start() {
-
+	public synchronized void start() {
+		if (listenAddr == null || server != null) {
+			return;
+		}
+		try {
+			server = HttpServer.create(new InetSocketAddress(listenAddr, listenPort), 0);
+		} catch (IOException e) {
+			plugin.getLogger().log(Level.SEVERE, this.name() + ": cannot listen", e);
+			server = null;
+			return;
+		}
+		serverThreads = Executors.newFixedThreadPool(HTTP_THREADS, r -> {
+			Thread t = new Thread(r, "BukkitGraphite-Prometheus");
+			t.setDaemon(true);
+			return t;
+		});
+		server.createContext("/", this::handle);
+		server.setExecutor(serverThreads);
+		server.start();
 	}
 
 	/**
-	 * Close listening socket and Wait for event handlers to complete
-	 * TODO
+	 * Close listening socket and wait for requests in flight to complete
 	 */
 	@Override
-	public void halt() {
-
+	public synchronized void halt() {
+		if (server == null) {
+			return;
+		}
+		server.stop(1);
+		serverThreads.shutdownNow();
+		server = null;
+		serverThreads = null;
 	}
 }
@@ -0,0 +1,263 @@
+package me.cth451.bukkitgraphite.updater;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.exporter.PushGateway;
+import me.cth451.bukkitgraphite.PluginMain;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPath;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prometheus Pushgateway updater
+ * <p>
+ * For instances that come and go too quickly to be scraped, or that cannot open an inbound port. Every series is
+ * mapped to a labelled child of a gauge, one gauge per metric name. Gauges and children are created on first sight and
+ * reused for the lifetime of the updater, so an update is just setting values. The collected state is pushed to the
+ * gateway at most once per push interval, and one last time by the delivery thread before the updater is halted.
+ */
+public class PushgatewayUpdater extends NetworkUpdater {
+	public static String ID = "pushgateway";
+
+	public static final String DEFAULT_JOB = "bukkitgraphite";
+	public static final long DEFAULT_PUSH_INTERVAL_MS = 10000;
+
+	/**
+	 * Gateway to push to - null if not configured
+	 */
+	private PushGateway gateway = null;
+	private String address = null;
+	private String job = DEFAULT_JOB;
+	private Map<String, String> groupingKey = Map.of();
+	private long pushIntervalMillis = DEFAULT_PUSH_INTERVAL_MS;
+
+	/**
+	 * Sanitized namespace followed by an underscore, or empty if there is no root namespace
+	 */
+	private String prefix = "";
+
+	/**
+	 * Collectors pushed to the gateway, and the gauge owning each metric name
+	 */
+	private final CollectorRegistry collectors = new CollectorRegistry();
+	private final HashMap<String, Gauge> gauges = new HashMap<>();
+
+	/**
+	 * Gauge child of each series, indexed by series id. Series whose labels clash with their gauge are marked in
+	 * rejected instead.
+	 */
+	private Gauge.Child[] children = new Gauge.Child[0];
+	private final BitSet rejected = new BitSet();
+
+	private long lastPushNanos = 0;
+	private boolean pushPending = false;
+
+	public PushgatewayUpdater(PluginMain plugin) {
+		super(plugin);
+	}
+
+	/**
+	 * Find or create the gauge child a series is written to
+	 *
+	 * @param series series
+	 * @return gauge child, or null if the series cannot be represented
+	 */
+	private @Nullable Gauge.Child childOf(@NotNull MetricSeries series) {
+		int id = series.id();
+		if (id < children.length && children[id] != null) {
+			return children[id];
+		}
+		if (rejected.get(id)) {
+			return null;
+		}
+		String name = prefix + series.prometheusName();
+		String[] labelNames = series.tags().keySet().stream()
+		                            .map(MetricPath::sanitizePrometheusName)
+		                            .toArray(String[]::new);
+		String[] labelValues = series.tags().values().toArray(String[]::new);
+		Gauge gauge = gauges.get(name);
+		try {
+			if (gauge == null) {
+				gauge = Gauge.build().name(name).help(series.key()).labelNames(labelNames).register(collectors);
+				gauges.put(name, gauge);
+			}
+			Gauge.Child child = gauge.labels(labelValues);
+			if (id >= children.length) {
+				children = Arrays.copyOf(children, Math.max(id + 1, children.length * 2));
+			}
+			children[id] = child;
+			return child;
+		} catch (IllegalArgumentException e) {
+			/* Label names differ from the ones the gauge was created with */
+			rejected.set(id);
+			plugin.getLogger().warning(this.name() + ": cannot push " + series + " - " + e.getMessage());
+			return null;
+		}
+	}
+
+	@Override
+	protected synchronized boolean transmit(@NotNull List<MetricBatch> batches) {
+		if (gateway == null) {
+			return true;
+		}
+		long start = System.nanoTime();
+		long lines = 0;
+		for (MetricBatch batch : batches) {
+			for (int i = 0; i < batch.size(); i++) {
+				Gauge.Child child = childOf(batch.series(i));
+				if (child != null) {
+					child.set(batch.value(i));
+					lines++;
+				}
+			}
+		}
+		deliveryStats.recordEncoded(System.nanoTime() - start, 0, lines);
+		pushPending = true;
+
+		/* A push that failed last time is retried as soon as the circuit breaker lets us through */
+		if (lastPushNanos != 0 && System.nanoTime() - lastPushNanos < pushIntervalMillis * 1_000_000L) {
+			return true;
+		}
+		return push();
+	}
+
+	/**
+	 * Push all gauges, replacing whatever the gateway holds for this job and grouping key. Only called with this held.
+	 *
+	 * @return whether the gateway accepted the push
+	 */
+	private boolean push() {
+		try {
+			gateway.push(collectors, job, groupingKey);
+			lastPushNanos = System.nanoTime();
+			pushPending = false;
+			return true;
+		} catch (IOException e) {
+			lastPushNanos = 0;
+			return false;
+		}
+	}
+
+	/**
+	 * Create a gateway client whose connections honor the configured timeouts
+	 *
+	 * @param address host:port, or a base URL
+	 * @return gateway client
+	 * @throws MalformedURLException if address is not a valid URL
+	 */
+	private @NotNull PushGateway createGateway(@NotNull String address) throws MalformedURLException {
+		PushGateway gateway = address.contains("://") ? new PushGateway(new URL(address)) : new PushGateway(address);
+		gateway.setConnectionFactory(url -> {
+			HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+			connection.setConnectTimeout((int) connectTimeoutMillis);
+			connection.setReadTimeout((int) writeTimeoutMillis);
+			return connection;
+		});
+		return gateway;
+	}
+
+	/**
+	 * Set the gateway to push to
+	 *
+	 * @param address     gateway host:port, or a base URL
+	 * @param job         job name to push as
+	 * @param groupingKey additional labels identifying this instance
+	 * @throws MalformedURLException if address is not a valid URL
+	 */
+	public synchronized void setEndpoint(@NotNull String address, @NotNull String job,
+	                                     @NotNull Map<String, String> groupingKey) throws MalformedURLException {
+		this.gateway = null;
+		this.address = address;
+		this.job = job;
+		this.groupingKey = Map.copyOf(groupingKey);
+		this.gateway = createGateway(address);
+	}
+
+	/**
+	 * @param pushIntervalMillis minimum time between pushes
+	 */
+	public synchronized void setPushInterval(long pushIntervalMillis) {
+		this.pushIntervalMillis = Math.max(0, pushIntervalMillis);
+	}
+
+	/**
+	 * Push whatever hasn't been pushed yet, so that the last values of a shutting down instance are not lost
+	 */
+	@Override
+	public synchronized void flushPending() {
+		if (gateway != null && pushPending && !push()) {
+			plugin.getLogger().warning(this.name() + ": final push failed");
+		}
+	}
+
+	@Override
+	public @NotNull String name() {
+		if (gateway == null) {
+			return "Pushgateway Updater (no backend)";
+		}
+		return "Pushgateway Updater at " + address + " as job " + job;
+	}
+
+	@Override
+	public @NotNull String type() {
+		return ID;
+	}
+
+	/**
+	 * Load parameters for the pushgateway from configuration.
+	 * <p>
+	 * Here are the possible parameters:
+	 * <ul>
+	 *     <li>address: mandatory, gateway host:port or base URL</li>
+	 *     <li>job: optional, job name to push as - defaults to {@value #DEFAULT_JOB}</li>
+	 *     <li>grouping-key: optional, map of additional labels identifying this instance, e.g. instance: lobby-1</li>
+	 *     <li>root-namespace: optional, prefix for all metric names - omit this option to not use any prefix</li>
+	 *     <li>push-interval-ms: optional, minimum time between pushes</li>
+	 * </ul>
+	 * Timeout and backoff options are described in {@link NetworkUpdater#configureNetwork(ConfigurationSection)}.
+	 *
+	 * @param section updater specific configuration section
+	 * @return true if configuration is successfully applied, false if configuration has missing mandatory keys
+	 */
+	@Override
+	public synchronized boolean configure(ConfigurationSection section) {
+		if (section == null || !section.isString("address")) {
+			plugin.getLogger().warning(this.name() + ": No address configured - check your config!");
+			return false;
+		}
+		this.configureNetwork(section);
+		String namespace = section.getString("root-namespace");
+		this.prefix = (namespace == null || namespace.isEmpty()) ?
+				"" : MetricPath.sanitizePrometheusName(namespace) + "_";
+		this.setPushInterval(section.getLong("push-interval-ms", DEFAULT_PUSH_INTERVAL_MS));
+		ConfigurationSection grouping = section.getConfigurationSection("grouping-key");
+		HashMap<String, String> key = new HashMap<>();
+		if (grouping != null) {
+			for (String k : grouping.getKeys(false)) {
+				key.put(MetricPath.sanitizePrometheusName(k), grouping.getString(k));
+			}
+		}
+		String address = section.getString("address");
+		try {
+			this.setEndpoint(address, section.getString("job", DEFAULT_JOB), key);
+		} catch (MalformedURLException e) {
+			plugin.getLogger().warning(this.name() + ": Invalid address " + address + " - check your config!");
+			return false;
+		}
+		plugin.getLogger().info("Using pushgateway " + address + " with job " + job);
+		return true;
+	}
+}
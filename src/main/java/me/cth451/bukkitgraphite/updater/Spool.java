@@ -0,0 +1,511 @@
+package me.cth451.bukkitgraphite.updater;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Disk-backed FIFO of batches an updater could not deliver, replayed once its backend is back.
+ * <p>
+ * Batches are appended to segment files of a fixed maximum size in arrival order, which is also timestamp order.
+ * Each segment starts with the read offset of the replay cursor, followed by length-prefixed records holding one
+ * timestamp and a run of (key, tags, value) points. The length is written after the record body, so a record torn by
+ * a crash reads as the end of the segment. Segments are accessed with positional reads and writes on one open channel
+ * for the writer and one for the reader, which share the channel while they are on the same segment. Replay reads from the oldest segment, at a limited number of points per
+ * second, and the cursor only moves on once the updater accepted the replayed batches. Segments are deleted once
+ * fully replayed, and the oldest segment is evicted whether replayed or not when the spool exceeds its size cap.
+ * <p>
+ * Series ids are not stable across restarts, so points are stored by key and tags rather than series id.
+ */
+public class Spool implements Closeable {
+	public static final long DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+	public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+	public static final int DEFAULT_REPLAY_POINTS_PER_SECOND = 5000;
+
+	private static final String SUFFIX = ".seg";
+	private static final int HEADER_BYTES = 8;
+	private static final int RECORD_HEADER_BYTES = 4 + 8 + 4;
+
+	/**
+	 * Limits of the record format - string lengths are stored as unsigned shorts and tag counts as unsigned bytes
+	 */
+	private static final int MAX_STRING_BYTES = 0xffff;
+	private static final int MAX_TAGS = 0xff;
+
+	/**
+	 * Marks series in {@link #encodedSeries} that cannot be stored
+	 */
+	private static final byte[] UNENCODABLE = new byte[0];
+
+	private final Path directory;
+	private final int segmentBytes;
+	private final long maxBytes;
+	private final int replayPointsPerSecond;
+	private final MetricPathRegistry registry;
+
+	/**
+	 * Sequence numbers of segment files, oldest first
+	 */
+	private final ArrayDeque<Long> segments = new ArrayDeque<>();
+
+	/**
+	 * Newest segment and where the next record goes - null if there is no segment
+	 */
+	private FileChannel writeChannel = null;
+	private int writePos = 0;
+
+	/**
+	 * Oldest segment, where replay continues and where its records end - null if there is no segment. The end is
+	 * only meaningful once the writer moved on to another segment.
+	 */
+	private FileChannel readChannel = null;
+	private int readPos = 0;
+	private int readEnd = 0;
+
+	/**
+	 * Scratch buffer for encoding one record
+	 */
+	private ByteBuffer record = ByteBuffer.allocate(64 * 1024);
+
+	/**
+	 * Scratch buffer for segment headers and record lengths
+	 */
+	private final ByteBuffer scratch = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+
+	/**
+	 * Encoded key and tags of each series, indexed by series id
+	 */
+	private byte[][] encodedSeries = new byte[0][];
+
+	/**
+	 * Replay rate limiting - points that may be replayed right now, refilled over time
+	 */
+	private double replayTokens = 0;
+	private long lastRefillNanos = System.nanoTime();
+
+	private long evictedSegments = 0;
+
+	private boolean closed = false;
+
+	/**
+	 * Batches read by {@link #peek()} and where replay will continue once they are delivered
+	 */
+	public record Replay(@NotNull List<MetricBatch> batches, int points, long segment, int position) {
+	}
+
+	/**
+	 * Open a spool, picking up segments left over from a previous run
+	 *
+	 * @param directory             directory holding segment files, created if missing
+	 * @param segmentBytes          size of one segment file
+	 * @param maxBytes              size cap for all segments together
+	 * @param replayPointsPerSecond replay rate limit
+	 * @param registry              registry to intern replayed series in
+	 * @throws IOException if the directory or existing segments cannot be read
+	 */
+	public Spool(@NotNull Path directory, long segmentBytes, long maxBytes, int replayPointsPerSecond,
+	             @NotNull MetricPathRegistry registry) throws IOException {
+		this.directory = directory;
+		this.segmentBytes = (int) Math.min(Integer.MAX_VALUE, Math.max(64 * 1024, segmentBytes));
+		this.maxBytes = Math.max(this.segmentBytes, maxBytes);
+		this.replayPointsPerSecond = Math.max(1, replayPointsPerSecond);
+		this.registry = registry;
+		Files.createDirectories(directory);
+		try (Stream<Path> files = Files.list(directory)) {
+			files.map(p -> p.getFileName().toString())
+			     .filter(n -> n.endsWith(SUFFIX))
+			     .map(n -> n.substring(0, n.length() - SUFFIX.length()))
+			     .filter(n -> n.chars().allMatch(Character::isDigit) && !n.isEmpty())
+			     .map(Long::parseLong)
+			     .sorted()
+			     .forEach(segments::add);
+		}
+		if (!segments.isEmpty()) {
+			writeChannel = open(segments.getLast());
+			writePos = scanEnd(writeChannel);
+			openReader();
+		}
+	}
+
+	private @NotNull Path pathOf(long segment) {
+		return directory.resolve(String.format("%016d%s", segment, SUFFIX));
+	}
+
+	private @NotNull FileChannel open(long segment) throws IOException {
+		return FileChannel.open(pathOf(segment), StandardOpenOption.CREATE, StandardOpenOption.READ,
+		                        StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Read into the remaining space of a buffer, and flip it
+	 *
+	 * @return false if the segment ends first
+	 */
+	private static boolean readFully(@NotNull FileChannel channel, @NotNull ByteBuffer buf, long position)
+			throws IOException {
+		while (buf.hasRemaining()) {
+			int read = channel.read(buf, position);
+			if (read < 0) {
+				return false;
+			}
+			position += read;
+		}
+		buf.flip();
+		return true;
+	}
+
+	private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buf, long position)
+			throws IOException {
+		while (buf.hasRemaining()) {
+			position += channel.write(buf, position);
+		}
+	}
+
+	/**
+	 * @return the int at a position of a segment, or 0 past its end
+	 */
+	private int readInt(@NotNull FileChannel channel, long position) throws IOException {
+		scratch.clear().limit(4);
+		return readFully(channel, scratch, position) ? scratch.getInt() : 0;
+	}
+
+	private void writeLong(@NotNull FileChannel channel, long position, long value) throws IOException {
+		scratch.clear();
+		scratch.putLong(value).flip();
+		writeFully(channel, scratch, position);
+	}
+
+	/**
+	 * @return position after the last complete record of a segment
+	 */
+	private int scanEnd(@NotNull FileChannel segment) throws IOException {
+		int pos = HEADER_BYTES;
+		while (pos + 4 <= segmentBytes) {
+			int length = readInt(segment, pos);
+			if (length <= 0 || pos + 4 + length > segmentBytes) {
+				break;
+			}
+			pos += 4 + length;
+		}
+		return pos;
+	}
+
+	private void openReader() throws IOException {
+		if (segments.size() == 1) {
+			readChannel = writeChannel;
+		} else {
+			readChannel = open(segments.getFirst());
+			readEnd = scanEnd(readChannel);
+		}
+		scratch.clear().limit(8);
+		long cursor = readFully(readChannel, scratch, 0) ? scratch.getLong() : 0;
+		readPos = (int) Math.max(HEADER_BYTES, Math.min(cursor, segmentBytes));
+	}
+
+	/**
+	 * @return position after the last record the reader may replay
+	 */
+	private int readEnd() {
+		return segments.size() == 1 ? writePos : readEnd;
+	}
+
+	/**
+	 * @return bytes segment files may take, counting each at its maximum size
+	 */
+	public synchronized long sizeBytes() {
+		return (long) segments.size() * segmentBytes;
+	}
+
+	/**
+	 * @return whether there is nothing to replay
+	 */
+	public synchronized boolean isEmpty() {
+		return segments.isEmpty() || (segments.size() == 1 && readPos >= writePos);
+	}
+
+	/**
+	 * @return number of segments evicted by the size cap since the spool was opened
+	 */
+	public synchronized long evictedSegments() {
+		return evictedSegments;
+	}
+
+	/**
+	 * @return key and tags of a series as stored in records, or null if they exceed what the record format can hold
+	 */
+	private byte[] encodedSeriesOf(@NotNull MetricSeries series) {
+		int id = series.id();
+		if (id >= encodedSeries.length) {
+			encodedSeries = Arrays.copyOf(encodedSeries, Math.max(id + 1, encodedSeries.length * 2));
+		}
+		if (encodedSeries[id] == null) {
+			encodedSeries[id] = encodeSeries(series);
+		}
+		return encodedSeries[id] == UNENCODABLE ? null : encodedSeries[id];
+	}
+
+	/**
+	 * @return key and tags of a series as stored in records, or {@link #UNENCODABLE} if a string is longer than
+	 * {@link #MAX_STRING_BYTES} or there are more than {@link #MAX_TAGS} tags
+	 */
+	private static byte @NotNull [] encodeSeries(@NotNull MetricSeries series) {
+		if (series.tags().size() > MAX_TAGS) {
+			return UNENCODABLE;
+		}
+		List<byte[]> strings = new ArrayList<>(1 + 2 * series.tags().size());
+		strings.add(series.key().getBytes(StandardCharsets.UTF_8));
+		series.tags().forEach((k, v) -> {
+			strings.add(k.getBytes(StandardCharsets.UTF_8));
+			strings.add(v.getBytes(StandardCharsets.UTF_8));
+		});
+		int length = 1;
+		for (byte[] string : strings) {
+			if (string.length > MAX_STRING_BYTES) {
+				return UNENCODABLE;
+			}
+			length += 2 + string.length;
+		}
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		putString(buf, strings.get(0));
+		buf.put((byte) series.tags().size());
+		for (int i = 1; i < strings.size(); i++) {
+			putString(buf, strings.get(i));
+		}
+		return buf.array();
+	}
+
+	private static void putString(@NotNull ByteBuffer buf, byte @NotNull [] bytes) {
+		buf.putShort((short) bytes.length);
+		buf.put(bytes);
+	}
+
+	private static @NotNull String getString(@NotNull ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getShort() & 0xffff];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Store batches for later replay. When the size cap is exceeded, the oldest segment is evicted.
+	 *
+	 * @param batches batches in scrape order
+	 * @throws IOException if a new segment cannot be created
+	 */
+	public synchronized void append(@NotNull List<MetricBatch> batches) throws IOException {
+		if (closed) {
+			throw new IOException("Spool at " + directory + " is closed");
+		}
+		int maxRecord = segmentBytes - HEADER_BYTES - 4;
+		for (MetricBatch batch : batches) {
+			record.clear();
+			record.putLong(batch.timestamp());
+			record.putInt(0); /* Point count, patched below */
+			int points = 0;
+			for (int i = 0; i < batch.size(); i++) {
+				byte[] series = encodedSeriesOf(batch.series(i));
+				if (series == null || RECORD_HEADER_BYTES - 4 + series.length + 8 > maxRecord) {
+					/* A single point that doesn't fit into a segment is not worth keeping */
+					continue;
+				}
+				int pointBytes = series.length + 8;
+				if (record.position() + pointBytes > maxRecord) {
+					writeRecord(points);
+					record.clear();
+					record.putLong(batch.timestamp());
+					record.putInt(0);
+					points = 0;
+				}
+				if (record.remaining() < pointBytes) {
+					record = ByteBuffer.allocate(Math.min(maxRecord, record.capacity() * 2)).put(record.flip());
+				}
+				record.put(series);
+				record.putDouble(batch.value(i));
+				points++;
+			}
+			if (points > 0) {
+				writeRecord(points);
+			}
+		}
+	}
+
+	/**
+	 * Write the record in the scratch buffer to the newest segment, starting a new segment if it doesn't fit
+	 */
+	private void writeRecord(int points) throws IOException {
+		record.putInt(8, points);
+		int length = record.position();
+		if (writeChannel == null || writePos + 4 + length > segmentBytes) {
+			startSegment();
+		}
+		writeFully(writeChannel, ByteBuffer.wrap(record.array(), 0, length), writePos + 4);
+		scratch.clear();
+		scratch.putInt(length).flip();
+		writeFully(writeChannel, scratch, writePos);
+		writePos += 4 + length;
+	}
+
+	private void startSegment() throws IOException {
+		long next = segments.isEmpty() ? 1 : segments.getLast() + 1;
+		FileChannel channel = open(next);
+		try {
+			writeLong(channel, 0, HEADER_BYTES);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		segments.addLast(next);
+		if (writeChannel != null && writeChannel != readChannel) {
+			writeChannel.close();
+		} else if (writeChannel != null) {
+			/* The reader stays on the segment the writer leaves, which won't grow any more */
+			readEnd = writePos;
+		}
+		writeChannel = channel;
+		writePos = HEADER_BYTES;
+		if (segments.size() == 1) {
+			openReader();
+		}
+		while (sizeBytes() > maxBytes && segments.size() > 1) {
+			/* The reader is on the oldest segment, and the writer on another one */
+			readChannel.close();
+			readChannel = null;
+			Files.deleteIfExists(pathOf(segments.removeFirst()));
+			evictedSegments++;
+			openReader();
+		}
+	}
+
+	/**
+	 * Read the next batches due for replay, as far as the rate limit allows. Nothing is consumed until
+	 * {@link #commit(Replay)} is called with the result.
+	 *
+	 * @return batches to replay, possibly none
+	 * @throws IOException if the oldest segment cannot be read
+	 */
+	public synchronized @NotNull Replay peek() throws IOException {
+		long now = System.nanoTime();
+		replayTokens = Math.min(replayPointsPerSecond,
+		                        replayTokens + (now - lastRefillNanos) / 1e9 * replayPointsPerSecond);
+		lastRefillNanos = now;
+		List<MetricBatch> batches = new ArrayList<>();
+		if (closed || isEmpty()) {
+			return new Replay(batches, 0, -1, 0);
+		}
+		int end = readEnd();
+		int pos = readPos;
+		int points = 0;
+		while (pos < end) {
+			scratch.clear();
+			if (!readFully(readChannel, scratch, pos)) {
+				break;
+			}
+			int length = scratch.getInt();
+			long timestamp = scratch.getLong();
+			int count = scratch.getInt();
+			if (length < RECORD_HEADER_BYTES - 4 || pos + 4 + length > end) {
+				break;
+			}
+			/* Always let at least one record through so that oversized records can't stall replay */
+			if (points > 0 && points + count > replayTokens) {
+				break;
+			}
+			ByteBuffer view = ByteBuffer.allocate(length - (RECORD_HEADER_BYTES - 4));
+			if (!readFully(readChannel, view, pos + RECORD_HEADER_BYTES)) {
+				break;
+			}
+			MetricBatch batch = new MetricBatch(registry);
+			batch.setTimestamp(timestamp);
+			for (int i = 0; i < count; i++) {
+				String key = getString(view);
+				int tagCount = view.get() & 0xff;
+				Map<String, String> tags = new HashMap<>();
+				for (int t = 0; t < tagCount; t++) {
+					tags.put(getString(view), getString(view));
+				}
+				batch.add(registry.intern(key, tags), view.getDouble());
+			}
+			batches.add(batch);
+			points += count;
+			pos += 4 + length;
+			if (points >= replayTokens) {
+				break;
+			}
+		}
+		return new Replay(batches, points, segments.getFirst(), pos);
+	}
+
+	/**
+	 * Mark batches returned by {@link #peek()} as delivered
+	 *
+	 * @param replay result of peek()
+	 * @throws IOException if the next segment cannot be opened
+	 */
+	public synchronized void commit(@NotNull Replay replay) throws IOException {
+		if (closed || replay.segment() < 0 || segments.isEmpty() || replay.segment() != segments.getFirst()) {
+			/* Segment was evicted meanwhile */
+			return;
+		}
+		replayTokens -= replay.points();
+		readPos = replay.position();
+		writeLong(readChannel, 0, readPos);
+		boolean active = segments.size() == 1;
+		if (readPos < readEnd()) {
+			return;
+		}
+		/* Segment fully replayed - a file can only be deleted everywhere once it is closed */
+		readChannel.close();
+		readChannel = null;
+		Files.deleteIfExists(pathOf(segments.removeFirst()));
+		if (active) {
+			writeChannel = null;
+			writePos = 0;
+			readPos = 0;
+		} else {
+			openReader();
+		}
+	}
+
+	/**
+	 * Flush and close segments. Appending to a closed spool fails, and it has nothing to replay, so that a new spool
+	 * can take over the directory even if a delivery on this one is still in progress.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (readChannel != null && readChannel != writeChannel) {
+			closeQuietly(readChannel);
+		}
+		if (writeChannel != null) {
+			closeQuietly(writeChannel);
+		}
+		readChannel = null;
+		writeChannel = null;
+	}
+
+	private static void closeQuietly(@NotNull FileChannel channel) {
+		try (channel) {
+			channel.force(false);
+		} catch (IOException ignored) {
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package me.cth451.bukkitgraphite.updater;
+
+import me.cth451.bukkitgraphite.PluginMain;
+import me.cth451.bukkitgraphite.encoding.StatsdEncoder;
+import me.cth451.bukkitgraphite.metric.ServerLoginMetric;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * StatsD push over UDP
+ * <p>
+ * Values are sent as gauges, except for keys configured as counters, which are sent as increments. Lines are packed
+ * into datagrams up to the configured MTU and sent without waiting, so a slow or absent aggregator never holds up
+ * updates.
+ */
+public class StatsdUpdater extends NetworkUpdater {
+	public static String ID = "statsd";
+
+	public static final int DEFAULT_PORT = 8125;
+
+	/**
+	 * Keys counted as counters unless configured otherwise
+	 */
+	public static final List<String> DEFAULT_COUNTER_KEYS = List.of(ServerLoginMetric.LOGIN);
+
+	private String host = null;
+	private int port = 0;
+	private int mtu = DatagramPacker.DEFAULT_MTU;
+	private StatsdEncoder encoder = new StatsdEncoder(null, DEFAULT_COUNTER_KEYS);
+
+	/**
+	 * Datagram sender - null if not open yet
+	 */
+	private DatagramPacker packer = null;
+
+	public StatsdUpdater(PluginMain plugin) {
+		super(plugin);
+	}
+
+	private void closePacker() {
+		if (packer == null) {
+			return;
+		}
+		packer.close();
+		packer = null;
+	}
+
+	@Override
+	protected synchronized boolean transmit(@NotNull List<MetricBatch> batches) {
+		if (host == null) {
+			return true;
+		}
+		try {
+			if (packer == null) {
+				packer = new DatagramPacker(new InetSocketAddress(host, port), mtu);
+			}
+			packer.send(batches, encoder, deliveryStats);
+			return true;
+		} catch (IOException e) {
+			closePacker();
+			return false;
+		}
+	}
+
+	@Override
+	public synchronized void halt() {
+		closePacker();
+	}
+
+	@Override
+	public @NotNull String name() {
+		if (host == null) {
+			return "StatsD Updater (no backend)";
+		}
+		return "StatsD Updater at " + host + ":" + port;
+	}
+
+	@Override
+	public @NotNull String type() {
+		return ID;
+	}
+
+	/**
+	 * Load parameters for the StatsD aggregator from configuration.
+	 * <p>
+	 * Here are the possible parameters:
+	 * <ul>
+	 *     <li>host: mandatory, aggregator host domain name / IP address</li>
+	 *     <li>port: optional, aggregator UDP port - defaults to {@value #DEFAULT_PORT}</li>
+	 *     <li>root-namespace: optional, a string for root namespace - omit this option to not use nested namespace</li>
+	 *     <li>mtu: optional, maximum datagram payload in bytes</li>
+	 *     <li>counter-keys: optional, list of metric keys holding cumulative counts, sent as counter increments</li>
+	 * </ul>
+	 * Backoff options are described in {@link NetworkUpdater#configureNetwork(ConfigurationSection)}.
+	 *
+	 * @param section updater specific configuration section
+	 * @return true if configuration is successfully applied, false if configuration has missing mandatory keys
+	 */
+	@Override
+	public synchronized boolean configure(ConfigurationSection section) {
+		if (section == null || !section.isString("host")) {
+			plugin.getLogger().warning(this.name() + ": No host configured - check your config!");
+			return false;
+		}
+		this.configureNetwork(section);
+		int port = section.getInt("port", DEFAULT_PORT);
+		if (port <= 0 || port >= 65536) {
+			plugin.getLogger().warning(this.name() + ": Invalid port specified - check your config!");
+			return false;
+		}
+		closePacker();
+		this.host = section.getString("host");
+		this.port = port;
+		this.mtu = Math.max(64, section.getInt("mtu", DatagramPacker.DEFAULT_MTU));
+		List<String> counterKeys = section.isList("counter-keys") ?
+				section.getStringList("counter-keys") : DEFAULT_COUNTER_KEYS;
+		this.encoder = new StatsdEncoder(section.getString("root-namespace"), counterKeys);
+		plugin.getLogger().info("Using statsd aggregator " + host + ":" + port);
+		return true;
+	}
+}
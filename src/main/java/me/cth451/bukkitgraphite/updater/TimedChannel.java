@@ -0,0 +1,161 @@
+package me.cth451.bukkitgraphite.updater;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking stream socket with bounded connect and write times.
+ * <p>
+ * The channel is kept in non-blocking mode and parks on a private selector whenever the kernel cannot make progress,
+ * so a blackholed or stalled remote costs at most the configured timeout instead of hanging the calling thread.
+ */
+class TimedChannel implements Closeable {
+	private final SocketChannel channel;
+	private final Selector selector;
+	private final SelectionKey key;
+
+	/**
+	 * Last time (System.nanoTime) data was written successfully
+	 */
+	private long lastActiveNanos;
+
+	private TimedChannel(SocketChannel channel, Selector selector, SelectionKey key) {
+		this.channel = channel;
+		this.selector = selector;
+		this.key = key;
+		this.lastActiveNanos = System.nanoTime();
+	}
+
+	/**
+	 * Connect to a remote endpoint
+	 *
+	 * @param address       remote address - either an internet or a unix domain socket address
+	 * @param timeoutMillis maximum time to wait for the connection to be established
+	 * @return connected channel
+	 * @throws IOException if the address cannot be resolved, the connection is refused or the timeout expires
+	 */
+	static @NotNull TimedChannel connect(@NotNull SocketAddress address, long timeoutMillis) throws IOException {
+		if (address instanceof InetSocketAddress inet && inet.isUnresolved()) {
+			throw new IOException("Cannot resolve " + inet.getHostString());
+		}
+		SocketChannel channel = address instanceof UnixDomainSocketAddress ?
+				SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+		Selector selector = null;
+		try {
+			channel.configureBlocking(false);
+			selector = Selector.open();
+			SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT);
+			if (!channel.connect(address)) {
+				long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+				while (!channel.finishConnect()) {
+					long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+					if (remaining <= 0) {
+						throw new SocketTimeoutException("Connect to " + address + " timed out");
+					}
+					selector.select(remaining);
+					selector.selectedKeys().clear();
+				}
+			}
+			key.interestOps(0);
+			return new TimedChannel(channel, selector, key);
+		} catch (IOException | RuntimeException e) {
+			if (selector != null) {
+				selector.close();
+			}
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Write the remaining content of a buffer
+	 *
+	 * @param buf           data to send
+	 * @param timeoutMillis maximum time to wait for the remote to accept all data
+	 * @throws IOException on socket errors or if the timeout expires
+	 */
+	void write(@NotNull ByteBuffer buf, long timeoutMillis) throws IOException {
+		long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+		while (buf.hasRemaining()) {
+			if (channel.write(buf) > 0) {
+				continue;
+			}
+			long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+			if (remaining <= 0) {
+				throw new SocketTimeoutException("Write to " + channel.getRemoteAddress() + " timed out");
+			}
+			key.interestOps(SelectionKey.OP_WRITE);
+			selector.select(remaining);
+			selector.selectedKeys().clear();
+			key.interestOps(0);
+		}
+		lastActiveNanos = System.nanoTime();
+	}
+
+	/**
+	 * Write the remaining content of several buffers, in order, with as few system calls as possible
+	 *
+	 * @param bufs          data to send
+	 * @param timeoutMillis maximum time to wait for the remote to accept all data
+	 * @throws IOException on socket errors or if the timeout expires
+	 */
+	void write(@NotNull ByteBuffer[] bufs, long timeoutMillis) throws IOException {
+		long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+		int first = 0;
+		while (true) {
+			while (first < bufs.length && !bufs[first].hasRemaining()) {
+				first++;
+			}
+			if (first == bufs.length) {
+				break;
+			}
+			if (channel.write(bufs, first, bufs.length - first) > 0) {
+				continue;
+			}
+			long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+			if (remaining <= 0) {
+				throw new SocketTimeoutException("Write to " + channel.getRemoteAddress() + " timed out");
+			}
+			key.interestOps(SelectionKey.OP_WRITE);
+			selector.select(remaining);
+			selector.selectedKeys().clear();
+			key.interestOps(0);
+		}
+		lastActiveNanos = System.nanoTime();
+	}
+
+	/**
+	 * @param timeoutMillis idle threshold
+	 * @return whether nothing has been written for longer than the threshold
+	 */
+	boolean idleLongerThan(long timeoutMillis) {
+		return System.nanoTime() - lastActiveNanos > timeoutMillis * 1_000_000L;
+	}
+
+	boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() {
+		try {
+			selector.close();
+		} catch (IOException ignored) {
+		}
+		try {
+			channel.close();
+		} catch (IOException ignored) {
+		}
+	}
+}
@@ -2,33 +2,96 @@ package me.cth451.bukkitgraphite.updater;
 
 import me.cth451.bukkitgraphite.PluggableModule;
 import me.cth451.bukkitgraphite.PluginMain;
-import me.cth451.bukkitgraphite.metric.model.MetricEntry;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.stats.DeliveryStats;
 import org.bukkit.configuration.ConfigurationSection;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Collection;
+import java.util.List;
 
 /**
  * Bare minimum APIs defining interface to a logging protocol for use with some remote metric service
  */
 public abstract class Updater extends PluggableModule {
+	/**
+	 * Delivery counters of this updater. Send results are filled in by the manager, encoding figures by subclasses.
+	 */
+	protected final DeliveryStats deliveryStats = new DeliveryStats();
+
+	private String instanceId = null;
+
 	protected Updater(PluginMain plugin) {
 		super(plugin);
 	}
 
 	/**
-	 * Transmit a list of metrics to a remote logging service.
+	 * Transmit collected metrics to a remote logging service. Batches are only valid for the duration of the call -
+	 * updaters holding on to a batch must {@link MetricBatch#retain()} it.
 	 *
-	 * @param entryList Collected metrics to send
+	 * @param batches Collected metrics to send, in scrape order
 	 * @return whether update to remote logging service
 	 */
-	public abstract boolean sendUpdates(@NotNull Collection<MetricEntry> entryList);
+	public abstract boolean sendUpdates(@NotNull List<MetricBatch> batches);
+
+	/**
+	 * Whether this updater is currently willing to accept updates. Updaters that are backing off from a failed remote
+	 * return false here and are skipped for the current flush.
+	 *
+	 * @return true if {@link #sendUpdates(List)} should be called
+	 */
+	public boolean isAvailable() {
+		return true;
+	}
+
+	/**
+	 * Deliver whatever this updater still holds back, e.g. points buffered for a larger write. Called once on the
+	 * delivery thread when the updater is about to be halted, so that {@link #halt()} never waits on a backend.
+	 */
+	public void flushPending() {
+	}
+
+	/**
+	 * Whether the backend files data points under their own timestamps, so that data points arriving after newer ones
+	 * still end up in the right place. Backends keeping only the latest value of a series don't, and must not be fed
+	 * replayed data.
+	 *
+	 * @return true if data points may be delivered out of order
+	 */
+	public boolean acceptsOutOfOrder() {
+		return false;
+	}
+
+	/**
+	 * @return delivery counters of this updater
+	 */
+	public final @NotNull DeliveryStats deliveryStats() {
+		return deliveryStats;
+	}
 
 	@Override
 	public abstract @NotNull String name();
 
+	/**
+	 * Kind of updater, as used in the configuration to enable it or to pick the type of an additional instance
+	 *
+	 * @return updater type identifier
+	 */
+	public abstract @NotNull String type();
+
+	/**
+	 * Name this instance was configured under. Defaults to the type, and differs from it for additional instances of
+	 * a type declared with options.updaters.[id].type.
+	 *
+	 * @param instanceId unique identifier of this instance
+	 */
+	public final void setInstanceId(@NotNull String instanceId) {
+		this.instanceId = instanceId;
+	}
+
 	@Override
-	public abstract @NotNull String id();
+	public final @NotNull String id() {
+		return instanceId == null ? type() : instanceId;
+	}
 
 	@Override
 	public String component() {
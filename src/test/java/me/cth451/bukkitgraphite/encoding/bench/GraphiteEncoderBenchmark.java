@@ -0,0 +1,87 @@
+package me.cth451.bukkitgraphite.encoding.bench;
+
+import me.cth451.bukkitgraphite.encoding.GraphitePlaintextEncoder;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricEntry;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare string based Graphite plaintext encoding of a list of entries against the buffer encoder reading a
+ * columnar batch.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=me.cth451.bukkitgraphite.encoding.bench.GraphiteEncoderBenchmark}, or from the IDE. Add
+ * {@code -prof gc} to the JMH arguments to compare allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GraphiteEncoderBenchmark {
+    private static final String NAMESPACE = "minecraft";
+
+    @Param({"100", "5000"})
+    public int series;
+
+    private List<MetricEntry> entries;
+    private MetricBatch batch;
+    private GraphitePlaintextEncoder encoder;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        entries = new ArrayList<>(series);
+        batch = new MetricBatch(MetricPathRegistry.global());
+        Instant now = Instant.now();
+        for (int i = 0; i < series; i++) {
+            MetricSeries s = MetricPathRegistry.global().intern("server.entity", Map.of("world", "world_" + i));
+            entries.add(new MetricEntry(s, i * 1.5, now));
+            batch.add(s, i * 1.5);
+        }
+        encoder = new GraphitePlaintextEncoder(NAMESPACE);
+        buffer = ByteBuffer.allocateDirect(64 * 1024);
+    }
+
+    /**
+     * String concatenation followed by re-encoding, as done before the buffer encoder existed
+     */
+    @Benchmark
+    public void stringJoin(Blackhole bh) {
+        String payload = String.join("\n", entries.stream().map(e -> e.toGraphite(NAMESPACE)).toList());
+        bh.consume(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void bufferEncoder(Blackhole bh) {
+        buffer.clear();
+        for (int i = 0; i < batch.size(); i++) {
+            if (!encoder.encode(batch, i, buffer)) {
+                /* Pretend the buffer has been flushed to the socket */
+                bh.consume(buffer.position());
+                buffer.clear();
+                encoder.encode(batch, i, buffer);
+            }
+        }
+        bh.consume(buffer.position());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(GraphiteEncoderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,187 @@
+package me.cth451.bukkitgraphite.encoding.test;
+
+import me.cth451.bukkitgraphite.encoding.AsciiFormatter;
+import me.cth451.bukkitgraphite.encoding.EncodedPayload;
+import me.cth451.bukkitgraphite.encoding.GraphitePickleEncoder;
+import me.cth451.bukkitgraphite.encoding.GraphitePlaintextEncoder;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GraphiteEncoderTest {
+    private static String formatDouble(double v) {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        AsciiFormatter.putDouble(buf, v);
+        return new String(buf.array(), 0, buf.position(), StandardCharsets.US_ASCII);
+    }
+
+    private static String formatLong(long v) {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        AsciiFormatter.putLong(buf, v);
+        return new String(buf.array(), 0, buf.position(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testLongFormat() {
+        assertEquals("0", formatLong(0));
+        assertEquals("7", formatLong(7));
+        assertEquals("-42", formatLong(-42));
+        assertEquals("1666000000", formatLong(1666000000L));
+        assertEquals(Long.toString(Long.MAX_VALUE), formatLong(Long.MAX_VALUE));
+        assertEquals(Long.toString(Long.MIN_VALUE), formatLong(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testDoubleFormat() {
+        assertEquals("0", formatDouble(0.0));
+        assertEquals("20", formatDouble(20.0));
+        assertEquals("-3", formatDouble(-3.0));
+        assertEquals("19.97", formatDouble(19.97));
+        assertEquals("0.5", formatDouble(0.5));
+        assertEquals("-0.125", formatDouble(-0.125));
+        assertEquals("nan", formatDouble(Double.NaN));
+        assertEquals("inf", formatDouble(Double.POSITIVE_INFINITY));
+        assertEquals("-inf", formatDouble(Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void testDoubleSignificantDigits() {
+        assertEquals("0.000123456789012345", formatDouble(0.000123456789012345));
+        assertEquals("0.333333333333333", formatDouble(1.0 / 3));
+        assertEquals("3.14159265358979", formatDouble(Math.PI));
+        assertEquals("1", formatDouble(0.9999999999999999));
+        assertEquals("1e20", formatDouble(9.9999999999999999e19));
+    }
+
+    @Test
+    public void testDoubleRoundTrip() {
+        double[] values = {Math.PI, 1.0 / 3, 123456.789, 1e-7, -2.5e-9, 3.3e16 + 0.5, 1e300, 4.9e-324, 0.0001, 999999999999999.9};
+        for (double v : values) {
+            double parsed = Double.parseDouble(formatDouble(v));
+            assertEquals(v, parsed, Math.abs(v) * 1e-14);
+        }
+    }
+
+    @Test
+    public void testEncodeMatchesStringPath() {
+        MetricPathRegistry registry = new MetricPathRegistry();
+        MetricBatch batch = new MetricBatch(registry);
+        batch.setTimestamp(1666000000123L);
+        batch.add(registry.intern("server.entity", Map.of("world", "world_nether")), 42.0);
+        batch.add(registry.intern("server.tps"), 19.5);
+        GraphitePlaintextEncoder encoder = new GraphitePlaintextEncoder("minecraft");
+        ByteBuffer buf = ByteBuffer.allocateDirect(256);
+        assertTrue(encoder.encode(batch, 0, buf));
+        assertTrue(encoder.encode(batch, 1, buf));
+        buf.flip();
+        byte[] out = new byte[buf.remaining()];
+        buf.get(out);
+        assertEquals("minecraft.server.entity;world=world_nether 42 1666000000\n" +
+                     "minecraft.server.tps 19.5 1666000000\n",
+                     new String(out, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEncodeRejectsWhenFull() {
+        MetricPathRegistry registry = new MetricPathRegistry();
+        MetricBatch batch = new MetricBatch(registry);
+        batch.add(registry.intern("server.tps"), 20.0);
+        GraphitePlaintextEncoder encoder = new GraphitePlaintextEncoder(null);
+        ByteBuffer buf = ByteBuffer.allocate(16);
+        assertFalse(encoder.encode(batch, 0, buf));
+        assertEquals(0, buf.position());
+    }
+
+    @Test
+    public void testPickleFrame() {
+        MetricPathRegistry registry = new MetricPathRegistry();
+        MetricBatch batch = new MetricBatch(registry);
+        batch.setTimestamp(1700000000000L);
+        batch.add(registry.intern("x"), 2.5);
+        GraphitePickleEncoder encoder = new GraphitePickleEncoder("mc");
+        ByteBuffer buf = ByteBuffer.allocate(256);
+        encoder.beginFrame(buf);
+        assertTrue(encoder.encode(batch, 0, buf));
+        encoder.endFrame(buf);
+        /* pickle.loads() of the payload gives [('mc.x', (1700000000, 2.5))] */
+        byte[] expected = HexFormat.of().parseHex(
+                "0000001f80025d2858040000006d632e784a00f153654740040000000000008686652e");
+        assertArrayEquals(expected, Arrays.copyOf(buf.array(), buf.position()));
+    }
+
+    @Test
+    public void testPickleReservesFooter() {
+        MetricPathRegistry registry = new MetricPathRegistry();
+        MetricBatch batch = new MetricBatch(registry);
+        batch.add(registry.intern("x"), 2.5);
+        GraphitePickleEncoder encoder = new GraphitePickleEncoder(null);
+        ByteBuffer buf = ByteBuffer.allocate(8 + 26 + 1);
+        encoder.beginFrame(buf);
+        assertFalse(encoder.encode(batch, 0, buf));
+        assertEquals(8, buf.position());
+    }
+
+    @Test
+    public void testPayloadSplitsFrames() {
+        MetricPathRegistry registry = new MetricPathRegistry();
+        MetricBatch batch = new MetricBatch(registry);
+        batch.setTimestamp(1_700_000_000_000L);
+        for (int i = 0; i < 3; i++) {
+            batch.add(registry.intern("mc.s" + i), i);
+        }
+        /* "mc.s0 0 1700000000\n" is 19 bytes, and the encoder wants room for the longest possible line on top */
+        EncodedPayload payload = EncodedPayload.encode(batch, new GraphitePlaintextEncoder(null),
+                                                       ByteBuffer.allocate(19 + 5 + 24 + 20 + 3));
+        assertEquals(3, payload.points());
+        assertEquals(0, payload.skipped());
+        assertEquals(2, payload.frameCount());
+        assertEquals(57, payload.bytes());
+        List<ByteBuffer> frames = new ArrayList<>();
+        payload.framesTo(frames);
+        StringBuilder text = new StringBuilder();
+        for (ByteBuffer frame : frames) {
+            text.append(StandardCharsets.US_ASCII.decode(frame));
+        }
+        assertEquals("mc.s0 0 1700000000\nmc.s1 1 1700000000\nmc.s2 2 1700000000\n", text.toString());
+    }
+
+    @Test
+    public void testPayloadSharedThroughBatch() {
+        MetricPathRegistry registry = new MetricPathRegistry();
+        MetricBatch batch = new MetricBatch(registry);
+        batch.add(registry.intern("mc.x"), 1);
+        AtomicInteger encoded = new AtomicInteger();
+        GraphitePlaintextEncoder encoder = new GraphitePlaintextEncoder("ns");
+        ByteBuffer scratch = ByteBuffer.allocate(1024);
+        EncodedPayload first = batch.derive("plaintext", b -> {
+            encoded.incrementAndGet();
+            return EncodedPayload.encode(b, encoder, scratch);
+        });
+        EncodedPayload second = batch.derive("plaintext", b -> {
+            encoded.incrementAndGet();
+            return EncodedPayload.encode(b, encoder, scratch);
+        });
+        assertSame(first, second);
+        assertEquals(1, encoded.get());
+
+        /* The payload goes away with the batch, unless someone still holds it */
+        first.retain();
+        batch.release();
+        List<ByteBuffer> frames = new ArrayList<>();
+        first.framesTo(frames);
+        assertEquals(1, frames.size());
+        first.release();
+        assertThrows(IllegalStateException.class, () -> first.framesTo(frames));
+    }
+}
@@ -0,0 +1,57 @@
+package me.cth451.bukkitgraphite.encoding.test;
+
+import me.cth451.bukkitgraphite.encoding.StatsdEncoder;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StatsdEncoderTest {
+    private final MetricPathRegistry registry = new MetricPathRegistry();
+    private final StatsdEncoder encoder = new StatsdEncoder("mc", List.of("server.login"));
+
+    private String encode(String key, double value) {
+        MetricBatch batch = new MetricBatch(registry);
+        batch.add(registry.intern(key, Map.of()), value);
+        ByteBuffer buf = ByteBuffer.allocate(256);
+        assertTrue(encoder.encode(batch, 0, buf));
+        return new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testGauges() {
+        assertEquals("mc.server.tps:19.5|g\n", encode("server.tps", 19.5));
+        assertEquals("mc.server.mspt:0|g\nmc.server.mspt:-2|g\n", encode("server.mspt", -2));
+        assertEquals("", encode("server.tps", Double.NaN));
+    }
+
+    @Test
+    public void testCountersAsDeltas() {
+        assertEquals("", encode("server.login", 10));
+        assertEquals("mc.server.login:5|c\n", encode("server.login", 15));
+        assertEquals("", encode("server.login", 15));
+        /* Counter went backwards - treat as reset */
+        assertEquals("mc.server.login:3|c\n", encode("server.login", 3));
+    }
+
+    @Test
+    public void testRejectsWhenFull() {
+        MetricBatch batch = new MetricBatch(registry);
+        batch.add(registry.intern("server.login"), 1);
+        batch.add(registry.intern("server.login"), 2);
+        ByteBuffer buf = ByteBuffer.allocate(256);
+        assertTrue(encoder.encode(batch, 0, buf));
+        ByteBuffer small = ByteBuffer.allocate(8);
+        assertFalse(encoder.encode(batch, 1, small));
+        assertEquals(0, small.position());
+        /* Baseline is untouched by the rejected attempt */
+        assertTrue(encoder.encode(batch, 1, buf));
+        assertEquals("mc.server.login:1|c\n", new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8));
+    }
+}
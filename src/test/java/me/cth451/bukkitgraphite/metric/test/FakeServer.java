@@ -0,0 +1,127 @@
+package me.cth451.bukkitgraphite.metric.test;
+
+import org.bukkit.Bukkit;
+import org.bukkit.GameMode;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Just enough of a server to drive metric groups from tests. Server, worlds, entities and players are proxies
+ * answering the methods they are given, and zero, false or null otherwise. Bukkit only takes one server per JVM, so all
+ * tests share it and register the worlds they need.
+ */
+final class FakeServer {
+    static final List<World> worlds = new CopyOnWriteArrayList<>();
+    static final List<Player> players = new CopyOnWriteArrayList<>();
+
+    private FakeServer() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T fake(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Function<Object[], Object> answer = answers.get(method.getName());
+            if (answer != null) {
+                return answer.apply(args);
+            }
+            return switch (method.getName()) {
+                case "equals" -> proxy == args[0];
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "toString" -> type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                default -> zero(method.getReturnType());
+            };
+        });
+    }
+
+    private static Object zero(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0.0;
+        }
+        return null;
+    }
+
+    static synchronized void install() {
+        if (Bukkit.getServer() != null) {
+            return;
+        }
+        Bukkit.setServer(fake(Server.class, Map.of(
+                "getWorlds", args -> new ArrayList<>(worlds),
+                "getOnlinePlayers", args -> new ArrayList<>(players),
+                "getLogger", args -> Logger.getLogger("FakeServer")
+        )));
+    }
+
+    /**
+     * @param name     world name
+     * @param entities entity list of the world, read whenever the world is asked for it
+     * @return a world that is not registered with the server yet
+     */
+    static World world(String name, List<Entity> entities) {
+        UUID uid = UUID.randomUUID();
+        return fake(World.class, Map.of(
+                "getName", args -> name,
+                "getUID", args -> uid,
+                "getEntities", args -> new ArrayList<>(entities),
+                "getEntityCount", args -> entities.size(),
+                "getForceLoadedChunks", args -> List.of()
+        ));
+    }
+
+    static Entity entity(World world, EntityType type) {
+        return fake(Entity.class, Map.of(
+                "getWorld", args -> world,
+                "getType", args -> type
+        ));
+    }
+
+    static Player player(World world, GameMode mode, boolean op) {
+        UUID uid = UUID.randomUUID();
+        return fake(Player.class, Map.of(
+                "getUniqueId", args -> uid,
+                "getWorld", args -> world,
+                "getGameMode", args -> mode,
+                "isOp", args -> op
+        ));
+    }
+
+    /**
+     * Call the event handlers of a listener for an event, as the plugin manager would
+     *
+     * @param listener listener with event handlers
+     * @param event    event to call them with
+     */
+    static void fire(Listener listener, Object event) {
+        for (Method m : listener.getClass().getDeclaredMethods()) {
+            if (m.isAnnotationPresent(EventHandler.class) && m.getParameterTypes()[0].isInstance(event)) {
+                m.setAccessible(true);
+                try {
+                    m.invoke(listener, event);
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+    }
+}
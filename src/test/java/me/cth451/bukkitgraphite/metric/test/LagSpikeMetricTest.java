@@ -0,0 +1,86 @@
+package me.cth451.bukkitgraphite.metric.test;
+
+import me.cth451.bukkitgraphite.metric.LagSpikeMetric;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LagSpikeMetricTest {
+    private final MetricPathRegistry registry = MetricPathRegistry.global();
+
+    private static StackTraceElement[] stack(String... classes) {
+        StackTraceElement[] stack = new StackTraceElement[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            stack[i] = new StackTraceElement(classes[i], "tick", null, -1);
+        }
+        return stack;
+    }
+
+    private static double valueOf(MetricBatch batch, MetricSeries series) {
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.series(i) == series) {
+                return batch.value(i);
+            }
+        }
+        return Double.NaN;
+    }
+
+    private double samplesOf(MetricBatch batch, String plugin) {
+        return valueOf(batch, registry.intern(LagSpikeMetric.SAMPLES, Map.of("plugin", plugin)));
+    }
+
+    @Test
+    public void testAttributesToLongestPrefix() {
+        LagSpikeMetric metric = new LagSpikeMetric(null);
+        metric.setPluginPackages(Map.of("com.example.", "Outer", "com.example.inner.", "Inner"));
+
+        /* The topmost plugin frame decides, whatever is above it */
+        metric.record(1, stack("java.lang.Thread", "com.example.inner.Task", "com.example.Main"));
+        metric.record(1, stack("com.example.Main", "com.example.inner.Task"));
+        metric.record(1, stack("com.example.innerfoo.Task"));
+        /* Nothing but server frames */
+        metric.record(1, stack("net.minecraft.server.MinecraftServer", "java.lang.Thread"));
+
+        MetricBatch batch = new MetricBatch(registry);
+        metric.scrape(batch);
+        assertEquals(1.0, samplesOf(batch, "Inner"));
+        assertEquals(2.0, samplesOf(batch, "Outer"));
+        assertEquals(1.0, samplesOf(batch, "server"));
+        assertEquals(1.0, valueOf(batch, registry.intern(LagSpikeMetric.FRAME_SAMPLES,
+                                                         Map.of("frame", "com.example.Main.tick"))));
+    }
+
+    @Test
+    public void testCountsSpikesOncePerTick() {
+        LagSpikeMetric metric = new LagSpikeMetric(null);
+        MetricSeries spikes = registry.intern(LagSpikeMetric.SPIKES);
+
+        /* Two samples of one slow tick, then one sample each of two more */
+        metric.record(10, stack("net.minecraft.server.MinecraftServer"));
+        metric.record(10, stack("net.minecraft.server.MinecraftServer"));
+        metric.record(20, stack("net.minecraft.server.MinecraftServer"));
+        metric.record(30, stack("net.minecraft.server.MinecraftServer"));
+
+        MetricBatch batch = new MetricBatch(registry);
+        metric.scrape(batch);
+        assertEquals(3.0, valueOf(batch, spikes));
+        assertEquals(4.0, samplesOf(batch, "server"));
+
+        /* A spike still going on at the scrape isn't counted again, and counts start over */
+        metric.record(30, stack("net.minecraft.server.MinecraftServer"));
+        batch = new MetricBatch(registry);
+        metric.scrape(batch);
+        assertEquals(0.0, valueOf(batch, spikes));
+        assertEquals(1.0, samplesOf(batch, "server"));
+
+        /* Plugins once seen keep being reported */
+        batch = new MetricBatch(registry);
+        metric.scrape(batch);
+        assertEquals(0.0, samplesOf(batch, "server"));
+    }
+}
@@ -1,7 +1,12 @@
 package me.cth451.bukkitgraphite.metric.test;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricBatchPool;
 import me.cth451.bukkitgraphite.metric.model.MetricPath;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.metric.model.MetricSeries;
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -20,8 +25,128 @@ public class MetricTest {
           Map.entry("gamemode", "creative")
         );
         MetricPath path = new MetricPath("minecraft.player.active", tags);
-        String possible1 = "minecraft.player.active;world=minecraft:overworld;gamemode=creative";
-        String possible2 = "minecraft.player.active;gamemode=creative;world=minecraft:overworld";
-        assertTrue(possible1.equals(path.toGraphite()) || possible2.equals(path.toGraphite()));
+        assertEquals("minecraft.player.active;gamemode=creative;world=minecraft:overworld", path.toGraphite());
+    }
+
+    @Test
+    public void testPrometheusMetricPath() {
+        Map<String, String> tags = Map.ofEntries(
+          Map.entry("world", "the \"end\""),
+          Map.entry("gamemode", "creative")
+        );
+        MetricPath path = new MetricPath("player.active", tags);
+        assertEquals("player_active", path.toPrometheusName());
+        assertEquals("{gamemode=\"creative\",world=\"the \\\"end\\\"\"}", path.toPrometheusLabels());
+        assertEquals("", new MetricPath("server.tps", null).toPrometheusLabels());
+    }
+
+    @Test
+    public void testRegistryInterning() {
+        MetricPathRegistry registry = new MetricPathRegistry();
+        Map<String, String> tags1 = new HashMap<>();
+        tags1.put("world", "world");
+        tags1.put("gamemode", "SURVIVAL");
+        Map<String, String> tags2 = new LinkedHashMap<>();
+        tags2.put("gamemode", "SURVIVAL");
+        tags2.put("world", "world");
+
+        MetricSeries a = registry.intern("player.active", tags1);
+        MetricSeries b = registry.intern("player.active", tags2);
+        MetricSeries c = registry.intern("server.tps");
+        assertSame(a, b);
+        assertNotSame(a, c);
+        assertEquals(0, a.id());
+        assertEquals(1, c.id());
+        assertEquals(2, registry.size());
+        assertSame(c, registry.get(c.id()));
+        assertEquals("player.active;gamemode=SURVIVAL;world=world",
+                     new String(a.graphite(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRegistryGrows() {
+        MetricPathRegistry registry = new MetricPathRegistry();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, registry.intern("server.entity", Map.of("world", "w" + i)).id());
+        }
+        assertEquals("server.entity;world=w999", registry.get(999).toString());
+    }
+
+    @Test
+    public void testBatchGrowsAndMerges() {
+        MetricPathRegistry registry = new MetricPathRegistry();
+        MetricBatch a = new MetricBatch(registry);
+        for (int i = 0; i < 200; i++) {
+            a.add(registry.intern("server.entity", Map.of("world", "w" + i)), i);
+        }
+        MetricBatch b = new MetricBatch(registry);
+        b.add(registry.intern("server.tps"), 20.0);
+        b.addAll(a);
+        assertEquals(201, b.size());
+        assertEquals("server.tps", b.series(0).key());
+        assertEquals(199.0, b.value(200));
+        assertEquals(a.seriesId(199), b.seriesId(200));
+    }
+
+    @Test
+    public void testMergeLatest() {
+        MetricPathRegistry registry = new MetricPathRegistry();
+        MetricSeries tps = registry.intern("server.tps");
+        MetricSeries players = registry.intern("server.players");
+        MetricBatch merged = new MetricBatch(registry);
+        merged.setTimestamp(1000);
+        merged.add(tps, 20);
+        merged.add(players, 3);
+
+        MetricBatch later = new MetricBatch(registry);
+        later.setTimestamp(2000);
+        later.add(players, 4);
+        /* Series interned after the index was sized */
+        later.add(registry.intern("server.entity", Map.of("world", "w")), 7);
+        merged.mergeLatest(later);
+
+        MetricBatch latest = new MetricBatch(registry);
+        latest.setTimestamp(3000);
+        latest.add(registry.intern("server.entity", Map.of("world", "w")), 8);
+        merged.mergeLatest(latest);
+
+        assertEquals(3, merged.size());
+        assertEquals(20, merged.value(0));
+        assertEquals(4, merged.value(1));
+        assertEquals(8, merged.value(2));
+        assertEquals(3000, merged.timestamp());
+
+        /* An older batch arriving late does not overwrite newer values */
+        merged.mergeLatest(later);
+        assertEquals(3, merged.size());
+        assertEquals(8, merged.value(2));
+        assertEquals(3000, merged.timestamp());
+
+        /* Plain appends after a merge start a new index on the next merge */
+        merged.add(registry.intern("server.chunk"), 1);
+        MetricBatch last = new MetricBatch(registry);
+        last.setTimestamp(4000);
+        last.add(registry.intern("server.chunk"), 2);
+        last.add(registry.intern("server.entity", Map.of("world", "w")), 9);
+        merged.mergeLatest(last);
+        assertEquals(4, merged.size());
+        assertEquals(9, merged.value(2));
+        assertEquals(2, merged.value(3));
+        assertEquals(4000, merged.timestamp());
+    }
+
+    @Test
+    public void testBatchPoolRecycles() {
+        MetricPathRegistry registry = new MetricPathRegistry();
+        MetricBatchPool pool = new MetricBatchPool(registry, 4);
+        MetricBatch batch = pool.acquire();
+        batch.add(registry.intern("server.tps"), 20.0);
+        batch.retain();
+        batch.release();
+        assertNotSame(batch, pool.acquire());
+        batch.release();
+        MetricBatch reused = pool.acquire();
+        assertSame(batch, reused);
+        assertTrue(reused.isEmpty());
     }
 }
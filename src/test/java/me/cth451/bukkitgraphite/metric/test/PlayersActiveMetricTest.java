@@ -0,0 +1,157 @@
+package me.cth451.bukkitgraphite.metric.test;
+
+import me.cth451.bukkitgraphite.metric.PlayersActiveMetric;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import net.kyori.adventure.text.Component;
+import org.bukkit.GameMode;
+import org.bukkit.World;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerGameModeChangeEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PlayersActiveMetricTest {
+    private final MetricPathRegistry registry = MetricPathRegistry.global();
+
+    /**
+     * @return players by world and game mode, e.g. "world/CREATIVE", and online operators under "op"
+     */
+    private Map<String, Double> scrape(PlayersActiveMetric metric, String... worlds) {
+        MetricBatch batch = new MetricBatch(registry);
+        metric.scrape(batch);
+        Map<String, Double> counts = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Map<String, String> tags = batch.series(i).tags();
+            if (batch.series(i).key().equals(PlayersActiveMetric.OP)) {
+                counts.put("op", batch.value(i));
+            } else if (List.of(worlds).contains(tags.get("world")) && batch.value(i) != 0) {
+                counts.put(tags.get("world") + "/" + tags.get("gamemode"), batch.value(i));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * A player whose world, game mode and operator status can change under the metric's feet
+     */
+    private static Player player(AtomicReference<World> world, AtomicReference<GameMode> mode, AtomicBoolean op) {
+        UUID uid = UUID.randomUUID();
+        return FakeServer.fake(Player.class, Map.of(
+                "getUniqueId", args -> uid,
+                "getWorld", args -> world.get(),
+                "getGameMode", args -> mode.get(),
+                "isOp", args -> op.get()
+        ));
+    }
+
+    @Test
+    public void testFollowsWorldsLoadingAndUnloading() {
+        FakeServer.install();
+        World world = FakeServer.world("test-players-worlds", List.of());
+        PlayersActiveMetric metric = new PlayersActiveMetric(null);
+        MetricBatch batch = new MetricBatch(registry);
+        metric.scrape(batch);
+        assertEquals(1, batch.size());
+
+        /* Reported with no players as soon as it loads */
+        FakeServer.fire(metric, new WorldLoadEvent(world));
+        batch = new MetricBatch(registry);
+        metric.scrape(batch);
+        assertEquals(1 + GameMode.values().length, batch.size());
+
+        Player player = FakeServer.player(world, GameMode.CREATIVE, true);
+        FakeServer.fire(metric, new PlayerJoinEvent(player, (Component) null));
+        assertEquals(Map.of("op", 1.0, "test-players-worlds/CREATIVE", 1.0),
+                     scrape(metric, "test-players-worlds"));
+        FakeServer.fire(metric, new PlayerQuitEvent(player, (Component) null));
+
+        /* Gone once it unloads, along with anyone still accounted there */
+        Player stale = FakeServer.player(world, GameMode.SURVIVAL, true);
+        FakeServer.fire(metric, new PlayerJoinEvent(stale, (Component) null));
+        FakeServer.fire(metric, new WorldUnloadEvent(world));
+        batch = new MetricBatch(registry);
+        metric.scrape(batch);
+        assertEquals(1, batch.size());
+        assertEquals(0.0, batch.value(0));
+        FakeServer.fire(metric, new PlayerQuitEvent(stale, (Component) null));
+        assertEquals(Map.of("op", 0.0), scrape(metric, "test-players-worlds"));
+    }
+
+    @Test
+    public void testFollowsPlayersBetweenWorldsAndGameModes() {
+        FakeServer.install();
+        World overworld = FakeServer.world("test-players-overworld", List.of());
+        World nether = FakeServer.world("test-players-nether", List.of());
+        PlayersActiveMetric metric = new PlayersActiveMetric(null);
+        FakeServer.fire(metric, new WorldLoadEvent(overworld));
+        FakeServer.fire(metric, new WorldLoadEvent(nether));
+
+        AtomicReference<World> world = new AtomicReference<>(overworld);
+        AtomicReference<GameMode> mode = new AtomicReference<>(GameMode.SURVIVAL);
+        Player player = player(world, mode, new AtomicBoolean(false));
+        FakeServer.fire(metric, new PlayerJoinEvent(player, (Component) null));
+        assertEquals(Map.of("op", 0.0, "test-players-overworld/SURVIVAL", 1.0),
+                     scrape(metric, "test-players-overworld", "test-players-nether"));
+
+        /* The world has changed by the time the event fires */
+        world.set(nether);
+        FakeServer.fire(metric, new PlayerChangedWorldEvent(player, overworld));
+        assertEquals(Map.of("op", 0.0, "test-players-nether/SURVIVAL", 1.0),
+                     scrape(metric, "test-players-overworld", "test-players-nether"));
+
+        /* The game mode hasn't changed yet when the event fires, so the new one comes from the event */
+        FakeServer.fire(metric, new PlayerGameModeChangeEvent(player, GameMode.CREATIVE,
+                                                              PlayerGameModeChangeEvent.Cause.COMMAND, null));
+        assertEquals(Map.of("op", 0.0, "test-players-nether/CREATIVE", 1.0),
+                     scrape(metric, "test-players-overworld", "test-players-nether"));
+        FakeServer.fire(metric, new PlayerQuitEvent(player, (Component) null));
+        assertEquals(Map.of("op", 0.0), scrape(metric, "test-players-overworld", "test-players-nether"));
+    }
+
+    @Test
+    public void testReconcileCorrectsDrift() throws InterruptedException {
+        FakeServer.install();
+        World world = FakeServer.world("test-players-drift", List.of());
+        PlayersActiveMetric metric = new PlayersActiveMetric(null);
+        MemoryConfiguration section = new MemoryConfiguration();
+        section.set("reconcile-interval-ms", 1000);
+        assertTrue(metric.configure(section));
+        FakeServer.fire(metric, new WorldLoadEvent(world));
+
+        AtomicBoolean op = new AtomicBoolean(false);
+        Player player = player(new AtomicReference<>(world), new AtomicReference<>(GameMode.SURVIVAL), op);
+        Player unseen = FakeServer.player(world, GameMode.ADVENTURE, false);
+        FakeServer.worlds.add(world);
+        FakeServer.players.add(player);
+        try {
+            FakeServer.fire(metric, new PlayerJoinEvent(player, (Component) null));
+            /* Opped without any event, and a join that was never seen */
+            op.set(true);
+            FakeServer.players.add(unseen);
+            assertEquals(Map.of("op", 0.0, "test-players-drift/SURVIVAL", 1.0),
+                         scrape(metric, "test-players-drift"));
+
+            Thread.sleep(1100);
+            assertEquals(Map.of("op", 1.0, "test-players-drift/SURVIVAL", 1.0, "test-players-drift/ADVENTURE", 1.0),
+                         scrape(metric, "test-players-drift"));
+        } finally {
+            FakeServer.players.removeAll(List.of(player, unseen));
+            FakeServer.worlds.remove(world);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package me.cth451.bukkitgraphite.metric.test;
+
+import com.destroystokyo.paper.event.entity.EntityAddToWorldEvent;
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
+import me.cth451.bukkitgraphite.metric.ServerLoadedMetric;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerLoadedMetricTest {
+    private final MetricPathRegistry registry = MetricPathRegistry.global();
+
+    private Map<String, Double> byType(ServerLoadedMetric metric, String world) {
+        MetricBatch batch = new MetricBatch(registry);
+        metric.scrape(batch);
+        Map<String, Double> counts = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.series(i).key().equals(ServerLoadedMetric.ENTITY_BY_TYPE) &&
+                    batch.series(i).tags().get("world").equals(world)) {
+                counts.put(batch.series(i).tags().get("type"), batch.value(i));
+            }
+        }
+        return counts;
+    }
+
+    @Test
+    public void testCountsEntitiesFromEvents() {
+        FakeServer.install();
+        List<Entity> entities = new ArrayList<>();
+        World world = FakeServer.world("test-loaded-events", entities);
+        entities.add(FakeServer.entity(world, EntityType.ZOMBIE));
+        entities.add(FakeServer.entity(world, EntityType.ZOMBIE));
+        FakeServer.worlds.add(world);
+        try {
+            ServerLoadedMetric metric = new ServerLoadedMetric(null);
+
+            /* Entities already there are counted when the world loads, later ones from events */
+            FakeServer.fire(metric, new WorldLoadEvent(world));
+            FakeServer.fire(metric, new EntityAddToWorldEvent(FakeServer.entity(world, EntityType.ITEM)));
+            FakeServer.fire(metric, new EntityAddToWorldEvent(FakeServer.entity(world, EntityType.ZOMBIE)));
+            FakeServer.fire(metric, new EntityRemoveFromWorldEvent(FakeServer.entity(world, EntityType.ITEM)));
+            assertEquals(Map.of("zombie", 3.0, "item", 0.0), byType(metric, "test-loaded-events"));
+
+            /* Removals never go below zero */
+            FakeServer.fire(metric, new EntityRemoveFromWorldEvent(FakeServer.entity(world, EntityType.ITEM)));
+            assertEquals(Map.of("zombie", 3.0, "item", 0.0), byType(metric, "test-loaded-events"));
+        } finally {
+            FakeServer.worlds.remove(world);
+        }
+    }
+
+    @Test
+    public void testIgnoresEventsOfUnloadedWorlds() {
+        FakeServer.install();
+        World world = FakeServer.world("test-loaded-unload", List.of());
+        ServerLoadedMetric metric = new ServerLoadedMetric(null);
+        FakeServer.worlds.add(world);
+        FakeServer.fire(metric, new WorldLoadEvent(world));
+        FakeServer.fire(metric, new EntityAddToWorldEvent(FakeServer.entity(world, EntityType.ZOMBIE)));
+        assertEquals(Map.of("zombie", 1.0), byType(metric, "test-loaded-unload"));
+
+        /* Chunks of an unloaded world keep removing entities, which must not bring its counters back */
+        FakeServer.fire(metric, new WorldUnloadEvent(world));
+        FakeServer.worlds.remove(world);
+        FakeServer.fire(metric, new EntityRemoveFromWorldEvent(FakeServer.entity(world, EntityType.ZOMBIE)));
+        FakeServer.fire(metric, new EntityAddToWorldEvent(FakeServer.entity(world, EntityType.ZOMBIE)));
+
+        /* Loading it again starts over from its entity list */
+        FakeServer.worlds.add(world);
+        try {
+            FakeServer.fire(metric, new WorldLoadEvent(world));
+            assertEquals(Map.of(), byType(metric, "test-loaded-unload"));
+        } finally {
+            FakeServer.worlds.remove(world);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package me.cth451.bukkitgraphite.metric.test;
+
+import com.destroystokyo.paper.event.server.ServerTickEndEvent;
+import com.destroystokyo.paper.event.server.ServerTickStartEvent;
+import me.cth451.bukkitgraphite.metric.TickDurationMetric;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TickDurationMetricTest {
+    private final MetricPathRegistry registry = MetricPathRegistry.global();
+
+    private Map<String, Double> scrape(TickDurationMetric metric) {
+        MetricBatch batch = new MetricBatch(registry);
+        metric.scrape(batch);
+        Map<String, Double> values = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            values.put(batch.series(i).key(), batch.value(i));
+        }
+        return values;
+    }
+
+    private static void tick(TickDurationMetric metric, int tick, long sleepMillis) throws InterruptedException {
+        FakeServer.fire(metric, new ServerTickStartEvent(tick));
+        if (sleepMillis > 0) {
+            Thread.sleep(sleepMillis);
+        }
+        FakeServer.fire(metric, new ServerTickEndEvent(tick, sleepMillis, 0));
+    }
+
+    @Test
+    public void testCountsTicksOverThreshold() throws InterruptedException {
+        TickDurationMetric metric = new TickDurationMetric(null);
+        MemoryConfiguration section = new MemoryConfiguration();
+        section.set("slow-tick-ms", 20);
+        assertTrue(metric.configure(section));
+
+        tick(metric, 1, 0);
+        tick(metric, 2, 40);
+        tick(metric, 3, 0);
+        /* A tick end without a start, e.g. right after the group started, is not counted */
+        FakeServer.fire(metric, new ServerTickEndEvent(4, 0, 0));
+
+        Map<String, Double> values = scrape(metric);
+        assertEquals(3.0, (double) values.get(TickDurationMetric.TICKS));
+        assertEquals(1.0, (double) values.get(TickDurationMetric.SLOW_TICKS));
+        assertTrue(values.get(TickDurationMetric.DURATION + ".max") >= 40);
+        assertTrue(values.get(TickDurationMetric.DURATION + ".p50") < 20);
+
+        /* Counts start over, and quantiles are left out without any tick */
+        values = scrape(metric);
+        assertEquals(Map.of(TickDurationMetric.TICKS, 0.0, TickDurationMetric.SLOW_TICKS, 0.0), values);
+    }
+}
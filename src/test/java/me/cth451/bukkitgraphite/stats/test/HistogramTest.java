@@ -0,0 +1,47 @@
+package me.cth451.bukkitgraphite.stats.test;
+
+import me.cth451.bukkitgraphite.stats.Histogram;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HistogramTest {
+    @Test
+    public void testPercentilesWithinBucketError() {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i);
+        }
+        Histogram.Snapshot s = new Histogram.Snapshot();
+        h.drainTo(s);
+        assertEquals(1000, s.count());
+        assertEquals(1000, s.max());
+        assertTrue(Math.abs(s.percentile(0.5) - 500) <= 500 / Histogram.SUB_BUCKETS);
+        assertTrue(Math.abs(s.percentile(0.99) - 990) <= 990 / Histogram.SUB_BUCKETS);
+        assertEquals(1000, s.percentile(1.0));
+    }
+
+    @Test
+    public void testExactForSmallAndHugeValues() {
+        Histogram h = new Histogram();
+        h.record(3);
+        h.record(Long.MAX_VALUE);
+        Histogram.Snapshot s = new Histogram.Snapshot();
+        h.drainTo(s);
+        assertEquals(3, s.percentile(0.5));
+        assertEquals(Long.MAX_VALUE, s.percentile(1.0));
+    }
+
+    @Test
+    public void testDrainResets() {
+        Histogram h = new Histogram();
+        h.record(42);
+        Histogram.Snapshot s = new Histogram.Snapshot();
+        h.drainTo(s);
+        assertEquals(1, s.count());
+        h.drainTo(s);
+        assertEquals(0, s.count());
+        assertEquals(0, s.max());
+        assertEquals(0, s.percentile(0.99));
+    }
+}
@@ -0,0 +1,185 @@
+package me.cth451.bukkitgraphite.test;
+
+import me.cth451.bukkitgraphite.BatchLog;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchLogTest {
+    private final MetricPathRegistry registry = new MetricPathRegistry();
+
+    private MetricBatch shard(long timestamp, String key, double value) {
+        MetricBatch batch = new MetricBatch(registry);
+        batch.setTimestamp(timestamp);
+        batch.add(registry.intern(key), value);
+        return batch;
+    }
+
+    private List<MetricBatch> drain(BatchLog.Cursor cursor) {
+        List<MetricBatch> out = new ArrayList<>();
+        cursor.drainTo(out);
+        return out;
+    }
+
+    @Test
+    public void testDropOldest() {
+        BatchLog queue = new BatchLog(2, BatchLog.OverflowPolicy.DROP_OLDEST);
+        queue.offer(shard(1, "a", 1));
+        queue.offer(shard(2, "a", 2));
+        queue.offer(shard(3, "a", 3));
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.dropped());
+        List<MetricBatch> out = drain(queue.openCursor());
+        assertEquals(2, out.get(0).timestamp());
+        assertEquals(3, out.get(1).timestamp());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testDropNewest() {
+        BatchLog queue = new BatchLog(2, BatchLog.OverflowPolicy.DROP_NEWEST);
+        queue.offer(shard(1, "a", 1));
+        queue.offer(shard(2, "a", 2));
+        queue.offer(shard(3, "a", 3));
+        assertEquals(1, queue.dropped());
+        List<MetricBatch> out = drain(queue.openCursor());
+        assertEquals(1, out.get(0).timestamp());
+        assertEquals(2, out.get(1).timestamp());
+    }
+
+    @Test
+    public void testMergeNewest() {
+        BatchLog queue = new BatchLog(1, BatchLog.OverflowPolicy.MERGE_NEWEST);
+        queue.offer(shard(1, "a", 1));
+        queue.offer(shard(2, "a", 2));
+        queue.offer(shard(3, "b", 3));
+        assertEquals(0, queue.dropped());
+        assertEquals(2, queue.merged());
+        List<MetricBatch> out = drain(queue.openCursor());
+        assertEquals(1, out.size());
+        MetricBatch merged = out.get(0);
+        assertEquals(3, merged.timestamp());
+        assertEquals(2, merged.size());
+        assertEquals(registry.intern("a"), merged.series(0));
+        assertEquals(2.0, merged.value(0));
+        assertEquals(registry.intern("b"), merged.series(1));
+        assertEquals(3.0, merged.value(1));
+    }
+
+    @Test
+    public void testShrinkKeepsNewest() {
+        BatchLog queue = new BatchLog(4, BatchLog.OverflowPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 4; i++) {
+            queue.offer(shard(i, "a", i));
+        }
+        queue.configure(2, BatchLog.OverflowPolicy.DROP_NEWEST);
+        assertEquals(2, queue.capacity());
+        assertEquals(2, queue.dropped());
+        List<MetricBatch> out = drain(queue.openCursor());
+        assertEquals(3, out.get(0).timestamp());
+        assertEquals(4, out.get(1).timestamp());
+    }
+
+    @Test
+    public void testPolicyNames() {
+        assertEquals(BatchLog.OverflowPolicy.MERGE_NEWEST, BatchLog.OverflowPolicy.fromConfig("merge-newest"));
+        assertEquals("drop-oldest", BatchLog.OverflowPolicy.DROP_OLDEST.configName());
+        assertNull(BatchLog.OverflowPolicy.fromConfig("bogus"));
+    }
+
+    @Test
+    public void testCursorsReadIndependently() {
+        BatchLog log = new BatchLog(4, BatchLog.OverflowPolicy.DROP_OLDEST);
+        BatchLog.Cursor fast = log.openCursor();
+        BatchLog.Cursor slow = log.openCursor();
+        log.offer(shard(1, "a", 1));
+        log.offer(shard(2, "a", 2));
+        assertEquals(2, drain(fast).size());
+        assertEquals(0, fast.lag());
+        assertEquals(2, slow.lag());
+        assertEquals(9, slow.lagMillis(10));
+        assertEquals(2, log.size());
+
+        /* The slow cursor alone loses the oldest shards once the log is full */
+        for (int i = 3; i <= 6; i++) {
+            log.offer(shard(i, "a", i));
+        }
+        assertEquals(2, log.dropped());
+        assertEquals(0, fast.takeDropped());
+        assertEquals(2, slow.takeDropped());
+        assertEquals(0, slow.takeDropped());
+        assertEquals(4, drain(fast).size());
+        List<MetricBatch> out = drain(slow);
+        assertEquals(4, out.size());
+        assertEquals(3, out.get(0).timestamp());
+        assertEquals(0, log.size());
+    }
+
+    @Test
+    public void testCloseReleasesUnread() {
+        BatchLog log = new BatchLog(4, BatchLog.OverflowPolicy.DROP_OLDEST);
+        BatchLog.Cursor a = log.openCursor();
+        BatchLog.Cursor b = log.openCursor();
+        log.offer(shard(1, "a", 1));
+        drain(a);
+        assertEquals(1, log.size());
+        b.close();
+        assertEquals(0, log.size());
+    }
+
+    @Test
+    public void testMergeSkipsShardAlreadyRead() {
+        BatchLog log = new BatchLog(2, BatchLog.OverflowPolicy.MERGE_NEWEST);
+        BatchLog.Cursor fast = log.openCursor();
+        BatchLog.Cursor slow = log.openCursor();
+        log.offer(shard(1, "a", 1));
+        log.offer(shard(2, "a", 2));
+        List<MetricBatch> sent = drain(fast);
+        log.offer(shard(3, "a", 3));
+        /* Shard 2 is in flight on the fast cursor, so it is left alone and shard 1 goes */
+        assertEquals(2.0, sent.get(1).value(0));
+        assertEquals(0, log.merged());
+        assertEquals(1, log.dropped());
+        List<MetricBatch> out = drain(slow);
+        assertEquals(2, out.size());
+        assertEquals(2, out.get(0).timestamp());
+        assertEquals(3, out.get(1).timestamp());
+    }
+
+    @Test
+    public void testDropNewestOnlySkipsFullCursors() {
+        BatchLog log = new BatchLog(2, BatchLog.OverflowPolicy.DROP_NEWEST);
+        BatchLog.Cursor fast = log.openCursor();
+        BatchLog.Cursor slow = log.openCursor();
+        log.offer(shard(1, "a", 1));
+        log.offer(shard(2, "a", 2));
+        assertEquals(2, drain(fast).size());
+
+        /* The slow cursor keeps shards 1 and 2, and skips newer ones until it has read them */
+        log.offer(shard(3, "a", 3));
+        log.offer(shard(4, "a", 4));
+        assertEquals(2, slow.takeDropped());
+        assertEquals(2, slow.lag());
+        List<MetricBatch> fastOut = drain(fast);
+        assertEquals(2, fastOut.size());
+        assertEquals(3, fastOut.get(0).timestamp());
+        assertEquals(0, fast.takeDropped());
+
+        List<MetricBatch> slowOut = drain(slow);
+        assertEquals(2, slowOut.size());
+        assertEquals(1, slowOut.get(0).timestamp());
+        assertEquals(2, slowOut.get(1).timestamp());
+        assertEquals(0, slow.lag());
+
+        /* Both read from the log again */
+        log.offer(shard(5, "a", 5));
+        assertEquals(5, drain(slow).get(0).timestamp());
+        assertEquals(5, drain(fast).get(0).timestamp());
+        assertEquals(0, log.size());
+    }
+}
@@ -0,0 +1,73 @@
+package me.cth451.bukkitgraphite.test;
+
+import me.cth451.bukkitgraphite.ScrapeScheduler;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricGroup;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScrapeSchedulerTest {
+    private static MetricGroup group(String id) {
+        return new MetricGroup(null) {
+            @Override
+            public void scrape(@NotNull MetricBatch batch) {
+            }
+
+            @Override
+            public double interval() {
+                return 20;
+            }
+
+            @Override
+            public @NotNull String name() {
+                return id;
+            }
+
+            @Override
+            public @NotNull String id() {
+                return id;
+            }
+        };
+    }
+
+    @Test
+    public void testGroupsRunAtOwnIntervals() {
+        MetricGroup fast = group("fast");
+        MetricGroup slow = group("slow");
+        MetricGroup verySlow = group("very-slow");
+        ScrapeScheduler scheduler = new ScrapeScheduler(List.of(fast, slow, verySlow), new int[]{1, 20, 1200});
+        MetricGroup[] due = new MetricGroup[scheduler.size()];
+        Map<MetricGroup, Integer> runs = new HashMap<>();
+        for (int tick = 0; tick < 2400; tick++) {
+            int n = scheduler.tick(due);
+            for (int i = 0; i < n; i++) {
+                runs.merge(due[i], 1, Integer::sum);
+            }
+        }
+        assertEquals(2400, runs.get(fast).intValue());
+        assertEquals(120, runs.get(slow).intValue());
+        assertEquals(2, runs.get(verySlow).intValue());
+    }
+
+    @Test
+    public void testSameIntervalIsStaggered() {
+        List<MetricGroup> groups = List.of(group("a"), group("b"), group("c"), group("d"));
+        ScrapeScheduler scheduler = new ScrapeScheduler(groups, new int[]{100, 100, 100, 100});
+        MetricGroup[] due = new MetricGroup[scheduler.size()];
+        int[] firstRun = new int[groups.size()];
+        for (int tick = 0; tick < 100; tick++) {
+            int n = scheduler.tick(due);
+            assertTrue(n <= 1);
+            if (n == 1) {
+                firstRun[groups.indexOf(due[0])] = tick;
+            }
+        }
+        assertArrayEquals(new int[]{0, 25, 50, 75}, firstRun);
+    }
+}
@@ -0,0 +1,25 @@
+package me.cth451.bukkitgraphite.updater.test;
+
+import me.cth451.bukkitgraphite.updater.CircuitBreaker;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CircuitBreakerTest {
+    @Test
+    public void testQueryDoesNotClaimTrial() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 10);
+        assertTrue(breaker.recordFailure());
+        Thread.sleep(5);
+        assertTrue(breaker.isRequestAllowed());
+        assertTrue(breaker.isRequestAllowed());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertFalse(breaker.isRequestAllowed());
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.recordSuccess());
+        assertTrue(breaker.isRequestAllowed());
+    }
+}
@@ -0,0 +1,49 @@
+package me.cth451.bukkitgraphite.updater.test;
+
+import me.cth451.bukkitgraphite.updater.ConsistentHashRing;
+import me.cth451.bukkitgraphite.updater.ConsistentHashRing.Node;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Expected values were produced with carbon's own ConsistentHashRing (carbon/hashing.py)
+ */
+public class ConsistentHashRingTest {
+    private final ConsistentHashRing ring = new ConsistentHashRing(List.of(
+            new Node("10.0.0.1", null),
+            new Node("10.0.0.2", "a"),
+            new Node("10.0.0.3", null),
+            new Node("carbon-4", "b")), ConsistentHashRing.DEFAULT_REPLICAS);
+
+    @Test
+    public void testPosition() {
+        assertEquals(57405, ConsistentHashRing.position("server.tps"));
+        assertEquals(3265, ConsistentHashRing.position("a"));
+        assertEquals(39758, ConsistentHashRing.position("('10.0.0.2', 'a'):7"));
+    }
+
+    @Test
+    public void testPreferenceOrderMatchesCarbon() {
+        assertArrayEquals(new int[]{1, 0, 2, 3}, ring.preferenceOrder("server.tps"));
+        assertArrayEquals(new int[]{1, 0, 3, 2}, ring.preferenceOrder("ns.server.entity.world.zombie"));
+        assertArrayEquals(new int[]{1, 0, 2, 3}, ring.preferenceOrder("mc.players.online"));
+        assertArrayEquals(new int[]{1, 3, 2, 0}, ring.preferenceOrder("a"));
+        assertArrayEquals(new int[]{3, 0, 2, 1}, ring.preferenceOrder("pipeline.queue.depth"));
+        assertArrayEquals(new int[]{1, 2, 0, 3}, ring.preferenceOrder("x.y.z"));
+    }
+
+    @Test
+    public void testSingleNode() {
+        ConsistentHashRing single = new ConsistentHashRing(List.of(new Node("localhost", null)), 100);
+        assertArrayEquals(new int[]{0}, single.preferenceOrder("server.tps"));
+    }
+
+    @Test
+    public void testRejectsDuplicates() {
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(
+                List.of(new Node("localhost", null), new Node("localhost", null)), 100));
+    }
+}
@@ -0,0 +1,77 @@
+package me.cth451.bukkitgraphite.updater.test;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.updater.GraphiteUpdater;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GraphiteUdpTest {
+    @Test
+    public void testPacksWholeLinesUnderMtu() throws IOException {
+        MetricPathRegistry registry = MetricPathRegistry.global();
+        MetricBatch batch = new MetricBatch(registry);
+        batch.setTimestamp(1700000000000L);
+        for (int i = 0; i < 100; i++) {
+            batch.add(registry.intern("test.udp.series" + i), i);
+        }
+
+        try (DatagramChannel receiver = DatagramChannel.open()) {
+            receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+            GraphiteUpdater updater = new GraphiteUpdater(null);
+            updater.setTransport(GraphiteUpdater.Transport.UDP, 200);
+            updater.setEndpoint("127.0.0.1", ((InetSocketAddress) receiver.getLocalAddress()).getPort());
+            assertTrue(updater.sendUpdates(List.of(batch)));
+            updater.halt();
+
+            receiver.configureBlocking(false);
+            ByteBuffer buf = ByteBuffer.allocate(65536);
+            int datagrams = 0;
+            int lines = 0;
+            while (receiver.receive(buf) != null) {
+                buf.flip();
+                assertTrue(buf.remaining() <= 200);
+                String payload = StandardCharsets.UTF_8.decode(buf).toString();
+                assertTrue(payload.endsWith("\n"));
+                for (String line : payload.split("\n")) {
+                    assertTrue(line.matches("test\\.udp\\.series\\d+ \\d+ 1700000000"), line);
+                    lines++;
+                }
+                datagrams++;
+                buf.clear();
+            }
+            assertEquals(100, lines);
+            assertTrue(datagrams > 1);
+        }
+    }
+
+    @Test
+    public void testCountsLinesTooLargeForDatagram() throws IOException {
+        MetricPathRegistry registry = MetricPathRegistry.global();
+        MetricBatch batch = new MetricBatch(registry);
+        batch.setTimestamp(1700000000000L);
+        batch.add(registry.intern("test.udp.short"), 1);
+        batch.add(registry.intern("test.udp." + "long".repeat(20)), 2);
+        batch.add(registry.intern("test.udp.short2"), 3);
+
+        try (DatagramChannel receiver = DatagramChannel.open()) {
+            receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+            GraphiteUpdater updater = new GraphiteUpdater(null);
+            updater.setTransport(GraphiteUpdater.Transport.UDP, 64);
+            updater.setEndpoint("127.0.0.1", ((InetSocketAddress) receiver.getLocalAddress()).getPort());
+            assertTrue(updater.sendUpdates(List.of(batch)));
+            updater.halt();
+
+            assertEquals(2, updater.deliveryStats().lines());
+            assertEquals(1, updater.deliveryStats().droppedPoints());
+        }
+    }
+}
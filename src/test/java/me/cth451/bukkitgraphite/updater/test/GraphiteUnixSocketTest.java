@@ -0,0 +1,112 @@
+package me.cth451.bukkitgraphite.updater.test;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.updater.GraphiteUpdater;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GraphiteUnixSocketTest {
+    private static String readLines(SocketChannel client, int lines) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(65536);
+        String received = "";
+        while (received.split("\n", -1).length <= lines) {
+            assertTrue(client.read(buf) > 0);
+            received = new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8);
+        }
+        return received;
+    }
+
+    @Test
+    public void testStreamsOverPersistentConnection() throws IOException {
+        MetricPathRegistry registry = MetricPathRegistry.global();
+        MetricBatch first = new MetricBatch(registry);
+        first.setTimestamp(1700000000000L);
+        first.add(registry.intern("test.unix.tps"), 20);
+        first.add(registry.intern("test.unix.players"), 3);
+        MetricBatch second = new MetricBatch(registry);
+        second.setTimestamp(1700000001000L);
+        second.add(registry.intern("test.unix.tps"), 19.5);
+
+        Path dir = Files.createTempDirectory("bukkitgraphite");
+        Path socket = dir.resolve("carbon.sock");
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            GraphiteUpdater updater = new GraphiteUpdater(null);
+            updater.setTransport(GraphiteUpdater.Transport.UNIX, 0);
+            updater.setSocketPath(socket.toString());
+            updater.setRootNamespace("ns");
+            assertTrue(updater.sendUpdates(List.of(first, second)));
+
+            try (SocketChannel client = server.accept()) {
+                assertEquals("ns.test.unix.tps 20 1700000000\nns.test.unix.players 3 1700000000\n" +
+                             "ns.test.unix.tps 19.5 1700000001\n", readLines(client, 3));
+                /* The next update reuses the same stream */
+                assertTrue(updater.sendUpdates(List.of(second)));
+                assertEquals("ns.test.unix.tps 19.5 1700000001\n", readLines(client, 1));
+            }
+            updater.halt();
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testUpdatersWithSameFormatShareEncoding() throws IOException {
+        MetricPathRegistry registry = MetricPathRegistry.global();
+        MetricBatch batch = new MetricBatch(registry);
+        batch.setTimestamp(1700000000000L);
+        batch.add(registry.intern("test.unix.shared"), 7);
+
+        Path dir = Files.createTempDirectory("bukkitgraphite");
+        Path[] sockets = {dir.resolve("primary.sock"), dir.resolve("dr.sock")};
+        ServerSocketChannel[] servers = new ServerSocketChannel[2];
+        GraphiteUpdater[] updaters = new GraphiteUpdater[2];
+        try {
+            for (int i = 0; i < 2; i++) {
+                servers[i] = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                servers[i].bind(UnixDomainSocketAddress.of(sockets[i]));
+                updaters[i] = new GraphiteUpdater(null);
+                updaters[i].setTransport(GraphiteUpdater.Transport.UNIX, 0);
+                updaters[i].setSocketPath(sockets[i].toString());
+                updaters[i].setRootNamespace("ns");
+                updaters[i].start();
+            }
+            assertTrue(updaters[0].sendUpdates(List.of(batch)));
+            assertTrue(updaters[1].sendUpdates(List.of(batch)));
+            for (ServerSocketChannel server : servers) {
+                try (SocketChannel client = server.accept()) {
+                    assertEquals("ns.test.unix.shared 7 1700000000\n", readLines(client, 1));
+                }
+            }
+            /* Only the first updater encoded the batch */
+            assertTrue(updaters[0].deliveryStats().encodeNanos() > 0);
+            assertEquals(0, updaters[1].deliveryStats().encodeNanos());
+            assertEquals(1, updaters[1].deliveryStats().lines());
+        } finally {
+            for (int i = 0; i < 2; i++) {
+                if (updaters[i] != null) {
+                    updaters[i].halt();
+                }
+                if (servers[i] != null) {
+                    servers[i].close();
+                }
+                Files.deleteIfExists(sockets[i]);
+            }
+            Files.delete(dir);
+        }
+    }
+}
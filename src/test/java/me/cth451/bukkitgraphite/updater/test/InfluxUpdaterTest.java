@@ -0,0 +1,137 @@
+package me.cth451.bukkitgraphite.updater.test;
+
+import com.sun.net.httpserver.HttpServer;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.updater.InfluxUpdater;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InfluxUpdaterTest {
+    private final MetricPathRegistry registry = MetricPathRegistry.global();
+
+    /**
+     * Calls transmit() directly, bypassing the circuit breaker which needs a plugin to log to
+     */
+    private static class DirectInfluxUpdater extends InfluxUpdater {
+        DirectInfluxUpdater() {
+            super(null);
+        }
+
+        boolean send(List<MetricBatch> batches) {
+            return transmit(batches);
+        }
+    }
+
+    private MetricBatch batch(long timestamp, double tps) {
+        MetricBatch batch = new MetricBatch(registry);
+        batch.setTimestamp(timestamp);
+        batch.add(registry.intern("test.influx.tps"), tps);
+        batch.add(registry.intern("test.influx.entity", Map.of("world", "my world", "type", "a=b,c")), 3);
+        return batch;
+    }
+
+    @Test
+    public void testWritesGzipBatchesAndRetries() throws IOException {
+        List<String> bodies = new ArrayList<>();
+        List<String> queries = new ArrayList<>();
+        AtomicInteger status = new AtomicInteger(500);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            assertEquals("Token secret", exchange.getRequestHeaders().getFirst("Authorization"));
+            try (InputStream in = new GZIPInputStream(exchange.getRequestBody())) {
+                bodies.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            queries.add(exchange.getRequestURI().getRawQuery());
+            exchange.sendResponseHeaders(status.get(), -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            DirectInfluxUpdater updater = new DirectInfluxUpdater();
+            updater.setEndpoint(URI.create("http://127.0.0.1:" + server.getAddress().getPort() +
+                                                   "/api/v2/write?org=o&bucket=b&precision=ms"), "Token secret");
+            updater.setFlushThresholds(1, 60000, 1 << 20);
+
+            /* Server error - the updater keeps the points for the next attempt, so the batch counts as taken */
+            assertTrue(updater.send(List.of(batch(1000, 20))));
+            status.set(204);
+            assertTrue(updater.send(List.of(batch(2000, 19.5))));
+
+            String first = "test.influx.tps value=20 1000\n" +
+                    "test.influx.entity,type=a\\=b\\,c,world=my\\ world value=3 1000\n";
+            String second = "test.influx.tps value=19.5 2000\n" +
+                    "test.influx.entity,type=a\\=b\\,c,world=my\\ world value=3 2000\n";
+            assertEquals(List.of(first, first + second), bodies);
+            assertEquals("org=o&bucket=b&precision=ms", queries.get(1));
+
+            /* Nothing pending any more */
+            updater.flushPending();
+            updater.halt();
+            assertEquals(2, bodies.size());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testHoldsPointsUntilThreshold() throws IOException {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            DirectInfluxUpdater updater = new DirectInfluxUpdater();
+            updater.setEndpoint(URI.create("http://127.0.0.1:" + server.getAddress().getPort() +
+                                                   "/write?db=mc&precision=ms"), null);
+            updater.setFlushThresholds(1 << 20, 60000, 1 << 20);
+            assertTrue(updater.send(List.of(batch(1000, 20))));
+            assertTrue(updater.send(List.of(batch(2000, 20))));
+            assertEquals(0, requests.get());
+            updater.flushPending();
+            assertEquals(1, requests.get());
+            updater.halt();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testPicksWriteApiFromConfig() {
+        /* Keys as in the default config.yml, which leaves org and bucket empty */
+        MemoryConfiguration section = new MemoryConfiguration();
+        section.set("url", "http://localhost:8086/");
+        section.set("org", "");
+        section.set("bucket", "");
+        assertNull(InfluxUpdater.writeUriOf(section));
+
+        section.set("database", "minecraft");
+        assertEquals(URI.create("http://localhost:8086/write?db=minecraft&precision=ms"),
+                     InfluxUpdater.writeUriOf(section));
+
+        section.set("org", "my org");
+        section.set("bucket", "mc");
+        assertEquals(URI.create("http://localhost:8086/api/v2/write?org=my+org&bucket=mc&precision=ms"),
+                     InfluxUpdater.writeUriOf(section));
+    }
+}
@@ -0,0 +1,63 @@
+package me.cth451.bukkitgraphite.updater.test;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.updater.PrometheusNodeExporter;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrometheusNodeExporterTest {
+    private static String get(int port, boolean gzip) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/metrics").openConnection();
+        if (gzip) {
+            conn.setRequestProperty("Accept-Encoding", "gzip");
+        }
+        assertEquals(200, conn.getResponseCode());
+        assertEquals(PrometheusNodeExporter.CONTENT_TYPE, conn.getHeaderField("Content-Type"));
+        try (InputStream in = gzip ? new GZIPInputStream(conn.getInputStream()) : conn.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testServesLatestValues() throws IOException {
+        MetricPathRegistry registry = MetricPathRegistry.global();
+        PrometheusNodeExporter exporter = new PrometheusNodeExporter(null);
+        exporter.setRootNamespace("mc");
+        exporter.setEndpoint(InetAddress.getLoopbackAddress(), 0);
+        MetricBatch first = new MetricBatch(registry);
+        first.add(registry.intern("test.prom.entity", Map.of("world", "b")), 1);
+        first.add(registry.intern("test.prom.tps"), 20);
+        first.add(registry.intern("test.prom.entity", Map.of("world", "a")), 2);
+        MetricBatch second = new MetricBatch(registry);
+        second.add(registry.intern("test.prom.tps"), 19.5);
+        exporter.sendUpdates(List.of(first, second));
+
+        exporter.start();
+        try {
+            int port = exporter.boundPort();
+            assertNotEquals(0, port);
+            String expected = "# TYPE mc_test_prom_entity untyped\n" +
+                    "mc_test_prom_entity{world=\"a\"} 2\n" +
+                    "mc_test_prom_entity{world=\"b\"} 1\n" +
+                    "# TYPE mc_test_prom_tps untyped\n" +
+                    "mc_test_prom_tps 19.5\n";
+            assertEquals(expected, get(port, false));
+            assertEquals(expected, get(port, true));
+        } finally {
+            exporter.halt();
+        }
+        assertEquals(0, exporter.boundPort());
+    }
+}
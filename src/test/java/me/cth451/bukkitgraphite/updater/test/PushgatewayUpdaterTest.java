@@ -0,0 +1,74 @@
+package me.cth451.bukkitgraphite.updater.test;
+
+import com.sun.net.httpserver.HttpServer;
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.updater.PushgatewayUpdater;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PushgatewayUpdaterTest {
+    private final MetricPathRegistry registry = MetricPathRegistry.global();
+
+    /**
+     * Calls transmit() directly, bypassing the circuit breaker which needs a plugin to log to
+     */
+    private static class DirectPushgatewayUpdater extends PushgatewayUpdater {
+        DirectPushgatewayUpdater() {
+            super(null);
+        }
+
+        boolean send(List<MetricBatch> batches) {
+            return transmit(batches);
+        }
+    }
+
+    private MetricBatch batch(double tps) {
+        MetricBatch batch = new MetricBatch(registry);
+        batch.setTimestamp(1000);
+        batch.add(registry.intern("test.pushgateway.tps"), tps);
+        return batch;
+    }
+
+    @Test
+    public void testFinalPushHappensBeforeHalt() throws IOException {
+        List<String> requests = new ArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            synchronized (requests) {
+                requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            DirectPushgatewayUpdater updater = new DirectPushgatewayUpdater();
+            updater.setEndpoint("127.0.0.1:" + server.getAddress().getPort(), "mc", Map.of("instance", "lobby"));
+            updater.setPushInterval(60000);
+
+            /* The first update is pushed right away, the next one waits for the push interval */
+            assertTrue(updater.send(List.of(batch(20))));
+            assertTrue(updater.send(List.of(batch(19.5))));
+            assertEquals(List.of("PUT /metrics/job/mc/instance/lobby"), requests);
+
+            /* The delivery thread pushes what is left, halting does not touch the network */
+            updater.flushPending();
+            assertEquals(2, requests.size());
+            updater.flushPending();
+            updater.halt();
+            assertEquals(2, requests.size());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package me.cth451.bukkitgraphite.updater.test;
+
+import me.cth451.bukkitgraphite.metric.model.MetricBatch;
+import me.cth451.bukkitgraphite.metric.model.MetricPathRegistry;
+import me.cth451.bukkitgraphite.updater.Spool;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpoolTest {
+    private final MetricPathRegistry registry = MetricPathRegistry.global();
+
+    private MetricBatch batch(long timestamp, double value) {
+        MetricBatch batch = new MetricBatch(registry);
+        batch.setTimestamp(timestamp);
+        batch.add(registry.intern("test.spool.tps"), value);
+        batch.add(registry.intern("test.spool.entity", Map.of("world", "world_nether", "type", "zombie")), value * 2);
+        return batch;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    /**
+     * Replay everything left in the spool, committing as we go
+     */
+    private static List<MetricBatch> drain(Spool spool) throws IOException {
+        List<MetricBatch> replayed = new ArrayList<>();
+        while (!spool.isEmpty()) {
+            Spool.Replay replay = spool.peek();
+            replayed.addAll(replay.batches());
+            spool.commit(replay);
+        }
+        return replayed;
+    }
+
+    @Test
+    public void testReplaysInOrder() throws IOException {
+        Path dir = Files.createTempDirectory("spool");
+        try (Spool spool = new Spool(dir, Spool.DEFAULT_SEGMENT_BYTES, Spool.DEFAULT_MAX_BYTES, 1000, registry)) {
+            assertTrue(spool.isEmpty());
+            spool.append(List.of(batch(1000, 1), batch(2000, 2)));
+            spool.append(List.of(batch(3000, 3.5)));
+            assertFalse(spool.isEmpty());
+
+            /* Nothing is consumed until committed */
+            Spool.Replay first = spool.peek();
+            assertFalse(first.batches().isEmpty());
+            assertEquals(1000, first.batches().get(0).timestamp());
+            assertEquals(1000, spool.peek().batches().get(0).timestamp());
+
+            List<MetricBatch> replayed = drain(spool);
+            assertEquals(3, replayed.size());
+            for (int i = 0; i < 3; i++) {
+                MetricBatch b = replayed.get(i);
+                assertEquals(1000L * (i + 1), b.timestamp());
+                assertEquals(2, b.size());
+                assertSame(registry.intern("test.spool.tps"), b.series(0));
+                assertSame(registry.intern("test.spool.entity", Map.of("type", "zombie", "world", "world_nether")),
+                           b.series(1));
+                assertEquals(b.value(0) * 2, b.value(1));
+            }
+            assertEquals(3.5, replayed.get(2).value(0));
+            assertEquals(0, spool.sizeBytes());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testSurvivesReopen() throws IOException {
+        Path dir = Files.createTempDirectory("spool");
+        try {
+            try (Spool spool = new Spool(dir, 64 * 1024, Spool.DEFAULT_MAX_BYTES, 1, registry)) {
+                for (int i = 0; i < 4; i++) {
+                    spool.append(List.of(batch(i, i)));
+                }
+                /* A rate of one point per second lets a single record through */
+                Spool.Replay replay = spool.peek();
+                assertEquals(1, replay.batches().size());
+                spool.commit(replay);
+            }
+            try (Spool spool = new Spool(dir, 64 * 1024, Spool.DEFAULT_MAX_BYTES, 1000, registry)) {
+                spool.append(List.of(batch(4, 4)));
+                List<MetricBatch> replayed = drain(spool);
+                assertEquals(4, replayed.size());
+                for (int i = 0; i < 4; i++) {
+                    assertEquals(i + 1, replayed.get(i).timestamp());
+                }
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testEvictsOldestSegment() throws IOException {
+        Path dir = Files.createTempDirectory("spool");
+        long segment = 64 * 1024;
+        try (Spool spool = new Spool(dir, segment, 3 * segment, 1_000_000, registry)) {
+            int appended = 0;
+            while (spool.evictedSegments() < 2) {
+                spool.append(List.of(batch(appended, appended)));
+                appended++;
+            }
+            assertTrue(spool.sizeBytes() <= 3 * segment);
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(3, files.count());
+            }
+            List<MetricBatch> replayed = drain(spool);
+            assertTrue(replayed.get(0).timestamp() > 0, "oldest data should have been evicted");
+            assertEquals(appended - 1, replayed.get(replayed.size() - 1).timestamp());
+            for (int i = 1; i < replayed.size(); i++) {
+                assertEquals(replayed.get(i - 1).timestamp() + 1, replayed.get(i).timestamp());
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testLongSeries() throws IOException {
+        Path dir = Files.createTempDirectory("spool");
+        String longValue = "x".repeat(5000);
+        String tooLong = "y".repeat(70000);
+        MetricBatch b = new MetricBatch(registry);
+        b.setTimestamp(1000);
+        b.add(registry.intern("test.spool.long", Map.of("name", longValue)), 1);
+        b.add(registry.intern("test.spool.too_long", Map.of("name", tooLong)), 2);
+        b.add(registry.intern("test.spool.tps"), 3);
+        try (Spool spool = new Spool(dir, Spool.DEFAULT_SEGMENT_BYTES, Spool.DEFAULT_MAX_BYTES, 1000, registry)) {
+            spool.append(List.of(b));
+            List<MetricBatch> replayed = drain(spool);
+            assertEquals(1, replayed.size());
+            /* The series that doesn't fit the record format is left out */
+            assertEquals(2, replayed.get(0).size());
+            assertEquals(longValue, replayed.get(0).series(0).tags().get("name"));
+            assertEquals(3, replayed.get(0).value(1));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testClosedSpoolRejectsAppends() throws IOException {
+        Path dir = Files.createTempDirectory("spool");
+        try {
+            Spool spool = new Spool(dir, 64 * 1024, Spool.DEFAULT_MAX_BYTES, 1000, registry);
+            spool.append(List.of(batch(1, 1)));
+            spool.close();
+            assertThrows(IOException.class, () -> spool.append(List.of(batch(2, 2))));
+            assertTrue(spool.peek().batches().isEmpty());
+
+            /* Another spool takes over the directory */
+            try (Spool reopened = new Spool(dir, 64 * 1024, Spool.DEFAULT_MAX_BYTES, 1000, registry)) {
+                assertEquals(1, drain(reopened).size());
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+}